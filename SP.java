@@ -1,16 +1,18 @@
 package com.waellotfy.PersistentSubtitle;
 
 import android.app.Activity;
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.content.res.AssetManager;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -20,62 +22,111 @@ import android.graphics.drawable.ColorDrawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.provider.Settings;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.PrecomputedText;
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.StaticLayout;
 import android.text.TextPaint;
+import android.text.TextWatcher;
+import android.text.method.ScrollingMovementMethod;
+import android.text.style.CharacterStyle;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+import android.text.style.UpdateAppearance;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.Gravity;
+import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
+import android.view.inputmethod.EditorInfo;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.CompoundButton;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.RelativeLayout;
 import android.widget.ScrollView;
+import android.widget.SectionIndexer;
 import android.widget.SeekBar;
 import android.widget.Switch;
 import android.widget.TextView;
+import android.widget.Toast;
 import com.google.appinventor.components.annotations.*;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.runtime.*;
-import java.io.BufferedReader;
+import com.google.appinventor.components.runtime.util.YailList;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
 
 @DesignerComponent(version = 48,
     description = "Subtitle player with full control and settings panel.",
     category = ComponentCategory.EXTENSION,
     nonVisible = true,
     iconName = "aiwebres/icon.png")
-@UsesPermissions(permissionNames = "android.permission.SYSTEM_ALERT_WINDOW, android.permission.READ_EXTERNAL_STORAGE, android.permission.INTERNET, android.permission.FOREGROUND_SERVICE")
+@UsesPermissions(permissionNames = "android.permission.SYSTEM_ALERT_WINDOW, android.permission.READ_EXTERNAL_STORAGE, android.permission.INTERNET, android.permission.FOREGROUND_SERVICE, android.permission.SCHEDULE_EXACT_ALARM")
 @SimpleObject(external = true)
 @SuppressWarnings("deprecation")
 public class PersistentSubtitle extends AndroidNonvisibleComponent implements ActivityResultListener {
 
     private static final String TAG = "PersistentSubtitle";
     private static final int OVERLAY_REQUEST_CODE = 1234;
+    private static final int SCHEDULED_START_REQUEST_CODE = 1235;
     private final Activity activity;
-    private List<SubtitleEntry> preparedSubtitleData;
+    private static final String TIMELINE_DIR = "timelines";
+    private static final String GUIDE_SNAPSHOT = "guide.pepg";
+    private static final String GUIDE_SEARCH = "guide.pepx";
+    private static final String GUIDE_FEED_DIR = "guides";
+    // The timeline an armed start will play, kept out of the cache dir where trimming or the system could delete it.
+    private static final String SCHEDULED_TIMELINE = "scheduled.pst";
+    private File preparedTimelineFile;
+    private CharsetDetector.Result lastDetection;
+    private File searchFile;
+    private CueSearchIndex searchIndex;
+    private volatile EpgSnapshot guide;
+    private EpgSearchIndex guideSearch;
+    private EpgSnapshot guideSearchBuilding;
+    private EpgTitleMatcher titleMatcher;
 
     public PersistentSubtitle(ComponentContainer container) {
         super(container.$form());
@@ -85,10 +136,16 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
     public static class SubtitleEntry implements Serializable {
         final long startTimeMillis, endTimeMillis;
         final String text;
+        // Styled runs compiled from ASS override tags, packed as {start, end, kind, value} (see AssParser.SPAN_*).
+        final int[] spans;
         SubtitleEntry(long start, long end, String text) {
+            this(start, end, text, null);
+        }
+        SubtitleEntry(long start, long end, String text, int[] spans) {
             this.startTimeMillis = start;
             this.endTimeMillis = end;
             this.text = text;
+            this.spans = spans;
         }
     }
 
@@ -103,33 +160,43 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
         EventDispatcher.dispatchEvent(this, "PlaybackStopped");
     }
 
-    @SimpleFunction(description = "Asynchronously loads an SRT file from a Content URI (from a file picker), a direct file path, or an asset name. For encoding, use 'auto', 'UTF-8', or 'windows-1256'.")
+    @SimpleEvent(description = "Fires before SubtitleLoaded when a file was decoded with encoding 'auto' (not when it came from the compiled cache). Reports the charset that was picked and a confidence from 0 to 100.")
+    public void EncodingDetected(String charset, int confidence) {
+        EventDispatcher.dispatchEvent(this, "EncodingDetected", charset, confidence);
+    }
+
+    @SimpleFunction(description = "Asynchronously loads an SRT or ASS/SSA file from a Content URI (from a file picker), a direct file path, or an asset name. For encoding, use 'auto', 'UTF-8', or 'windows-1256'.")
     public void LoadSubtitleFromFile(final String uriOrPath, final String encoding) {
         new Thread(new Runnable() {
             @Override
             public void run() {
                 try {
-                    InputStream inputStream;
-                    if (uriOrPath.startsWith("content://")) {
-                        Uri contentUri = Uri.parse(uriOrPath);
-                        inputStream = activity.getContentResolver().openInputStream(contentUri);
-                    } else if (uriOrPath.startsWith("/")) {
-                        inputStream = new FileInputStream(new File(uriOrPath));
-                    } else {
-                        inputStream = form.openAsset(uriOrPath);
-                    }
-                    
-                    if (inputStream == null) {
-                        throw new IOException("Could not open input stream for: " + uriOrPath);
-                    }
+                    File localFile = uriOrPath.startsWith("/") ? new File(uriOrPath) : null;
+                    if (localFile == null || !reuseCompiled(localFile, encoding)) {
+                        InputStream inputStream;
+                        if (uriOrPath.startsWith("content://")) {
+                            Uri contentUri = Uri.parse(uriOrPath);
+                            inputStream = activity.getContentResolver().openInputStream(contentUri);
+                        } else if (localFile != null) {
+                            inputStream = new FileInputStream(localFile);
+                        } else {
+                            inputStream = form.openAsset(uriOrPath);
+                        }
 
-                    parseSrtStream(inputStream, encoding);
+                        if (inputStream == null) {
+                            throw new IOException("Could not open input stream for: " + uriOrPath);
+                        }
+
+                        parseSrtStream(inputStream, encoding, localFile);
+                    }
                     activity.runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
+                            reportDetectedEncoding();
                             PersistentSubtitle.this.SubtitleLoaded(true, uriOrPath);
                         }
                     });
+                    searchIndex();
                 } catch (final Exception e) {
                     Log.e(TAG, "Error loading from File/URI: " + e.getMessage());
                     activity.runOnUiThread(new Runnable() {
@@ -143,20 +210,22 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
         }).start();
     }
 
-    @SimpleFunction(description = "Asynchronously loads an SRT file from a URL. For encoding, use 'auto', 'UTF-8', or 'windows-1256'.")
+    @SimpleFunction(description = "Asynchronously loads an SRT or ASS/SSA file from a URL. For encoding, use 'auto', 'UTF-8', or 'windows-1256'.")
     public void LoadSubtitleFromUrl(final String url, final String encoding) {
         new Thread(new Runnable() {
             @Override
             public void run() {
                 try {
                     InputStream inputStream = new URL(url).openStream();
-                    parseSrtStream(inputStream, encoding);
+                    parseSrtStream(inputStream, encoding, null);
                     activity.runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
+                            reportDetectedEncoding();
                             PersistentSubtitle.this.SubtitleLoaded(true, url);
                         }
                     });
+                    searchIndex();
                 } catch (final Exception e) {
                     Log.e(TAG, "Error loading from URL: " + e.getMessage());
                     activity.runOnUiThread(new Runnable() {
@@ -177,12 +246,13 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             Log.e(TAG, "Permission not granted. The user must grant it first.");
             return;
         }
-        if (preparedSubtitleData == null || preparedSubtitleData.isEmpty()) {
+        if (preparedTimelineFile == null || !preparedTimelineFile.isFile()) {
             Log.e(TAG, "StartPlayback called but no subtitles are loaded or prepared.");
             return;
         }
+        // Only the path of the compiled timeline is sent; the service maps the file and reads it in place.
         Intent intent = new Intent(activity, SubtitleService.class);
-        intent.putExtra("SUBTITLE_DATA", (ArrayList<SubtitleEntry>) preparedSubtitleData);
+        intent.putExtra("TIMELINE_FILE", preparedTimelineFile.getAbsolutePath());
         
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             activity.startForegroundService(intent);
@@ -253,93 +323,4750 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
     }
     //endregion
 
-    //region SRT Parsing Logic (Internal)
-    private void parseSrtStream(InputStream inputStream, String encoding) throws Exception {
-        List<SubtitleEntry> parsedData;
-        if ("auto".equalsIgnoreCase(encoding)) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = inputStream.read(buffer)) > -1 ) {
-                baos.write(buffer, 0, len);
-            }
-            baos.flush();
-            byte[] streamBytes = baos.toByteArray();
+    //region --- Search Blocks ---
+    @SimpleFunction(description = "Searches the loaded subtitles for cues containing every word of the query and returns up to 'limit' matches in playback order, each as a list of [cue number, start time in ms, text]. Arabic diacritics, tatweel and alef/hamza/ta marbuta variants are ignored, as are Latin case and accents. Words shorter than three letters match the start of a word.")
+    public YailList SearchCues(String query, int limit) {
+        List<Object> matches = new ArrayList<>();
+        CueSearchIndex index = searchIndex();
+        if (index != null) {
+            CompiledTimeline data = index.data;
+            for (int cue : index.search(query, limit)) {
+                List<Object> match = new ArrayList<>();
+                match.add(cue + 1);
+                match.add(data.startAt(cue));
+                match.add(data.textAt(cue));
+                matches.add(YailList.makeList(match));
+            }
+        }
+        return YailList.makeList(matches);
+    }
+
+    @SimpleFunction(description = "Moves the running subtitle player to the given time in milliseconds, for example the start time of a SearchCues match. Does nothing if playback is not running.")
+    public void SeekPlayback(long millis) {
+        Intent intent = new Intent(activity, SubtitleService.class);
+        intent.putExtra("SEEK_TO", Math.max(0, millis));
+        activity.startService(intent);
+    }
+    //endregion
+
+    //region --- Font Blocks ---
+    @SimpleFunction(description = "Downloads the fonts listed in a fontlist.xml (a URL, a direct file path, or an asset name) into the app's font folder, several at a time. Interrupted downloads resume where they stopped, and fonts already downloaded are skipped. Downloaded fonts show up in the font picker right away. Parallelism is clamped to 1-8; 0 or less uses the default of 4.")
+    public void DownloadFonts(final String fontListSource, final int parallelism) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<FontDownloader.FontSource> sources = FontDownloader.parseFontList(openSource(fontListSource));
+                    FontRegistry registry = FontRegistry.get(activity);
+                    FontDownloader downloader = new FontDownloader(registry.downloadDir(), parallelism, new FontDownloader.Listener() {
+                        @Override
+                        public void onProgress(final int finishedFonts, final int totalFonts, final long bytesDone, final long bytesPerSecond) {
+                            activity.runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    FontDownloadProgress(finishedFonts, totalFonts, bytesDone, bytesPerSecond / 1024);
+                                }
+                            });
+                        }
+                    });
+                    final FontDownloader.Result result = downloader.downloadAll(sources);
+                    registry.refresh();
+                    Log.i(TAG, "Fonts: " + result.downloaded + " downloaded, " + result.skipped + " present, " + result.failed + " failed, "
+                            + result.bytes + " bytes in " + result.elapsedMillis + " ms");
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            FontsDownloaded(result.downloaded, result.skipped, result.failed);
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error downloading fonts: " + e.getMessage());
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            FontsDownloaded(0, 0, -1);
+                        }
+                    });
+                }
+            }
+        }).start();
+    }
+
+    // A URL, a direct file path, or an asset name.
+    private InputStream openSource(String source) throws IOException {
+        if (source.startsWith("http://") || source.startsWith("https://")) return new URL(source).openStream();
+        if (source.startsWith("/")) return new FileInputStream(new File(source));
+        return form.openAsset(source);
+    }
+
+    @SimpleEvent(description = "Fires while fonts download, a few times per second and after each font. Reports fonts finished out of the total, bytes received so far, and the overall speed in KB/s.")
+    public void FontDownloadProgress(int finished, int total, long bytes, long kilobytesPerSecond) {
+        EventDispatcher.dispatchEvent(this, "FontDownloadProgress", finished, total, bytes, kilobytesPerSecond);
+    }
+
+    @SimpleEvent(description = "Fires when DownloadFonts is done. Failed is -1 if the font list itself could not be read.")
+    public void FontsDownloaded(int downloaded, int skipped, int failed) {
+        EventDispatcher.dispatchEvent(this, "FontsDownloaded", downloaded, skipped, failed);
+    }
+    //endregion
+
+    //region --- Guide Blocks ---
+    @SimpleFunction(description = "Asynchronously loads an XMLTV guide (a URL, a direct file path, or an asset name) such as 13E.xml. The file is streamed, never held whole in memory, and kept as a compact snapshot that LoadSavedGuide reopens after a restart. Replaces the guide loaded before. Times in the guide blocks are milliseconds since 1970 (as from Clock.GetMillis).")
+    public void LoadGuide(final String source) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long started = System.nanoTime();
+                    final EpgSnapshot loaded = saveGuide(EpgGuide.read(openSource(source)));
+                    Log.i(TAG, "Guide " + source + ": " + loaded.channelCount() + " channels, " + loaded.programmeCount() + " programmes in "
+                            + (System.nanoTime() - started) / 1_000_000 + " ms");
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            guide = loaded;
+                            GuideLoaded(true, source, loaded.channelCount(), loaded.programmeCount());
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error loading guide: " + e.getMessage());
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            GuideLoaded(false, source, 0, 0);
+                        }
+                    });
+                }
+            }
+        }).start();
+    }
+
+    @SimpleEvent(description = "Fires when LoadGuide is done, with the number of channels and programmes read.")
+    public void GuideLoaded(boolean success, String source, int channels, int programmes) {
+        EventDispatcher.dispatchEvent(this, "GuideLoaded", success, source, channels, programmes);
+    }
+
+    @SimpleFunction(description = "Reopens the guide snapshot kept by the last LoadGuide or LoadSatelliteGuides without reading any XML. Returns false if there is none.")
+    public boolean LoadSavedGuide() {
+        File file = new File(activity.getCacheDir(), GUIDE_SNAPSHOT);
+        if (!file.isFile()) return false;
+        try {
+            guide = EpgSnapshot.map(file);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Guide snapshot unreadable: " + e.getMessage());
+            file.delete();
+            return false;
+        }
+    }
+
+    @SimpleFunction(description = "Returns the channels of the loaded guide, each as a list of [channel id, display name].")
+    public YailList GuideChannels() {
+        List<Object> channels = new ArrayList<>();
+        EpgSnapshot current = guide;
+        if (current != null) {
+            for (int channel = 0; channel < current.channelCount(); channel++) {
+                List<Object> item = new ArrayList<>();
+                item.add(current.channelId(channel));
+                item.add(current.channelName(channel));
+                channels.add(YailList.makeList(item));
+            }
+        }
+        return YailList.makeList(channels);
+    }
+
+    @SimpleFunction(description = "Returns the programme on air on a channel at the given time as [channel, title, start, stop, sub-title, description], or an empty list.")
+    public YailList ProgrammeAt(String channel, long millis) {
+        EpgSnapshot current = guide;
+        int found = current != null ? current.channelIndex(channel) : -1;
+        return programmeItem(current, found >= 0 ? current.at(found, millis) : -1);
+    }
+
+    @SimpleFunction(description = "Returns the first programme on a channel starting after the given time, in the same form as ProgrammeAt, or an empty list.")
+    public YailList ProgrammeAfter(String channel, long millis) {
+        EpgSnapshot current = guide;
+        int found = current != null ? current.channelIndex(channel) : -1;
+        return programmeItem(current, found >= 0 ? current.after(found, millis) : -1);
+    }
+
+    @SimpleFunction(description = "Returns every programme overlapping the time range, in the same form as ProgrammeAt. Leave the channel empty for all channels.")
+    public YailList ProgrammesBetween(String channel, long fromMillis, long toMillis) {
+        List<Integer> found = new ArrayList<>();
+        EpgSnapshot current = guide;
+        if (current != null) {
+            if (channel.isEmpty()) {
+                for (int c = 0; c < current.channelCount(); c++) current.between(c, fromMillis, toMillis, found);
+            } else if (current.channelIndex(channel) >= 0) {
+                current.between(current.channelIndex(channel), fromMillis, toMillis, found);
+            }
+        }
+        List<Object> items = new ArrayList<>();
+        for (int index : found) items.add(programmeItem(current, index));
+        return YailList.makeList(items);
+    }
+
+    @SimpleFunction(description = "Loads every guide listed in a satlist.xml (a URL, a direct file path, or an asset name) at the same time and merges them into one guide, replacing the guide loaded before. A channel carried by several satellites is listed once, and a programme another satellite already lists at the same time is dropped. Each satellite's guide is kept between loads, so a feed the server reports unchanged is not downloaded again, and a changed one only replaces the programmes inside the time span it covers on each channel; programmes it no longer lists that are still airing are kept. Programmes that already ended are left out. Parallelism is clamped to 1-8; 0 or less uses the default of 5.")
+    public void LoadSatelliteGuides(final String satListSource, final int parallelism) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<SatelliteGuides.Satellite> satellites = SatelliteGuides.parseSatList(openSource(satListSource));
+                    GuideFeedCache cache = new GuideFeedCache(new File(activity.getCacheDir(), GUIDE_FEED_DIR));
+                    final SatelliteGuides.Result result = new SatelliteGuides(parallelism, cache, System.currentTimeMillis())
+                            .loadAll(satellites, new File(activity.getCacheDir(), GUIDE_SNAPSHOT));
+                    final EpgSnapshot loaded = result.guide != null ? indexGuide(result.guide) : null;
+                    final List<Object> feeds = new ArrayList<>();
+                    for (SatelliteGuides.Feed feed : result.feeds) {
+                        Log.i(TAG, "Guide " + feed.satellite.name + ": " + (feed.snapshot != null ? (feed.notModified ? "not modified, " : "") + feed.snapshot.programmeCount() + " programmes, "
+                                + feed.bytes + " bytes, first byte " + feed.connectMillis + " ms" : "failed (" + feed.error + ")") + ", " + feed.totalMillis + " ms");
+                        List<Object> item = new ArrayList<>();
+                        item.add(feed.satellite.name);
+                        item.add(feed.snapshot != null);
+                        item.add(feed.totalMillis);
+                        item.add(feed.bytes);
+                        item.add(feed.snapshot != null ? feed.snapshot.programmeCount() : 0);
+                        item.add(feed.notModified);
+                        feeds.add(YailList.makeList(item));
+                    }
+                    final int channels = loaded != null ? loaded.channelCount() : 0, programmes = loaded != null ? loaded.programmeCount() : 0;
+                    Log.i(TAG, "Guides merged: " + channels + " channels (" + result.sharedChannels + " shared), "
+                            + programmes + " programmes (" + result.droppedProgrammes + " duplicates dropped) in " + result.elapsedMillis + " ms");
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (loaded != null) guide = loaded;
+                            SatelliteGuidesLoaded(loaded != null, channels, programmes, YailList.makeList(feeds));
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error loading satellite guides: " + e.getMessage());
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            SatelliteGuidesLoaded(false, 0, 0, YailList.makeList(new ArrayList<Object>()));
+                        }
+                    });
+                }
+            }
+        }).start();
+    }
+
+    @SimpleEvent(description = "Fires when LoadSatelliteGuides is done. Success is true if at least one satellite loaded. Feeds has one [satellite name, loaded, milliseconds, bytes, programmes, not modified] list per satellite, to show which feed is slowest.")
+    public void SatelliteGuidesLoaded(boolean success, int channels, int programmes, YailList feeds) {
+        EventDispatcher.dispatchEvent(this, "SatelliteGuidesLoaded", success, channels, programmes, feeds);
+    }
+
+    @SimpleFunction(description = "Cleans a list of XMLTV guides (URLs, file paths or asset names) in one streaming pass and writes each one, under its own file name, into the output folder (a full path, or a folder inside the app's files). Cuts scraper leftovers from descriptions, removes copied HTML, collapses whitespace, and drops duplicate titles and credits. Guides loaded with LoadGuide or LoadSatelliteGuides are cleaned the same way.")
+    public void CleanGuides(final YailList sources, final String outputFolder) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File folder = new File(outputFolder);
+                if (!folder.isAbsolute()) folder = new File(activity.getFilesDir(), outputFolder);
+                XmltvReader reader = new XmltvReader();
+                XmltvSanitizer total = new XmltvSanitizer(null);
+                int written = 0;
+                long started = System.nanoTime();
+                boolean ok = folder.isDirectory() || folder.mkdirs();
+                String[] list = sources.toStringArray();
+                for (int i = 0; ok && i < list.length; i++) {
+                    String source = list[i];
+                    String name = source.replaceAll("[?#].*$", "");
+                    name = name.substring(name.lastIndexOf('/') + 1);
+                    if (name.isEmpty()) name = "guide-" + (i + 1) + ".xml";
+                    File target = new File(folder, name);
+                    try (XmltvWriter writer = new XmltvWriter(new java.io.FileOutputStream(target))) {
+                        XmltvSanitizer sanitizer = new XmltvSanitizer(writer);
+                        reader.read(openSource(source), sanitizer);
+                        Log.i(TAG, "Cleaned " + source + " into " + target + ": " + sanitizer.report());
+                        total.add(sanitizer);
+                        written++;
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error cleaning guide " + source + ": " + e.getMessage());
+                        target.delete();
+                        ok = false;
+                    }
+                }
+                Log.i(TAG, "Cleaned " + written + " guides in " + (System.nanoTime() - started) / 1_000_000 + " ms, " + total.report());
+                final boolean success = ok;
+                final int files = written;
+                final XmltvSanitizer counts = total;
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<Object> fixes = new ArrayList<>();
+                        fixes.add(YailList.makeList(java.util.Arrays.<Object>asList("scraper tails cut", counts.junkCut)));
+                        fixes.add(YailList.makeList(java.util.Arrays.<Object>asList("markup removed", counts.markupRemoved)));
+                        fixes.add(YailList.makeList(java.util.Arrays.<Object>asList("whitespace fixed", counts.whitespaceFixed)));
+                        fixes.add(YailList.makeList(java.util.Arrays.<Object>asList("duplicate titles dropped", counts.titlesDropped)));
+                        fixes.add(YailList.makeList(java.util.Arrays.<Object>asList("duplicate credits dropped", counts.creditsCollapsed)));
+                        GuidesCleaned(success, files, counts.programmes, YailList.makeList(fixes));
+                    }
+                });
+            }
+        }).start();
+    }
+
+    @SimpleEvent(description = "Fires when CleanGuides is done. Success is false if a guide could not be read or written; the ones before it were still written. Fixes is a list of [what, count] pairs over all files.")
+    public void GuidesCleaned(boolean success, int files, int programmes, YailList fixes) {
+        EventDispatcher.dispatchEvent(this, "GuidesCleaned", success, files, programmes, fixes);
+    }
+
+    @SimpleFunction(description = "Searches the titles (in every language), descriptions and director, writer and actor credits of the loaded guide, across all channels, and returns up to 'limit' programmes in the same form as ProgrammeAt. Every word of the query must start a word of the programme, so \"rafe spa\" finds Rafe Spall. Case, Latin accents and Arabic diacritics and letter variants are ignored. Programmes on air at the given time come first, then upcoming ones by start, then ones that already ended, latest first. Returns an empty list while the search index for a reopened guide is still being built; GuideSearchReady fires when it is done.")
+    public YailList SearchGuide(String query, long millis, int limit) {
+        List<Object> items = new ArrayList<>();
+        EpgSearchIndex index = guideSearch();
+        if (index != null) {
+            for (int programme : index.search(query, millis, limit)) items.add(programmeItem(index.guide, programme));
+        }
+        return YailList.makeList(items);
+    }
+
+    @SimpleFunction(description = "Shows a now/next line for each of the given channel ids at the top of the subtitle overlay, from the guide saved by the last LoadGuide or LoadSatelliteGuides, while playback is running. The lines change when a programme ends, not on a timer. An empty list hides the strip. Call it again after loading a different guide.")
+    public void ShowGuideTicker(YailList channels) {
+        Intent intent = new Intent(activity, SubtitleService.class);
+        intent.putExtra("GUIDE_TICKER", channels.toStringArray());
+        activity.startService(intent);
+    }
+
+    @SimpleFunction(description = "Reads a scene release name such as House.of.the.Dragon.S01.Episode1.2022.1080p.bluray.srt (a file name or path) and returns [title, year, season, episode], with -1 for the numbers the name does not give.")
+    public YailList ParseReleaseName(String fileName) {
+        ReleaseName release = ReleaseName.parse(fileName);
+        return YailList.makeList(java.util.Arrays.<Object>asList(release.title, release.year, release.season, release.episode));
+    }
+
+    @SimpleFunction(description = "Finds what a subtitle file is for in the loaded guide from its scene release name, and returns up to 'limit' programmes starting at or after the given time in the same form as ProgrammeAt, best match first. Titles are compared in every language of the guide by letter trigrams, so dots, case, accents and small spelling differences do not matter. A season or episode in the name has to agree with the guide when the guide gives one, and a matching year ranks a film first.")
+    public YailList MatchReleaseToGuide(String fileName, long millis, int limit) {
+        List<Object> items = new ArrayList<>();
+        EpgTitleMatcher matcher = titleMatcher();
+        if (matcher != null) {
+            for (int programme : matcher.match(ReleaseName.parse(fileName), millis, limit)) items.add(programmeItem(matcher.guide, programme));
+        }
+        return YailList.makeList(items);
+    }
+
+    @SimpleFunction(description = "Arms StartPlayback for the start of the best upcoming programme for the subtitle file name (see MatchReleaseToGuide), with an exact alarm that also fires while the device sleeps; if it fires late, the subtitles start that far in. Load the subtitles first; the alarm plays the ones loaded now. Returns the programme, or an empty list if nothing matched. Replaces a start armed before.")
+    public YailList SchedulePlaybackForRelease(String fileName, long millis) {
+        if (!IsDrawOverlayPermissionGranted()) {
+            RequestDrawOverlayPermission();
+            Log.e(TAG, "Permission not granted. The user must grant it first.");
+            return YailList.makeList(new ArrayList<Object>());
+        }
+        EpgTitleMatcher matcher = titleMatcher();
+        int[] best = matcher != null ? matcher.match(ReleaseName.parse(fileName), millis, 1) : new int[0];
+        if (best.length == 0 || preparedTimelineFile == null || !preparedTimelineFile.isFile()) {
+            Log.w(TAG, "Nothing to schedule for " + fileName + (best.length == 0 ? ": no programme matched." : ": no subtitles are loaded."));
+            return YailList.makeList(new ArrayList<Object>());
+        }
+        long start = matcher.guide.start(best[0]);
+        File timeline;
+        try {
+            timeline = pinTimeline(preparedTimelineFile, new File(activity.getFilesDir(), SCHEDULED_TIMELINE));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not keep the subtitles for the scheduled start: " + e.getMessage());
+            return YailList.makeList(new ArrayList<Object>());
+        }
+        Intent intent = new Intent(activity, SubtitleService.class);
+        intent.putExtra("TIMELINE_FILE", timeline.getAbsolutePath());
+        intent.putExtra("START_AT", start);
+        PendingIntent pending = scheduledStart(intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarms = (AlarmManager) activity.getSystemService(Context.ALARM_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarms.canScheduleExactAlarms()) {
+            // Exact alarms need the user's consent from Android 12 on; without it the system may start a little late.
+            Log.w(TAG, "Exact alarms not allowed, the scheduled start may be late.");
+            alarms.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, start, pending);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            alarms.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, start, pending);
+        } else {
+            alarms.setExact(AlarmManager.RTC_WAKEUP, start, pending);
+        }
+        return programmeItem(matcher.guide, best[0]);
+    }
+
+    @SimpleFunction(description = "Cancels the start armed by SchedulePlaybackForRelease, if any.")
+    public void CancelScheduledPlayback() {
+        PendingIntent pending = scheduledStart(new Intent(activity, SubtitleService.class), PendingIntent.FLAG_NO_CREATE);
+        if (pending != null) {
+            ((AlarmManager) activity.getSystemService(Context.ALARM_SERVICE)).cancel(pending);
+            pending.cancel();
+        }
+        // A service already playing it keeps its mapping after the unlink.
+        new File(activity.getFilesDir(), SCHEDULED_TIMELINE).delete();
+    }
+
+    // Copies the compiled timeline next to the app's files and renames it into place, replacing an earlier one.
+    private static File pinTimeline(File compiled, File target) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileInputStream in = new FileInputStream(compiled); java.io.FileOutputStream out = new java.io.FileOutputStream(temp)) {
+            FileChannel from = in.getChannel();
+            long size = from.size();
+            for (long done = 0; done < size; ) done += from.transferTo(done, size - done, out.getChannel());
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot move " + temp + " into place");
+        }
+        return target;
+    }
+
+    // The alarm starts the service the way StartPlayback does; one request code, so arming again replaces it.
+    private PendingIntent scheduledStart(Intent intent, int flags) {
+        flags |= PendingIntent.FLAG_IMMUTABLE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) return PendingIntent.getForegroundService(activity, SCHEDULED_START_REQUEST_CODE, intent, flags);
+        return PendingIntent.getService(activity, SCHEDULED_START_REQUEST_CODE, intent, flags);
+    }
+
+    // Only the fields a block returns are read from the snapshot; the description is decoded here and nowhere sooner.
+    private static YailList programmeItem(EpgSnapshot snapshot, int index) {
+        List<Object> item = new ArrayList<>();
+        if (index >= 0) {
+            String subTitle = snapshot.field(EpgSnapshot.SUB_TITLE, index), desc = snapshot.desc(index);
+            item.add(snapshot.channelId(snapshot.channelOf(index)));
+            item.add(snapshot.title(index));
+            item.add(snapshot.start(index));
+            item.add(snapshot.stop(index));
+            item.add(subTitle != null ? subTitle : "");
+            item.add(desc != null ? desc : "");
+        }
+        return YailList.makeList(item);
+    }
+
+    // The parsed guide is only needed long enough to write its snapshot; the blocks read the mapping. The search
+    // index is built here too, off the UI thread, so the first SearchGuide only has to map it.
+    private EpgSnapshot saveGuide(EpgGuide parsed) throws IOException {
+        return indexGuide(EpgSnapshot.map(EpgSnapshot.write(parsed, new File(activity.getCacheDir(), GUIDE_SNAPSHOT))));
+    }
+
+    private EpgSnapshot indexGuide(EpgSnapshot snapshot) {
+        try {
+            long started = System.nanoTime();
+            EpgSearchIndex.write(snapshot, new File(activity.getCacheDir(), GUIDE_SEARCH));
+            Log.i(TAG, "Guide search index built in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            Log.w(TAG, "Guide search index not saved: " + e.getMessage());
+        }
+        return snapshot;
+    }
+
+    @SimpleEvent(description = "Fires when the search index of a reopened guide has been rebuilt and SearchGuide can answer. Success is false if it could not be built.")
+    public void GuideSearchReady(boolean success) {
+        EventDispatcher.dispatchEvent(this, "GuideSearchReady", success);
+    }
+
+    // Maps the index saved with the current guide. One that is missing or belongs to another guide is rebuilt on a
+    // thread of its own and null is returned until it is mapped, so the caller never waits for a build.
+    private synchronized EpgSearchIndex guideSearch() {
+        final EpgSnapshot current = guide;
+        if (current == null) return null;
+        if (guideSearch != null && guideSearch.guide == current) return guideSearch;
+        final File file = new File(activity.getCacheDir(), GUIDE_SEARCH);
+        try {
+            guideSearch = EpgSearchIndex.map(current, file);
+            return guideSearch;
+        } catch (IOException stale) {
+            guideSearch = null;
+        }
+        if (guideSearchBuilding == current) return null;
+        guideSearchBuilding = current;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                EpgSearchIndex built = null;
+                try {
+                    long started = System.nanoTime();
+                    built = EpgSearchIndex.map(current, EpgSearchIndex.write(current, file));
+                    Log.i(TAG, "Guide search index rebuilt in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+                } catch (IOException e) {
+                    Log.e(TAG, "Error building guide search index: " + e.getMessage());
+                }
+                synchronized (PersistentSubtitle.this) {
+                    if (guideSearchBuilding == current) guideSearchBuilding = null;
+                    if (built != null && guide == current) guideSearch = built;
+                }
+                final boolean success = built != null;
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        GuideSearchReady(success);
+                    }
+                });
+            }
+        }).start();
+        return null;
+    }
+
+    // Built in memory for the current guide on first use; every title of a merged guide takes tens of milliseconds.
+    private synchronized EpgTitleMatcher titleMatcher() {
+        EpgSnapshot current = guide;
+        if (current == null) return null;
+        if (titleMatcher == null || titleMatcher.guide != current) {
             try {
-                parsedData = doParse(new ByteArrayInputStream(streamBytes), StandardCharsets.UTF_8);
-                this.preparedSubtitleData = parsedData;
-                return;
-            } catch (Exception e) {
-                Log.w(TAG, "UTF-8 parsing failed, trying windows-1256.", e);
+                titleMatcher = EpgTitleMatcher.build(current);
+            } catch (IOException e) {
+                Log.e(TAG, "Error building guide title matcher: " + e.getMessage());
+                titleMatcher = null;
+            }
+        }
+        return titleMatcher;
+    }
+    //endregion
+
+    //region SRT Parsing Logic (Internal)
+    private TimelineCache timelineCache() {
+        return new TimelineCache(new File(activity.getCacheDir(), TIMELINE_DIR));
+    }
+
+    // An unchanged local file (same size and mtime) goes straight to its compiled timeline without being read.
+    private boolean reuseCompiled(File localFile, String encoding) {
+        File compiled = timelineCache().lookupSource(localFile, encoding);
+        if (compiled == null) return false;
+        this.preparedTimelineFile = compiled;
+        this.lastDetection = null;
+        return true;
+    }
+
+    private void parseSrtStream(InputStream inputStream, String encoding, File localFile) throws Exception {
+        XxHash64.Streaming digest = TimelineCache.contentDigest(encoding);
+        byte[] data = readFully(inputStream, digest);
+        TimelineCache cache = timelineCache();
+        long key = digest.digest();
+        File compiled = cache.lookup(key, data.length);
+        this.lastDetection = null;
+        if (compiled == null) {
+            List<SubtitleEntry> parsedData;
+            if ("auto".equalsIgnoreCase(encoding)) {
+                CharsetDetector.Result detection = CharsetDetector.detect(data, Math.min(data.length, CharsetDetector.SAMPLE_SIZE));
+                Log.i(TAG, "Detected encoding " + detection.charset.name() + " (" + detection.confidence + "%, " + detection.reason + ")");
+                parsedData = doParse(new ByteArrayInputStream(data, detection.bomLength, data.length - detection.bomLength), detection.charset);
+                this.lastDetection = detection;
+            } else {
+                parsedData = doParse(new ByteArrayInputStream(data), Charset.forName(encoding));
+            }
+            compiled = cache.store(parsedData, key, data.length);
+        }
+        if (localFile != null) cache.remember(localFile, encoding, key, data.length);
+        this.preparedTimelineFile = compiled;
+    }
+
+    // Hashes each chunk while it is still in cache, so the content key costs no second pass over the file.
+    private static byte[] readFully(InputStream inputStream, XxHash64.Streaming digest) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int length = 0, read;
+        try (InputStream in = inputStream) {
+            while ((read = in.read(buffer, length, buffer.length - length)) > -1) {
+                digest.update(buffer, length, read);
+                length += read;
+                if (length == buffer.length) buffer = java.util.Arrays.copyOf(buffer, buffer.length * 2);
             }
+        }
+        return length == buffer.length ? buffer : java.util.Arrays.copyOf(buffer, length);
+    }
+
+    // Built once per prepared timeline, normally on the loader thread right after SubtitleLoaded.
+    private synchronized CueSearchIndex searchIndex() {
+        File file = preparedTimelineFile;
+        if (file == null) return null;
+        if (searchIndex == null || !file.equals(searchFile)) {
             try {
-                parsedData = doParse(new ByteArrayInputStream(streamBytes), Charset.forName("windows-1256"));
-                this.preparedSubtitleData = parsedData;
-            } catch (Exception e2) {
-                throw new Exception("Failed to parse subtitle with both UTF-8 and windows-1256.", e2);
+                searchIndex = CueSearchIndex.build(CompiledTimeline.map(file));
+                searchFile = file;
+            } catch (IOException e) {
+                Log.e(TAG, "Could not index subtitles for search", e);
+                searchFile = null;
+                searchIndex = null;
             }
-        } else {
-            parsedData = doParse(inputStream, Charset.forName(encoding));
-            this.preparedSubtitleData = parsedData;
+        }
+        return searchIndex;
+    }
+
+    private void reportDetectedEncoding() {
+        if (lastDetection != null) {
+            EncodingDetected(lastDetection.charset.name(), lastDetection.confidence);
         }
     }
 
-    private List<SubtitleEntry> doParse(InputStream inputStream, Charset charset) throws IOException {
-        ArrayList<SubtitleEntry> entries = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, charset))) {
-            String line;
+    static List<SubtitleEntry> doParse(InputStream inputStream, Charset charset) throws IOException {
+        char[] buffer = new char[64 * 1024];
+        int length = 0, read;
+        try (InputStreamReader reader = new InputStreamReader(inputStream, charset)) {
+            while ((read = reader.read(buffer, length, buffer.length - length)) > -1) {
+                length += read;
+                if (length == buffer.length) buffer = java.util.Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        List<SubtitleEntry> entries = AssParser.looksLikeAss(buffer, length)
+                ? new AssParser(buffer, length).parse()
+                : new SrtTokenizer(buffer, length).parse();
+        if (entries.isEmpty()) throw new IOException("No valid subtitle entries found.");
+        return entries;
+    }
+
+    // Hand-written SRT scanner over the decoded characters. Lines are visited as [start, end) ranges of the
+    // buffer; timestamps and cue numbers are read digit by digit and the only Strings built are cue texts.
+    static final class SrtTokenizer {
+        private final char[] buf;
+        private final int length;
+        private int pos, lineStart, lineEnd;
+
+        SrtTokenizer(char[] buf, int length) {
+            this.buf = buf;
+            this.length = length;
+        }
+
+        List<SubtitleEntry> parse() {
+            ArrayList<SubtitleEntry> entries = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
             long startTime = 0, endTime = 0;
-            StringBuilder textBuilder = new StringBuilder();
-            boolean isTimeLine = false;
-
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("-->")) {
-                    if (textBuilder.length() > 0) {
-                        entries.add(new SubtitleEntry(startTime, endTime, textBuilder.toString().trim()));
-                        textBuilder.setLength(0);
+            boolean isTimeLine = false, sorted = true;
+            long lastStart = Long.MIN_VALUE;
+            pos = 0;
+            while (nextLine()) {
+                int from = skipSpaces(lineStart, lineEnd), to = trimEnd(from, lineEnd);
+                int arrow = indexOfArrow(from, to);
+                if (arrow >= 0) {
+                    if (text.length() > 0) {
+                        entries.add(new SubtitleEntry(startTime, endTime, trimmed(text)));
+                        text.setLength(0);
                     }
-                    String[] timeParts = line.split("-->");
-                    try {
-                        startTime = parseSrtTime(timeParts[0].trim());
-                        endTime = parseSrtTime(timeParts[1].trim());
-                        isTimeLine = true;
-                    } catch (Exception e) { isTimeLine = false; }
-                } else if (isTimeLine && !line.trim().isEmpty() && !line.trim().matches("\\d+")) {
-                    if (textBuilder.length() > 0) textBuilder.append("\n");
-                    textBuilder.append(line);
-                } else if (line.trim().isEmpty()) {
-                    if (textBuilder.length() > 0) {
-                        entries.add(new SubtitleEntry(startTime, endTime, textBuilder.toString().trim()));
-                        textBuilder.setLength(0);
+                    long start = parseTimestamp(buf, from, arrow);
+                    long end = start < 0 ? -1 : parseTimestamp(buf, skipSpaces(arrow + 3, to), to);
+                    isTimeLine = end >= 0;
+                    if (isTimeLine) {
+                        startTime = start;
+                        endTime = end;
+                        if (startTime < lastStart) sorted = false;
+                        lastStart = startTime;
+                    }
+                } else if (from == to) {
+                    if (text.length() > 0) {
+                        entries.add(new SubtitleEntry(startTime, endTime, trimmed(text)));
+                        text.setLength(0);
                         isTimeLine = false;
                     }
+                } else if (isTimeLine && !(isDigits(from, to) && nextLineIsTiming())) {
+                    if (text.length() > 0) text.append('\n');
+                    text.append(buf, lineStart, lineEnd - lineStart);
+                }
+            }
+            if (text.length() > 0) {
+                entries.add(new SubtitleEntry(startTime, endTime, trimmed(text)));
+            }
+            if (!sorted) {
+                Collections.sort(entries, new Comparator<SubtitleEntry>() {
+                    @Override
+                    public int compare(SubtitleEntry o1, SubtitleEntry o2) {
+                        return Long.compare(o1.startTimeMillis, o2.startTimeMillis);
+                    }
+                });
+            }
+            return entries;
+        }
+
+        // Advances to the next line, accepting \n, \r\n and lone \r endings.
+        private boolean nextLine() {
+            if (pos >= length) return false;
+            lineStart = pos;
+            while (pos < length && buf[pos] != '\n' && buf[pos] != '\r') pos++;
+            lineEnd = pos;
+            if (pos < length && buf[pos] == '\r') pos++;
+            if (pos < length && buf[pos] == '\n' && (pos == lineEnd || buf[pos - 1] == '\r')) pos++;
+            return true;
+        }
+
+        // A run of digits is a cue number only when the following line carries the timing arrow.
+        private boolean nextLineIsTiming() {
+            int p = pos, end = p;
+            while (end < length && buf[end] != '\n' && buf[end] != '\r') end++;
+            return indexOfArrow(p, end) >= 0;
+        }
+
+        private int skipSpaces(int from, int to) {
+            while (from < to && (buf[from] <= ' ' || buf[from] == '\uFEFF')) from++;
+            return from;
+        }
+
+        private int trimEnd(int from, int to) {
+            while (to > from && buf[to - 1] <= ' ') to--;
+            return to;
+        }
+
+        private int indexOfArrow(int from, int to) {
+            for (int i = from; i + 2 < to; i++) {
+                if (buf[i] == '-' && buf[i + 1] == '-' && buf[i + 2] == '>') return i;
+            }
+            return -1;
+        }
+
+        private boolean isDigits(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buf[i] < '0' || buf[i] > '9') return false;
+            }
+            return true;
+        }
+
+        private String trimmed(StringBuilder text) {
+            int from = 0, to = text.length();
+            while (from < to && text.charAt(from) <= ' ') from++;
+            while (to > from && text.charAt(to - 1) <= ' ') to--;
+            return text.substring(from, to);
+        }
+
+        // Reads [H]H:MM:SS[,.]mmm (or MM:SS,mmm) at from and returns milliseconds, or -1 if there is no timestamp.
+        // Milliseconds may be missing or shorter than three digits (ASS uses centiseconds); anything after the
+        // timestamp (coordinates, styling) is ignored.
+        static long parseTimestamp(char[] buf, int from, int to) {
+            long a = 0, b = 0, value = 0;
+            int fieldCount = 0, digits = 0, i = from;
+            while (i < to && buf[i] <= ' ') i++;
+            for (; i < to; i++) {
+                char ch = buf[i];
+                if (ch >= '0' && ch <= '9') {
+                    value = value * 10 + (ch - '0');
+                    digits++;
+                } else if (ch == ':' && digits > 0 && fieldCount < 2) {
+                    if (fieldCount == 0) a = value; else b = value;
+                    fieldCount++;
+                    value = 0;
+                    digits = 0;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0 || fieldCount == 0) return -1;
+            long seconds = fieldCount == 2 ? a * 3600 + b * 60 + value : a * 60 + value;
+            long millis = 0;
+            if (i < to && (buf[i] == ',' || buf[i] == '.')) {
+                int scale = 100;
+                for (i++; i < to && buf[i] >= '0' && buf[i] <= '9'; i++) {
+                    millis += (buf[i] - '0') * scale;
+                    scale /= 10;
+                }
+            }
+            return seconds * 1000 + millis;
+        }
+    }
+
+    // Advanced SubStation (v4+) and SubStation (v4) reader. Styles and Events are read through their Format:
+    // column order, and override blocks are compiled here, once, into plain text plus packed style runs.
+    static final class AssParser {
+        static final int SPAN_COLOR = 1, SPAN_SIZE = 2, SPAN_BOLD = 3, SPAN_ITALIC = 4, SPAN_UNDERLINE = 5, SPAN_STRIKE = 6;
+        private static final int SECTION_OTHER = 0, SECTION_STYLES = 1, SECTION_EVENTS = 2;
+
+        private static final class Style {
+            int color = Color.WHITE;
+            float size = 0;
+            boolean bold, italic, underline, strike;
+        }
+
+        private final char[] buf;
+        private final int length;
+        private final java.util.HashMap<String, Style> styles = new java.util.HashMap<>();
+        private Style defaultStyle;
+        private String[] styleFormat = {"Name", "Fontname", "Fontsize", "PrimaryColour", "SecondaryColour", "OutlineColour", "BackColour", "Bold", "Italic", "Underline", "StrikeOut"};
+        private int eventColumns = 10, startColumn = 1, endColumn = 2, styleColumn = 3, textColumn = 9;
+
+        // Override state while compiling one Dialogue line.
+        private final StringBuilder out = new StringBuilder();
+        private int[] spanBuffer = new int[32];
+        private int spanCount, runStart;
+        private int color;
+        private float size;
+        private boolean bold, italic, underline, strike, colorOverridden;
+        private Style lineStyle;
+
+        AssParser(char[] buf, int length) {
+            this.buf = buf;
+            this.length = length;
+        }
+
+        // ASS/SSA files are INI-like: some line starts with a [Script Info], [V4+ Styles] or [Events] header.
+        static boolean looksLikeAss(char[] buf, int length) {
+            int limit = Math.min(length, 64 * 1024);
+            for (int i = 0; i < limit; i++) {
+                if (buf[i] == '[' && (i == 0 || buf[i - 1] == '\n' || buf[i - 1] == '\uFEFF')
+                        && (startsWith(buf, i, limit, "[Script Info]") || startsWith(buf, i, limit, "[Events]") || startsWith(buf, i, limit, "[V4"))) {
+                    return true;
                 }
             }
-            if (textBuilder.length() > 0) {
-                entries.add(new SubtitleEntry(startTime, endTime, textBuilder.toString().trim()));
+            return false;
+        }
+
+        private static boolean startsWith(char[] buf, int at, int limit, String prefix) {
+            if (at + prefix.length() > limit) return false;
+            for (int k = 0; k < prefix.length(); k++) {
+                if (buf[at + k] != prefix.charAt(k)) return false;
+            }
+            return true;
+        }
+
+        List<SubtitleEntry> parse() {
+            ArrayList<SubtitleEntry> entries = new ArrayList<>();
+            int section = SECTION_OTHER, pos = 0;
+            while (pos < length) {
+                int lineStart = pos;
+                while (pos < length && buf[pos] != '\n' && buf[pos] != '\r') pos++;
+                int lineEnd = pos;
+                while (pos < length && (buf[pos] == '\n' || buf[pos] == '\r')) pos++;
+                String line = new String(buf, lineStart, lineEnd - lineStart).trim();
+                if (line.isEmpty() || line.charAt(0) == ';') continue;
+                if (line.charAt(0) == '[') {
+                    String name = line.toLowerCase(java.util.Locale.ROOT);
+                    section = name.startsWith("[v4") ? SECTION_STYLES : name.equals("[events]") ? SECTION_EVENTS : SECTION_OTHER;
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon < 0) continue;
+                String key = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (section == SECTION_STYLES) {
+                    if ("Format".equalsIgnoreCase(key)) styleFormat = splitFormat(value);
+                    else if ("Style".equalsIgnoreCase(key)) readStyle(value);
+                } else if (section == SECTION_EVENTS) {
+                    if ("Format".equalsIgnoreCase(key)) readEventFormat(value);
+                    else if ("Dialogue".equalsIgnoreCase(key)) readDialogue(value, entries);
+                }
             }
+            // Layers and overlapping lines all go into one start-ordered list; the timeline stacks whatever overlaps.
+            Collections.sort(entries, new Comparator<SubtitleEntry>() {
+                @Override
+                public int compare(SubtitleEntry o1, SubtitleEntry o2) {
+                    return Long.compare(o1.startTimeMillis, o2.startTimeMillis);
+                }
+            });
+            return entries;
+        }
+
+        private static String[] splitFormat(String value) {
+            String[] columns = value.split(",");
+            for (int i = 0; i < columns.length; i++) columns[i] = columns[i].trim();
+            return columns;
+        }
+
+        private void readEventFormat(String value) {
+            String[] columns = splitFormat(value);
+            eventColumns = columns.length;
+            for (int i = 0; i < columns.length; i++) {
+                if ("Start".equalsIgnoreCase(columns[i])) startColumn = i;
+                else if ("End".equalsIgnoreCase(columns[i])) endColumn = i;
+                else if ("Style".equalsIgnoreCase(columns[i])) styleColumn = i;
+                else if ("Text".equalsIgnoreCase(columns[i])) textColumn = i;
+            }
+        }
+
+        private void readStyle(String value) {
+            String[] fields = value.split(",", styleFormat.length);
+            Style style = new Style();
+            String name = null;
+            for (int i = 0; i < fields.length && i < styleFormat.length; i++) {
+                String column = styleFormat[i], field = fields[i].trim();
+                if ("Name".equalsIgnoreCase(column)) name = field;
+                else if ("Fontsize".equalsIgnoreCase(column)) style.size = parseFloat(field, 0);
+                else if ("PrimaryColour".equalsIgnoreCase(column)) style.color = parseColor(field, Color.WHITE);
+                else if ("Bold".equalsIgnoreCase(column)) style.bold = parseFloat(field, 0) != 0;
+                else if ("Italic".equalsIgnoreCase(column)) style.italic = parseFloat(field, 0) != 0;
+                else if ("Underline".equalsIgnoreCase(column)) style.underline = parseFloat(field, 0) != 0;
+                else if ("StrikeOut".equalsIgnoreCase(column)) style.strike = parseFloat(field, 0) != 0;
+            }
+            if (name == null) return;
+            styles.put(name.toLowerCase(java.util.Locale.ROOT), style);
+            if (defaultStyle == null || "Default".equalsIgnoreCase(name)) defaultStyle = style;
+        }
+
+        private Style styleNamed(String name) {
+            Style style = name == null ? null : styles.get(name.trim().replace("*", "").toLowerCase(java.util.Locale.ROOT));
+            if (style == null) style = defaultStyle;
+            if (style == null) style = defaultStyle = new Style();
+            return style;
+        }
+
+        private void readDialogue(String value, List<SubtitleEntry> entries) {
+            String[] fields = value.split(",", eventColumns);
+            if (fields.length <= Math.max(textColumn, Math.max(startColumn, endColumn))) return;
+            char[] startChars = fields[startColumn].toCharArray(), endChars = fields[endColumn].toCharArray();
+            long start = SrtTokenizer.parseTimestamp(startChars, 0, startChars.length);
+            long end = SrtTokenizer.parseTimestamp(endChars, 0, endChars.length);
+            if (start < 0 || end < 0) return;
+            compile(fields[textColumn], styleNamed(styleColumn < fields.length ? fields[styleColumn] : null));
+            int from = 0, to = out.length();
+            while (from < to && out.charAt(from) <= ' ') from++;
+            while (to > from && out.charAt(to - 1) <= ' ') to--;
+            if (from == to) return;
+            String text = out.substring(from, to);
+            int[] spans = null;
+            if (spanCount > 0) {
+                spans = new int[spanCount];
+                int kept = 0;
+                for (int i = 0; i < spanCount; i += 4) {
+                    int s = Math.max(0, spanBuffer[i] - from), e = Math.min(to, spanBuffer[i + 1]) - from;
+                    if (e <= s) continue;
+                    spans[kept++] = s;
+                    spans[kept++] = e;
+                    spans[kept++] = spanBuffer[i + 2];
+                    spans[kept++] = spanBuffer[i + 3];
+                }
+                spans = kept == 0 ? null : java.util.Arrays.copyOf(spans, kept);
+            }
+            entries.add(new SubtitleEntry(start, end, text, spans));
+        }
+
+        // Turns one Text field into plain text plus style runs. \N is a line break, \n a soft break and \h a
+        // hard space; inside {...} we honour colour, size, bold, italic, underline, strike-out and \r resets.
+        private void compile(String text, Style style) {
+            out.setLength(0);
+            spanCount = 0;
+            runStart = 0;
+            resetTo(style);
+            int n = text.length();
+            for (int i = 0; i < n; i++) {
+                char c = text.charAt(i);
+                if (c == '{') {
+                    int close = text.indexOf('}', i + 1);
+                    if (close < 0) close = n;
+                    closeRun();
+                    applyOverrides(text, i + 1, close);
+                    i = close;
+                } else if (c == '\\' && i + 1 < n && (text.charAt(i + 1) == 'N' || text.charAt(i + 1) == 'n' || text.charAt(i + 1) == 'h')) {
+                    char escape = text.charAt(++i);
+                    out.append(escape == 'N' ? '\n' : escape == 'h' ? '\u00A0' : ' ');
+                } else {
+                    out.append(c);
+                }
+            }
+            closeRun();
+        }
+
+        private void resetTo(Style style) {
+            lineStyle = style;
+            color = style.color;
+            colorOverridden = defaultStyle != null && style != defaultStyle && style.color != defaultStyle.color;
+            size = style.size;
+            bold = style.bold;
+            italic = style.italic;
+            underline = style.underline;
+            strike = style.strike;
+        }
+
+        // Emits the spans for the text written since the last state change. The default style's colour and
+        // size are left to the viewer's own settings; anything that differs from them becomes a span.
+        private void closeRun() {
+            int end = out.length();
+            if (end > runStart) {
+                float baseSize = defaultStyle != null ? defaultStyle.size : 0;
+                if (colorOverridden) addSpan(runStart, end, SPAN_COLOR, color);
+                if (size > 0 && baseSize > 0 && Math.abs(size - baseSize) > 0.01f) addSpan(runStart, end, SPAN_SIZE, Math.round(size * 1000 / baseSize));
+                if (bold) addSpan(runStart, end, SPAN_BOLD, 1);
+                if (italic) addSpan(runStart, end, SPAN_ITALIC, 1);
+                if (underline) addSpan(runStart, end, SPAN_UNDERLINE, 1);
+                if (strike) addSpan(runStart, end, SPAN_STRIKE, 1);
+            }
+            runStart = end;
+        }
+
+        private void addSpan(int start, int end, int kind, int value) {
+            if (spanCount + 4 > spanBuffer.length) spanBuffer = java.util.Arrays.copyOf(spanBuffer, spanBuffer.length * 2);
+            // Extend the previous run of the same kind and value instead of starting a new one.
+            for (int i = spanCount - 4; i >= 0; i -= 4) {
+                if (spanBuffer[i + 1] == start && spanBuffer[i + 2] == kind && spanBuffer[i + 3] == value) {
+                    spanBuffer[i + 1] = end;
+                    return;
+                }
+            }
+            spanBuffer[spanCount++] = start;
+            spanBuffer[spanCount++] = end;
+            spanBuffer[spanCount++] = kind;
+            spanBuffer[spanCount++] = value;
+        }
+
+        private void applyOverrides(String text, int from, int to) {
+            int i = text.indexOf('\\', from);
+            while (i >= 0 && i < to) {
+                int next = text.indexOf('\\', i + 1);
+                int tagEnd = next < 0 || next > to ? to : next;
+                String tag = text.substring(i + 1, tagEnd).trim();
+                applyTag(tag);
+                i = next;
+            }
+        }
+
+        private void applyTag(String tag) {
+            if (tag.isEmpty()) return;
+            if (tag.startsWith("1c") || (tag.startsWith("c") && (tag.length() == 1 || tag.charAt(1) == '&'))) {
+                String value = tag.startsWith("1c") ? tag.substring(2) : tag.substring(1);
+                if (value.isEmpty()) {
+                    color = lineStyle.color;
+                    colorOverridden = defaultStyle != null && lineStyle != defaultStyle && lineStyle.color != defaultStyle.color;
+                } else {
+                    color = parseColor(value, color);
+                    colorOverridden = true;
+                }
+            } else if (tag.startsWith("fs") && (tag.length() == 2 || Character.isDigit(tag.charAt(2)))) {
+                size = tag.length() == 2 ? lineStyle.size : parseFloat(tag.substring(2), lineStyle.size);
+            } else if (tag.charAt(0) == 'b' && (tag.length() == 1 || Character.isDigit(tag.charAt(1)))) {
+                int weight = (int) parseFloat(tag.substring(1), lineStyle.bold ? 1 : 0);
+                bold = weight == 1 || weight >= 600;
+            } else if (isToggle(tag, 'i')) {
+                italic = tag.length() == 1 ? lineStyle.italic : tag.charAt(1) == '1';
+            } else if (isToggle(tag, 'u')) {
+                underline = tag.length() == 1 ? lineStyle.underline : tag.charAt(1) == '1';
+            } else if (isToggle(tag, 's')) {
+                strike = tag.length() == 1 ? lineStyle.strike : tag.charAt(1) == '1';
+            } else if (tag.charAt(0) == 'r') {
+                resetTo(tag.length() == 1 ? lineStyle : styleNamed(tag.substring(1)));
+            }
+        }
+
+        private static boolean isToggle(String tag, char name) {
+            return tag.charAt(0) == name && (tag.length() == 1 || (tag.length() == 2 && (tag.charAt(1) == '0' || tag.charAt(1) == '1')));
+        }
+
+        private static float parseFloat(String value, float fallback) {
+            try {
+                return Float.parseFloat(value.trim());
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+
+        // ASS colours are &HAABBGGRR (alpha 00 = opaque) or a decimal BGR number in old SSA files.
+        static int parseColor(String value, int fallback) {
+            String v = value.trim().replace("&", "");
+            try {
+                long bgr;
+                if (v.startsWith("H") || v.startsWith("h")) bgr = Long.parseLong(v.substring(1), 16);
+                else bgr = Long.parseLong(v);
+                int alpha = 255 - (int) ((bgr >> 24) & 0xFF);
+                int blue = (int) ((bgr >> 16) & 0xFF), green = (int) ((bgr >> 8) & 0xFF), red = (int) (bgr & 0xFF);
+                return (alpha << 24) | (red << 16) | (green << 8) | blue;
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+
+        // Builds the drawable text from precompiled runs; no tag parsing happens here.
+        static CharSequence toSpanned(String text, int[] spans) {
+            SpannableString spanned = new SpannableString(text);
+            for (int i = 0; i + 3 < spans.length; i += 4) {
+                Object span;
+                switch (spans[i + 2]) {
+                    case SPAN_COLOR: span = new FillColorSpan(spans[i + 3]); break;
+                    case SPAN_SIZE: span = new RelativeSizeSpan(spans[i + 3] / 1000f); break;
+                    case SPAN_BOLD: span = new StyleSpan(Typeface.BOLD); break;
+                    case SPAN_ITALIC: span = new StyleSpan(Typeface.ITALIC); break;
+                    case SPAN_UNDERLINE: span = new UnderlineSpan(); break;
+                    case SPAN_STRIKE: span = new StrikethroughSpan(); break;
+                    default: continue;
+                }
+                spanned.setSpan(span, spans[i], spans[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            return spanned;
+        }
+    }
+
+    // Text colour that only applies to the fill pass, so the outline stroke keeps its own colour.
+    static final class FillColorSpan extends CharacterStyle implements UpdateAppearance {
+        private final int color;
+        FillColorSpan(int color) { this.color = color; }
+        @Override
+        public void updateDrawState(TextPaint paint) {
+            if (paint.getStyle() != Paint.Style.STROKE) paint.setColor(color);
+        }
+    }
+    //endregion
+
+    //region Charset Detection (Internal)
+    // One pass over the first bytes of a subtitle: BOMs, UTF-16 without BOM, strict UTF-8 validation, and
+    // for single-byte Arabic text a letter-frequency score of windows-1256 against ISO-8859-6.
+    static final class CharsetDetector {
+        static final int SAMPLE_SIZE = 16 * 1024;
+        static final Charset WINDOWS_1256 = Charset.forName("windows-1256");
+        static final Charset ISO_8859_6 = Charset.forName("ISO-8859-6");
+        // Most frequent Arabic letters in running text: alef, lam, yeh, meem, waw, noon, heh, reh, teh, beh.
+        private static final String COMMON_ARABIC = "\u0627\u0644\u064A\u0645\u0648\u0646\u0647\u0631\u062A\u0628";
+        private static final char[] CP1256_HIGH = decodeHighHalf(WINDOWS_1256);
+        private static final char[] ISO_8859_6_HIGH = decodeHighHalf(ISO_8859_6);
+
+        static final class Result {
+            final Charset charset;
+            final int confidence;
+            final int bomLength;
+            final String reason;
+            Result(Charset charset, int confidence, int bomLength, String reason) {
+                this.charset = charset;
+                this.confidence = confidence;
+                this.bomLength = bomLength;
+                this.reason = reason;
+            }
+        }
+
+        private static char[] decodeHighHalf(Charset charset) {
+            byte[] high = new byte[128];
+            for (int i = 0; i < 128; i++) high[i] = (byte) (0x80 + i);
+            String decoded = new String(high, charset);
+            char[] table = new char[128];
+            for (int i = 0; i < 128; i++) table[i] = i < decoded.length() ? decoded.charAt(i) : '\uFFFD';
+            return table;
+        }
+
+        static Result detect(byte[] data, int length) {
+            if (length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+                return new Result(StandardCharsets.UTF_8, 100, 3, "UTF-8 BOM");
+            }
+            if (length >= 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xFE) {
+                return new Result(StandardCharsets.UTF_16LE, 100, 2, "UTF-16LE BOM");
+            }
+            if (length >= 2 && (data[0] & 0xFF) == 0xFE && (data[1] & 0xFF) == 0xFF) {
+                return new Result(StandardCharsets.UTF_16BE, 100, 2, "UTF-16BE BOM");
+            }
+
+            // Timestamps and cue numbers are ASCII, so UTF-16 without a BOM shows up as zero bytes on one side.
+            int evenZeros = 0, oddZeros = 0, pairs = length / 2;
+            for (int i = 0; i + 1 < length; i += 2) {
+                if (data[i] == 0) evenZeros++;
+                if (data[i + 1] == 0) oddZeros++;
+            }
+            if (pairs > 0) {
+                if (oddZeros * 5 > pairs && evenZeros * 20 < pairs) {
+                    return new Result(StandardCharsets.UTF_16LE, Math.min(95, 50 + oddZeros * 100 / pairs), 0, "UTF-16LE zero pattern");
+                }
+                if (evenZeros * 5 > pairs && oddZeros * 20 < pairs) {
+                    return new Result(StandardCharsets.UTF_16BE, Math.min(95, 50 + evenZeros * 100 / pairs), 0, "UTF-16BE zero pattern");
+                }
+            }
+
+            int multiByte = 0, highBytes = 0;
+            boolean validUtf8 = true;
+            int i = 0;
+            while (i < length) {
+                int b = data[i] & 0xFF;
+                if (b < 0x80) { i++; continue; }
+                highBytes++;
+                int extra;
+                if (b >= 0xC2 && b <= 0xDF) extra = 1;
+                else if (b >= 0xE0 && b <= 0xEF) extra = 2;
+                else if (b >= 0xF0 && b <= 0xF4) extra = 3;
+                else { validUtf8 = false; break; }
+                if (i + extra >= length) break; // sequence cut off by the end of the sample
+                boolean ok = true;
+                for (int k = 1; k <= extra; k++) {
+                    if ((data[i + k] & 0xC0) != 0x80) { ok = false; break; }
+                }
+                // Reject overlong encodings and surrogates.
+                int b1 = data[i + 1] & 0xFF;
+                if (ok && b == 0xE0 && b1 < 0xA0) ok = false;
+                if (ok && b == 0xED && b1 > 0x9F) ok = false;
+                if (ok && b == 0xF0 && b1 < 0x90) ok = false;
+                if (ok && b == 0xF4 && b1 > 0x8F) ok = false;
+                if (!ok) { validUtf8 = false; break; }
+                multiByte++;
+                i += extra + 1;
+            }
+            if (highBytes == 0) {
+                return new Result(StandardCharsets.UTF_8, 60, 0, "ASCII only");
+            }
+            if (validUtf8) {
+                return new Result(StandardCharsets.UTF_8, multiByte >= 4 ? 99 : 85, 0, "valid UTF-8");
+            }
+
+            int cp1256Score = 0, isoScore = 0;
+            for (int j = 0; j < length; j++) {
+                int b = data[j] & 0xFF;
+                if (b < 0x80) continue;
+                cp1256Score += letterScore(CP1256_HIGH[b - 0x80]);
+                isoScore += letterScore(ISO_8859_6_HIGH[b - 0x80]);
+            }
+            Charset best = cp1256Score >= isoScore ? WINDOWS_1256 : ISO_8859_6;
+            int top = Math.max(cp1256Score, isoScore), other = Math.min(cp1256Score, isoScore);
+            int confidence;
+            if (top <= 0) {
+                confidence = 10;
+            } else {
+                confidence = 50 + (int) (49L * (top - Math.max(0, other)) / top);
+            }
+            return new Result(best, confidence, 0, "Arabic letter frequency " + cp1256Score + " vs " + isoScore);
+        }
+
+        private static int letterScore(char c) {
+            if (c == '\uFFFD' || (c >= '\u0080' && c <= '\u009F')) return -8;
+            if (COMMON_ARABIC.indexOf(c) >= 0) return 4;
+            if (c >= '\u0621' && c <= '\u064A') return 2;
+            if ((c >= '\u064B' && c <= '\u0652') || c == '\u060C' || c == '\u061B' || c == '\u061F' || c == '\u0640') return 1;
+            if (c == '\u200E' || c == '\u200F' || c == '\u200C' || c == '\u200D') return 1;
+            return 0;
+        }
+    }
+    //endregion
+
+    //region Compiled Timeline (Internal)
+    // Flat, read-in-place form of a parsed subtitle. The loader writes it to a file in the cache dir and the
+    // service maps that file, so only a path crosses the Intent and the service never copies or deserializes cues.
+    // Layout (little endian, sections 8-byte aligned):
+    //   header   magic, version, count, maxOverlap, spanInts, textBytes, sourceKey(long), parserVersion, reserved
+    //   long[count] starts, long[count] ends, long[count] running max ends
+    //   int[count + 1] text offsets, int[count + 1] span offsets, int[spanInts] spans, byte[textBytes] UTF-8 text
+    static final class CompiledTimeline {
+        static final int MAGIC = 0x5053544C; // "PSTL"
+        static final int FORMAT_VERSION = 2;
+        static final int HEADER_SIZE = 40;
+        static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+        private final ByteBuffer buffer;
+        private final int count, maxOverlap, parserVersion, textPoolOffset;
+        private final long sourceKey;
+        private final LongBuffer starts, ends, maxEnds;
+        private final IntBuffer textOffsets, spanOffsets, spans;
+
+        private CompiledTimeline(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer.order(ORDER);
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Not a compiled subtitle timeline.");
+            }
+            count = buffer.getInt(8);
+            maxOverlap = buffer.getInt(12);
+            int spanInts = buffer.getInt(16), textBytes = buffer.getInt(20);
+            sourceKey = buffer.getLong(24);
+            parserVersion = buffer.getInt(32);
+            int offset = HEADER_SIZE;
+            starts = slice(offset, count * 8L).asLongBuffer(); offset += count * 8;
+            ends = slice(offset, count * 8L).asLongBuffer(); offset += count * 8;
+            maxEnds = slice(offset, count * 8L).asLongBuffer(); offset += count * 8;
+            textOffsets = slice(offset, (count + 1) * 4L).asIntBuffer(); offset += align((count + 1) * 4);
+            spanOffsets = slice(offset, (count + 1) * 4L).asIntBuffer(); offset += align((count + 1) * 4);
+            spans = slice(offset, spanInts * 4L).asIntBuffer(); offset += align(spanInts * 4);
+            textPoolOffset = offset;
+            if ((long) textPoolOffset + textBytes > buffer.capacity()) throw new IOException("Truncated subtitle timeline.");
+        }
+
+        private ByteBuffer slice(int offset, long length) throws IOException {
+            if (offset + length > buffer.capacity()) throw new IOException("Truncated subtitle timeline.");
+            ByteBuffer view = buffer.duplicate();
+            view.limit((int) (offset + length)).position(offset);
+            return view.slice().order(ORDER);
+        }
+
+        private static int align(int bytes) { return (bytes + 7) & ~7; }
+
+        static CompiledTimeline map(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                return new CompiledTimeline(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        // Writes entries (already in start order) through a writable mapping, then renames into place so a reader
+        // never maps a half-written file.
+        static File write(List<SubtitleEntry> entries, File target, long sourceKey, int parserVersion) throws IOException {
+            int n = entries.size();
+            byte[][] texts = new byte[n][];
+            int textBytes = 0, spanInts = 0;
+            long[] startArray = new long[n], endArray = new long[n];
+            for (int i = 0; i < n; i++) {
+                SubtitleEntry entry = entries.get(i);
+                texts[i] = entry.text.getBytes(StandardCharsets.UTF_8);
+                textBytes += texts[i].length;
+                if (entry.spans != null) spanInts += entry.spans.length;
+                startArray[i] = entry.startTimeMillis;
+                endArray[i] = entry.endTimeMillis;
+            }
+            long size = HEADER_SIZE + n * 24L + align((n + 1) * 4) * 2L + align(spanInts * 4) + textBytes;
+            File parent = target.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+            // Two loads of the same file may race to the same target; each writes its own temp file.
+            File temp = new File(target.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+                raf.setLength(size);
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.order(ORDER);
+                out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n).putInt(CueTimeline.computeMaxOverlap(startArray, endArray))
+                        .putInt(spanInts).putInt(textBytes).putLong(sourceKey).putInt(parserVersion).putInt(0);
+                for (int i = 0; i < n; i++) out.putLong(startArray[i]);
+                for (int i = 0; i < n; i++) out.putLong(endArray[i]);
+                long runningMax = Long.MIN_VALUE;
+                for (int i = 0; i < n; i++) { runningMax = Math.max(runningMax, endArray[i]); out.putLong(runningMax); }
+                int textOffset = 0;
+                for (int i = 0; i < n; i++) { out.putInt(textOffset); textOffset += texts[i].length; }
+                out.putInt(textOffset);
+                pad(out);
+                int spanOffset = 0;
+                for (int i = 0; i < n; i++) {
+                    out.putInt(spanOffset);
+                    if (entries.get(i).spans != null) spanOffset += entries.get(i).spans.length;
+                }
+                out.putInt(spanOffset);
+                pad(out);
+                for (int i = 0; i < n; i++) {
+                    int[] entrySpans = entries.get(i).spans;
+                    if (entrySpans != null) for (int value : entrySpans) out.putInt(value);
+                }
+                pad(out);
+                for (int i = 0; i < n; i++) out.put(texts[i]);
+                out.force();
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Cannot move compiled timeline into " + target);
+            }
+            return target;
+        }
+
+        private static void pad(ByteBuffer out) {
+            while ((out.position() & 7) != 0) out.put((byte) 0);
+        }
+
+        int size() { return count; }
+        long sourceKey() { return sourceKey; }
+        int parserVersion() { return parserVersion; }
+        long startAt(int index) { return starts.get(index); }
+        long endAt(int index) { return ends.get(index); }
+
+        // Each CueTimeline keeps its own cursors, but all of them read the same mapped arrays.
+        CueTimeline newIndex() {
+            return new CueTimeline(starts.duplicate(), ends.duplicate(), maxEnds.duplicate(), maxOverlap);
+        }
+
+        String textAt(int index) {
+            int from = textOffsets.get(index), to = textOffsets.get(index + 1);
+            ByteBuffer view = buffer.duplicate();
+            view.limit(textPoolOffset + to).position(textPoolOffset + from);
+            return StandardCharsets.UTF_8.decode(view).toString();
+        }
+
+        int[] spansAt(int index) {
+            int from = spanOffsets.get(index), to = spanOffsets.get(index + 1);
+            if (from == to) return null;
+            int[] result = new int[to - from];
+            for (int i = 0; i < result.length; i++) result[i] = spans.get(from + i);
+            return result;
+        }
+
+        // The text as it is drawn: plain for SRT, with the precompiled style runs attached for ASS.
+        CharSequence displayText(int index) {
+            String text = textAt(index);
+            int[] cueSpans = spansAt(index);
+            return cueSpans == null ? text : AssParser.toSpanned(text, cueSpans);
+        }
+    }
+    //endregion
+
+    //region Timeline Cache (Internal)
+    // Compiled timelines are kept by content, so reopening an episode maps the earlier result instead of decoding
+    // and parsing it again. Entries are named <parser version>-<content key>-<size>.pst. A small source index
+    // remembers the size and mtime a local path had when it was compiled, so an unchanged file is not even read.
+    // The directory is trimmed least recently used first once it goes over its budget.
+    static final class TimelineCache {
+        // Bump whenever the tokenizer, the ASS parser or the decoding rules change what a file compiles to.
+        static final int PARSER_VERSION = 1;
+        static final long BYTE_BUDGET = 16L * 1024 * 1024;
+        static final int MAX_ENTRIES = 64;
+        private static final String SOURCE_INDEX = "sources.properties";
+        private static final Object LOCK = new Object();
+
+        private final File dir;
+
+        TimelineCache(File dir) {
+            this.dir = dir;
+        }
+
+        // The requested encoding seeds the hash: the same bytes read as windows-1256 and as UTF-8 are different cues.
+        static long contentKey(byte[] data, String encoding) {
+            return XxHash64.hash(data, 0, data.length, keySeed(encoding));
+        }
+
+        // Gives contentKey's value for bytes fed in as they are read.
+        static XxHash64.Streaming contentDigest(String encoding) {
+            return new XxHash64.Streaming(keySeed(encoding));
+        }
+
+        private static long keySeed(String encoding) {
+            return encoding.toLowerCase(java.util.Locale.ROOT).hashCode();
+        }
+
+        File lookupSource(File source, String encoding) {
+            synchronized (LOCK) {
+                long[] record = parseRecord(loadIndex().getProperty(sourceId(source, encoding)));
+                if (record == null || record[0] != source.length() || record[1] != source.lastModified()) {
+                    return null;
+                }
+                return lookup(record[2], record[0]);
+            }
+        }
+
+        File lookup(long key, long size) {
+            synchronized (LOCK) {
+                File file = entryFile(key, size);
+                if (!file.isFile()) return null;
+                try {
+                    CompiledTimeline compiled = CompiledTimeline.map(file);
+                    if (compiled.sourceKey() != key || compiled.parserVersion() != PARSER_VERSION) {
+                        file.delete();
+                        return null;
+                    }
+                } catch (IOException e) {
+                    file.delete();
+                    return null;
+                }
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            }
+        }
+
+        File store(List<SubtitleEntry> entries, long key, long size) throws IOException {
+            File file = CompiledTimeline.write(entries, entryFile(key, size), key, PARSER_VERSION);
+            synchronized (LOCK) {
+                evict(file);
+            }
+            return file;
+        }
+
+        void remember(File source, String encoding, long key, long size) {
+            synchronized (LOCK) {
+                java.util.Properties index = loadIndex();
+                index.setProperty(sourceId(source, encoding), size + ":" + source.lastModified() + ":" + key);
+                // Drop records whose entry has been evicted so the index stays as small as the cache.
+                for (String name : index.stringPropertyNames()) {
+                    long[] record = parseRecord(index.getProperty(name));
+                    if (record == null || !entryFile(record[2], record[0]).isFile()) {
+                        index.remove(name);
+                    }
+                }
+                File temp = new File(dir, SOURCE_INDEX + ".tmp");
+                try (java.io.FileOutputStream out = new java.io.FileOutputStream(temp)) {
+                    index.store(out, null);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not save timeline source index: " + e.getMessage());
+                    return;
+                }
+                temp.renameTo(new File(dir, SOURCE_INDEX));
+            }
+        }
+
+        private File entryFile(long key, long size) {
+            return new File(dir, PARSER_VERSION + "-" + Long.toHexString(key) + "-" + size + ".pst");
+        }
+
+        private static String sourceId(File source, String encoding) {
+            return source.getAbsolutePath() + "|" + encoding.toLowerCase(java.util.Locale.ROOT);
+        }
+
+        // size, mtime and content key of an index record, or null for a missing or damaged one, which counts as stale.
+        private static long[] parseRecord(String value) {
+            if (value == null) return null;
+            String[] parts = value.split(":");
+            if (parts.length != 3) return null;
+            try {
+                return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private java.util.Properties loadIndex() {
+            java.util.Properties index = new java.util.Properties();
+            File file = new File(dir, SOURCE_INDEX);
+            if (file.isFile()) {
+                try (FileInputStream in = new FileInputStream(file)) {
+                    index.load(in);
+                } catch (IOException | IllegalArgumentException e) {
+                    index.clear();
+                }
+            }
+            return index;
+        }
+
+        private void evict(File keep) {
+            File[] files = dir.listFiles();
+            if (files == null) return;
+            List<File> entries = new ArrayList<>();
+            long total = 0;
+            String current = PARSER_VERSION + "-";
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(".pst")) continue;
+                // Output of an older parser can never be hit again.
+                if (!name.startsWith(current)) {
+                    file.delete();
+                    continue;
+                }
+                entries.add(file);
+                total += file.length();
+            }
+            Collections.sort(entries, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            int remaining = entries.size();
+            for (File file : entries) {
+                if (total <= BYTE_BUDGET && remaining <= MAX_ENTRIES) break;
+                if (file.equals(keep)) continue;
+                long length = file.length();
+                // The service may still have it mapped; that mapping stays valid after the unlink.
+                if (file.delete()) {
+                    total -= length;
+                    remaining--;
+                }
+            }
+        }
+    }
+
+    // xxHash64 over a byte range; fast enough that hashing a subtitle costs less than reading it.
+    static final class XxHash64 {
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        static long hash(byte[] data, int offset, int length, long seed) {
+            int end = offset + length, i = offset;
+            long h;
+            if (length >= 32) {
+                long v1 = seed + P1 + P2, v2 = seed + P2, v3 = seed, v4 = seed - P1;
+                int limit = end - 32;
+                do {
+                    v1 = round(v1, readLong(data, i));
+                    v2 = round(v2, readLong(data, i + 8));
+                    v3 = round(v3, readLong(data, i + 16));
+                    v4 = round(v4, readLong(data, i + 24));
+                    i += 32;
+                } while (i <= limit);
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else {
+                h = seed + P5;
+            }
+            return finish(h + length, data, i, end);
+        }
+
+        // Folds in the last 0-31 bytes and avalanches.
+        private static long finish(long h, byte[] data, int i, int end) {
+            for (; i + 8 <= end; i += 8) {
+                h ^= round(0, readLong(data, i));
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+            }
+            if (i + 4 <= end) {
+                h ^= (readInt(data, i) & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+                i += 4;
+            }
+            for (; i < end; i++) {
+                h ^= (data[i] & 0xFF) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+            }
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            return h;
+        }
+
+        // The same hash fed in pieces, so a stream can be hashed in the pass that reads it.
+        static final class Streaming {
+            private final long seed;
+            private final byte[] stripe = new byte[32];
+            private int buffered;
+            private long v1, v2, v3, v4, total;
+
+            Streaming(long seed) {
+                this.seed = seed;
+                this.v1 = seed + P1 + P2;
+                this.v2 = seed + P2;
+                this.v3 = seed;
+                this.v4 = seed - P1;
+            }
+
+            void update(byte[] data, int offset, int length) {
+                total += length;
+                int end = offset + length;
+                if (buffered > 0) {
+                    int take = Math.min(32 - buffered, length);
+                    System.arraycopy(data, offset, stripe, buffered, take);
+                    buffered += take;
+                    offset += take;
+                    if (buffered < 32) return;
+                    consume(stripe, 0);
+                    buffered = 0;
+                }
+                for (; offset + 32 <= end; offset += 32) consume(data, offset);
+                if (offset < end) {
+                    System.arraycopy(data, offset, stripe, 0, end - offset);
+                    buffered = end - offset;
+                }
+            }
+
+            long digest() {
+                long h;
+                if (total >= 32) {
+                    h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                    h = merge(h, v1);
+                    h = merge(h, v2);
+                    h = merge(h, v3);
+                    h = merge(h, v4);
+                } else {
+                    h = seed + P5;
+                }
+                return finish(h + total, stripe, 0, buffered);
+            }
+
+            private void consume(byte[] data, int i) {
+                v1 = round(v1, readLong(data, i));
+                v2 = round(v2, readLong(data, i + 8));
+                v3 = round(v3, readLong(data, i + 16));
+                v4 = round(v4, readLong(data, i + 24));
+            }
+        }
+
+        private static long round(long acc, long input) {
+            acc += input * P2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * P1;
+        }
+
+        private static long merge(long h, long v) {
+            h ^= round(0, v);
+            return h * P1 + P4;
+        }
+
+        private static long readLong(byte[] b, int i) {
+            return (readInt(b, i) & 0xFFFFFFFFL) | ((long) readInt(b, i + 4) << 32);
+        }
+
+        private static int readInt(byte[] b, int i) {
+            return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+        }
+    }
+    //endregion
+
+    //region Playback Snapshot (Internal)
+    // What the service needs to come back after the system kills it: which timeline, where, paused or not, and the
+    // accumulated nudge. It lives in a small shared mapping, so a save is a handful of stores into memory that the
+    // kernel keeps even if the process dies right after. A sequence number that is odd while a save is in progress
+    // tells the reader to ignore a torn record.
+    // Layout (little endian): magic, version, sequence, flags, position, savedAt, nudge, sourceKey, pathLength, path
+    static final class PlaybackSnapshot {
+        static final int MAGIC = 0x50535350; // "PSSP"
+        static final int VERSION = 1;
+        static final int FILE_SIZE = 4096;
+        private static final int PATH_OFFSET = 52;
+        private static final int FLAG_ACTIVE = 1, FLAG_PAUSED = 2;
+
+        final String timelinePath;
+        final long sourceKey, position, savedAt, nudge;
+        final boolean paused;
+
+        private PlaybackSnapshot(String timelinePath, long sourceKey, long position, long savedAt, long nudge, boolean paused) {
+            this.timelinePath = timelinePath;
+            this.sourceKey = sourceKey;
+            this.position = position;
+            this.savedAt = savedAt;
+            this.nudge = nudge;
+            this.paused = paused;
+        }
+
+        // Position the snapshot stands for at clock time now; a playing snapshot kept running while we were dead.
+        long positionAt(long now) {
+            return paused || now < savedAt ? position : position + (now - savedAt);
+        }
+
+        static PlaybackSnapshot read(File file) {
+            if (!file.isFile() || file.length() < PATH_OFFSET) return null;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+                int sequence = in.getInt(8), flags = in.getInt(12), pathLength = in.getInt(48);
+                if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION || (sequence & 1) != 0 || (flags & FLAG_ACTIVE) == 0
+                        || pathLength <= 0 || PATH_OFFSET + pathLength > in.capacity()) {
+                    return null;
+                }
+                byte[] path = new byte[pathLength];
+                in.position(PATH_OFFSET);
+                in.get(path);
+                return new PlaybackSnapshot(new String(path, StandardCharsets.UTF_8), in.getLong(40), in.getLong(16),
+                        in.getLong(24), in.getLong(32), (flags & FLAG_PAUSED) != 0);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        // Keeps the snapshot file mapped for the life of the service.
+        static final class Writer {
+            private final MappedByteBuffer out;
+            private String encodedPath;
+            private int sequence;
+
+            Writer(File file) throws IOException {
+                File parent = file.getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                    raf.setLength(FILE_SIZE);
+                    out = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                }
+                out.order(ByteOrder.LITTLE_ENDIAN);
+                sequence = out.getInt(0) == MAGIC ? out.getInt(8) & ~1 : 0;
+            }
+
+            void write(String timelinePath, long sourceKey, long position, long savedAt, long nudge, boolean paused) {
+                out.putInt(8, ++sequence);
+                out.putInt(0, MAGIC).putInt(4, VERSION).putInt(12, FLAG_ACTIVE | (paused ? FLAG_PAUSED : 0));
+                out.putLong(16, position).putLong(24, savedAt).putLong(32, nudge).putLong(40, sourceKey);
+                if (!timelinePath.equals(encodedPath)) {
+                    byte[] path = timelinePath.getBytes(StandardCharsets.UTF_8);
+                    int length = Math.min(path.length, FILE_SIZE - PATH_OFFSET);
+                    out.putInt(48, length);
+                    for (int i = 0; i < length; i++) out.put(PATH_OFFSET + i, path[i]);
+                    encodedPath = timelinePath;
+                }
+                out.putInt(8, ++sequence);
+            }
+
+            // An explicit stop leaves nothing to resume.
+            void clear() {
+                out.putInt(8, ++sequence);
+                out.putInt(12, 0);
+                out.putInt(8, ++sequence);
+            }
+        }
+    }
+    //endregion
+
+    //region Sync Profiles (Internal)
+    // Per-file sync and look, keyed by the timeline source key (the content hash), so it follows the content through
+    // renames and moves. One fixed-size record per file in a single store file: a profile is read or saved with one
+    // positional read or write instead of rewriting a preferences blob. The key -> slot index is built from one scan
+    // when the store opens; once every slot is used the least recently saved profile is overwritten. Each record
+    // ends with a checksum so a write torn by a crash reads as "no profile" rather than garbage.
+    // Record layout (little endian): key, savedAt, position, nudge, rate, offset, textSize, fontLength, font, checksum
+    static final class SyncProfileStore {
+        static final int MAGIC = 0x50535046; // "PSPF"
+        static final int VERSION = 1;
+        static final int RECORD_SIZE = 128;
+        static final int MAX_PROFILES = 1024;
+        private static final int FONT_OFFSET = 54, CHECKSUM_OFFSET = RECORD_SIZE - 8;
+        static final int MAX_FONT_BYTES = CHECKSUM_OFFSET - FONT_OFFSET;
+
+        static final class Profile {
+            final long key;
+            long savedAt, position, nudge, offset;
+            double rate = 1;
+            // 0 and null mean "use the global setting".
+            int textSize;
+            String font;
+
+            Profile(long key) {
+                this.key = key;
+            }
+        }
+
+        private final FileChannel channel;
+        private final java.util.HashMap<Long, Integer> slots = new java.util.HashMap<>();
+        private final long[] savedAt = new long[MAX_PROFILES];
+        private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private int used;
+
+        // The header takes the first record; profile slot s (0..MAX_PROFILES-1) is the record after it, at (s + 1) * RECORD_SIZE.
+        SyncProfileStore(File file) throws IOException {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            ByteBuffer all = ByteBuffer.allocate((int) Math.min(channel.size(), (long) (MAX_PROFILES + 1) * RECORD_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            while (all.hasRemaining() && channel.read(all, all.position()) > 0) {}
+            all.flip();
+            if (all.limit() < RECORD_SIZE || all.getInt(0) != MAGIC || all.getInt(4) != VERSION) {
+                channel.truncate(0);
+                record.clear();
+                record.putInt(MAGIC).putInt(VERSION);
+                record.clear();
+                channel.write(record, 0);
+                return;
+            }
+            for (int slot = 0; slot < MAX_PROFILES && (slot + 2) * RECORD_SIZE <= all.limit(); slot++) {
+                int base = (slot + 1) * RECORD_SIZE;
+                used = slot + 1;
+                savedAt[slot] = all.getLong(base + 8);
+                if (savedAt[slot] != 0) slots.put(all.getLong(base), slot);
+            }
+        }
+
+        synchronized Profile get(long key) throws IOException {
+            Integer slot = slots.get(key);
+            if (slot == null) return null;
+            record.clear();
+            while (record.hasRemaining() && channel.read(record, position(slot) + record.position()) > 0) {}
+            if (record.hasRemaining() || record.getLong(0) != key || record.getLong(CHECKSUM_OFFSET) != checksum(record)) return null;
+            Profile profile = new Profile(key);
+            profile.savedAt = record.getLong(8);
+            profile.position = record.getLong(16);
+            profile.nudge = record.getLong(24);
+            profile.rate = record.getDouble(32);
+            profile.offset = record.getLong(40);
+            profile.textSize = record.getInt(48);
+            int fontLength = Math.min(record.getShort(52), MAX_FONT_BYTES);
+            if (fontLength > 0) profile.font = new String(record.array(), FONT_OFFSET, fontLength, StandardCharsets.UTF_8);
+            return profile;
+        }
+
+        synchronized void put(Profile profile) throws IOException {
+            Integer existing = slots.get(profile.key);
+            int slot;
+            if (existing != null) {
+                slot = existing;
+            } else if (used < MAX_PROFILES) {
+                slot = used++;
+            } else {
+                slot = 0;
+                for (int i = 1; i < MAX_PROFILES; i++) if (savedAt[i] < savedAt[slot]) slot = i;
+                for (java.util.Iterator<Integer> it = slots.values().iterator(); it.hasNext(); ) if (it.next() == slot) { it.remove(); break; }
+            }
+            profile.savedAt = Math.max(System.currentTimeMillis(), 1);
+            byte[] font = profile.font == null ? new byte[0] : profile.font.getBytes(StandardCharsets.UTF_8);
+            if (font.length > MAX_FONT_BYTES) font = new byte[0];
+            record.clear();
+            java.util.Arrays.fill(record.array(), (byte) 0);
+            record.putLong(profile.key).putLong(profile.savedAt).putLong(profile.position).putLong(profile.nudge)
+                    .putDouble(profile.rate).putLong(profile.offset).putInt(profile.textSize).putShort((short) font.length).put(font);
+            record.putLong(CHECKSUM_OFFSET, checksum(record));
+            record.clear();
+            while (record.hasRemaining()) channel.write(record, position(slot) + record.position());
+            slots.put(profile.key, slot);
+            savedAt[slot] = profile.savedAt;
+        }
+
+        synchronized void close() {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+
+        private static long position(int slot) {
+            return (long) (slot + 1) * RECORD_SIZE;
+        }
+
+        private static long checksum(ByteBuffer record) {
+            return XxHash64.hash(record.array(), 0, CHECKSUM_OFFSET, MAGIC);
+        }
+    }
+    //endregion
+
+    //region Cue Timeline Index (Internal)
+    // Built once per loaded file. Cues are kept in start order; maxEnds[i] is the largest end time among
+    // cues 0..i, which is monotonic and lets us binary search the first cue that can still be on screen.
+    // The arrays are LongBuffers so the same index runs over heap arrays or straight over a mapped CompiledTimeline.
+    static final class CueTimeline {
+        private final LongBuffer starts, ends, maxEnds;
+        private final int size, maxOverlap;
+        private long lastLookup = Long.MIN_VALUE;
+        private int startCursor = 0, endCursor = 0;
+
+        CueTimeline(List<SubtitleEntry> entries) {
+            int n = entries.size();
+            long[] startArray = new long[n], endArray = new long[n], maxEndArray = new long[n];
+            long runningMax = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                SubtitleEntry entry = entries.get(i);
+                startArray[i] = entry.startTimeMillis;
+                endArray[i] = entry.endTimeMillis;
+                runningMax = Math.max(runningMax, entry.endTimeMillis);
+                maxEndArray[i] = runningMax;
+            }
+            this.starts = LongBuffer.wrap(startArray);
+            this.ends = LongBuffer.wrap(endArray);
+            this.maxEnds = LongBuffer.wrap(maxEndArray);
+            this.size = n;
+            this.maxOverlap = computeMaxOverlap(startArray, endArray);
+        }
+
+        CueTimeline(LongBuffer starts, LongBuffer ends, LongBuffer maxEnds, int maxOverlap) {
+            this.starts = starts;
+            this.ends = ends;
+            this.maxEnds = maxEnds;
+            this.size = starts.limit();
+            this.maxOverlap = Math.max(1, maxOverlap);
+        }
+
+        static int computeMaxOverlap(long[] starts, long[] ends) {
+            long[] sortedEnds = ends.clone();
+            java.util.Arrays.sort(sortedEnds);
+            int max = 0, active = 0, e = 0;
+            for (int s = 0; s < starts.length; s++) {
+                while (e < sortedEnds.length && sortedEnds[e] < starts[s]) { e++; active--; }
+                active++;
+                if (active > max) max = active;
+            }
+            return Math.max(1, max);
+        }
+
+        int size() { return size; }
+        long startAt(int index) { return starts.get(index); }
+        long endAt(int index) { return ends.get(index); }
+        long duration() { return size == 0 ? 0 : maxEnds.get(size - 1); }
+        int maxOverlap() { return maxOverlap; }
+
+        // Number of cues whose start is <= time.
+        private int upperBound(long time) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts.get(mid) <= time) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // First index whose running max end is >= time; no cue before it can be active.
+        private int firstCandidate(long time, int limit) {
+            int lo = 0, hi = limit;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (maxEnds.get(mid) < time) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // Fills out with the indices of every cue on screen at time (start <= time <= end) and returns how many.
+        // Successive calls with non-decreasing times only move the cursors forward.
+        int activeAt(long time, int[] out) {
+            if (time >= lastLookup) {
+                while (startCursor < size && starts.get(startCursor) <= time) startCursor++;
+                while (endCursor < startCursor && maxEnds.get(endCursor) < time) endCursor++;
+            } else {
+                startCursor = upperBound(time);
+                endCursor = firstCandidate(time, startCursor);
+            }
+            lastLookup = time;
+            int count = 0;
+            for (int i = endCursor; i < startCursor && count < out.length; i++) {
+                if (ends.get(i) >= time) out[count++] = i;
+            }
+            return count;
+        }
+
+        // Earliest time after `time` at which the set of active cues changes: the next start, or one past
+        // the earliest end among cues on screen. Long.MAX_VALUE once nothing is left to show.
+        long nextChangeAfter(long time) {
+            int next, first;
+            if (time == lastLookup) {
+                next = startCursor;
+                first = endCursor;
+            } else {
+                next = upperBound(time);
+                first = firstCandidate(time, next);
+            }
+            long boundary = next < size ? starts.get(next) : Long.MAX_VALUE;
+            for (int i = first; i < next; i++) {
+                long end = ends.get(i);
+                if (end >= time && end + 1 < boundary) boundary = end + 1;
+            }
+            return boundary;
+        }
+
+        // Last cue starting at or before time, or -1.
+        int floorIndex(long time) { return upperBound(time) - 1; }
+
+        // First cue starting strictly after time, or size() if there is none.
+        int nextIndexAfter(long time) { return upperBound(time); }
+    }
+    //endregion
+
+    //region Cue Retiming (Internal)
+    // Maps the player clock onto subtitle time as cue = rate * player + offset. The cues themselves are never
+    // rewritten or re-sorted; the service converts at every lookup, so changing the mapping is O(1) however long
+    // the file is. A rate other than 1 fixes steady drift, typically a subtitle timed for 25 fps (PAL speed-up)
+    // played against a 23.976 fps video.
+    static final class Retime {
+        static final Retime IDENTITY = new Retime(1, 0);
+        static final String[] PRESET_NAMES = { "1:1", "23.976\u219225", "24\u219225", "29.97\u219225" };
+        // Video frame rate over the rate the subtitle was timed for.
+        static final double[] PRESET_RATES = { 1, 24000.0 / 1001 / 25, 24.0 / 25, 30000.0 / 1001 / 25 };
+        // Anything outside this range is a mis-tap, not a frame rate mismatch.
+        static final double MIN_RATE = 0.8, MAX_RATE = 1.25;
+        // Two sync points closer together than this can't pin the rate down.
+        static final long MIN_SPAN_MS = 60_000;
+
+        final double rate;
+        final long offset;
+
+        Retime(double rate, long offset) {
+            this.rate = rate;
+            this.offset = offset;
+        }
+
+        boolean isIdentity() { return rate == 1 && offset == 0; }
+
+        // Rounds so that toCue(toPlayer(t)) >= t: the scheduler wakes at toPlayer(boundary) and must find the
+        // boundary already passed.
+        long toCue(long player) { return rate == 1 ? player + offset : (long) Math.floor(rate * player + offset + 1e-6); }
+
+        long toPlayer(long cue) { return rate == 1 ? cue - offset : (long) Math.ceil((cue - offset) / rate - 1e-6); }
+
+        Retime withRate(double newRate) { return new Retime(newRate, offset); }
+
+        // Keeps the rate and shifts so that the cue starting at cueTime lines up with the given player time.
+        Retime alignedAt(long cueTime, long player) { return new Retime(rate, Math.round(cueTime - rate * player)); }
+
+        // Solves rate and offset from two cues and the player times they were actually heard at. Null when the
+        // points are too close together or give an implausible rate.
+        static Retime fromPoints(long cue1, long player1, long cue2, long player2) {
+            if (Math.abs(player2 - player1) < MIN_SPAN_MS) return null;
+            double rate = (double) (cue2 - cue1) / (player2 - player1);
+            if (rate < MIN_RATE || rate > MAX_RATE) return null;
+            return new Retime(rate, Math.round(cue1 - rate * player1));
+        }
+    }
+    //endregion
+
+    //region Cue Search (Internal)
+    // In-memory search over a timeline's cue text, built once in the background after a file is loaded.
+    // Text is normalized first: Arabic diacritics and tatweel are dropped, alef/hamza, ta marbuta and alef maqsura
+    // forms are unified, digits are folded to ASCII and Latin is lower-cased, and anything that is not a letter or
+    // digit becomes a single space. A query matches a cue when every query word is found in it: words of three
+    // or more chars as substrings through a trigram index, shorter ones as word prefixes through a sorted token
+    // dictionary. Hits come back in cue order.
+    static final class CueSearchIndex {
+        final CompiledTimeline data;
+        private final int size;
+        private final char[] pool;
+        private final int[] offsets;
+        private final java.util.HashMap<Long, int[]> trigrams;
+        private final String[] tokens;
+        private final int[][] tokenCues;
+
+        private CueSearchIndex(CompiledTimeline data, char[] pool, int[] offsets, java.util.HashMap<Long, int[]> trigrams, String[] tokens, int[][] tokenCues) {
+            this.data = data;
+            this.size = data.size();
+            this.pool = pool;
+            this.offsets = offsets;
+            this.trigrams = trigrams;
+            this.tokens = tokens;
+            this.tokenCues = tokenCues;
+        }
+
+        static CueSearchIndex build(CompiledTimeline data) {
+            int n = data.size();
+            StringBuilder sb = new StringBuilder(n * 32);
+            int[] offsets = new int[n + 1];
+            java.util.HashMap<Long, IntList> grams = new java.util.HashMap<>();
+            java.util.TreeMap<String, IntList> words = new java.util.TreeMap<>();
+            for (int cue = 0; cue < n; cue++) {
+                offsets[cue] = sb.length();
+                // Each cue is kept as " word word " so a word start is always preceded by a space.
+                sb.append(' ');
+                normalizeInto(data.textAt(cue), sb);
+                if (sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
+                int wordStart = -1;
+                for (int i = offsets[cue]; i < sb.length(); i++) {
+                    char c = sb.charAt(i);
+                    if (c == ' ') {
+                        if (wordStart >= 0) {
+                            addPosting(words, sb.substring(wordStart, i), cue);
+                            wordStart = -1;
+                        }
+                        continue;
+                    }
+                    if (wordStart < 0) wordStart = i;
+                    if (i - wordStart >= 2) addPosting(grams, trigram(sb.charAt(i - 2), sb.charAt(i - 1), c), cue);
+                }
+            }
+            offsets[n] = sb.length();
+            char[] pool = new char[sb.length()];
+            sb.getChars(0, sb.length(), pool, 0);
+            java.util.HashMap<Long, int[]> trigramIndex = new java.util.HashMap<>(grams.size() * 2);
+            for (java.util.Map.Entry<Long, IntList> entry : grams.entrySet()) trigramIndex.put(entry.getKey(), entry.getValue().toArray());
+            String[] tokens = words.keySet().toArray(new String[0]);
+            int[][] tokenCues = new int[tokens.length][];
+            int t = 0;
+            for (IntList cues : words.values()) tokenCues[t++] = cues.toArray();
+            return new CueSearchIndex(data, pool, offsets, trigramIndex, tokens, tokenCues);
+        }
+
+        int size() { return size; }
+
+        // Cue indexes that match every word of the query, in cue order, at most limit of them.
+        int[] search(String query, int limit) {
+            StringBuilder normalized = new StringBuilder(query.length());
+            normalizeInto(query, normalized);
+            String[] words = normalized.toString().trim().split(" ");
+            if (words.length == 0 || words[0].isEmpty() || limit <= 0) return new int[0];
+            int[] candidates = null;
+            for (String word : words) {
+                int[] cues = word.length() >= 3 ? trigramCandidates(word) : prefixCandidates(word);
+                candidates = candidates == null ? cues : intersect(candidates, cues);
+                if (candidates.length == 0) return candidates;
+            }
+            int[] hits = new int[Math.min(limit, candidates.length)];
+            int found = 0;
+            for (int i = 0; i < candidates.length && found < hits.length; i++) {
+                int cue = candidates[i];
+                boolean all = true;
+                for (String word : words) {
+                    if (!contains(cue, word, word.length() < 3)) { all = false; break; }
+                }
+                if (all) hits[found++] = cue;
+            }
+            return found == hits.length ? hits : java.util.Arrays.copyOf(hits, found);
+        }
+
+        private int[] trigramCandidates(String word) {
+            int[] result = null;
+            for (int i = 2; i < word.length(); i++) {
+                int[] cues = trigrams.get(trigram(word.charAt(i - 2), word.charAt(i - 1), word.charAt(i)));
+                if (cues == null) return new int[0];
+                result = result == null ? cues : intersect(result, cues);
+                if (result.length == 0) break;
+            }
+            return result;
+        }
+
+        private int[] prefixCandidates(String prefix) {
+            int from = java.util.Arrays.binarySearch(tokens, prefix);
+            if (from < 0) from = -from - 1;
+            IntList cues = new IntList();
+            for (int i = from; i < tokens.length && tokens[i].startsWith(prefix); i++) {
+                for (int cue : tokenCues[i]) cues.add(cue);
+            }
+            int[] merged = cues.toArray();
+            java.util.Arrays.sort(merged);
+            int unique = 0;
+            for (int i = 0; i < merged.length; i++) {
+                if (i == 0 || merged[i] != merged[i - 1]) merged[unique++] = merged[i];
+            }
+            return java.util.Arrays.copyOf(merged, unique);
+        }
+
+        private boolean contains(int cue, String word, boolean atWordStart) {
+            int end = offsets[cue + 1] - word.length();
+            outer:
+            for (int i = offsets[cue] + 1; i <= end; i++) {
+                if (atWordStart && pool[i - 1] != ' ') continue;
+                for (int k = 0; k < word.length(); k++) {
+                    if (pool[i + k] != word.charAt(k)) continue outer;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] out = new int[Math.min(a.length, b.length)];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) i++;
+                else if (a[i] > b[j]) j++;
+                else { out[n++] = a[i]; i++; j++; }
+            }
+            return n == out.length ? out : java.util.Arrays.copyOf(out, n);
+        }
+
+        private static long trigram(char a, char b, char c) {
+            return (long) a << 32 | (long) b << 16 | c;
+        }
+
+        private static <K> void addPosting(java.util.Map<K, IntList> index, K key, int cue) {
+            IntList cues = index.get(key);
+            if (cues == null) index.put(key, cues = new IntList());
+            if (cues.size == 0 || cues.values[cues.size - 1] != cue) cues.add(cue);
+        }
+
+        static String normalize(CharSequence text) {
+            StringBuilder sb = new StringBuilder(text.length());
+            normalizeInto(text, sb);
+            return sb.toString().trim();
+        }
+
+        static void normalizeInto(CharSequence text, StringBuilder out) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                // Tashkeel, Quranic marks, tatweel and bidi/zero-width controls carry no meaning for search.
+                if ((c >= '\u064B' && c <= '\u065F') || c == '\u0670' || (c >= '\u0610' && c <= '\u061A')
+                        || (c >= '\u06D6' && c <= '\u06ED') || c == '\u0640'
+                        || (c >= '\u200B' && c <= '\u200F') || (c >= '\u202A' && c <= '\u202E') || (c >= '\u2066' && c <= '\u2069') || c == '\uFEFF') {
+                    continue;
+                }
+                switch (c) {
+                    case '\u0622': case '\u0623': case '\u0625': case '\u0671': c = '\u0627'; break; // alef forms
+                    case '\u0624': c = '\u0648'; break; // waw with hamza
+                    case '\u0626': case '\u0649': case '\u06CC': c = '\u064A'; break; // yeh with hamza, alef maqsura, farsi yeh
+                    case '\u0629': c = '\u0647'; break; // ta marbuta
+                    case '\u06A9': c = '\u0643'; break; // keheh
+                    default:
+                        String folded = c >= LATIN_FROM ? foldLatin(c) : null;
+                        if (folded != null) {
+                            out.append(folded);
+                            continue;
+                        }
+                        if (c >= '\u0660' && c <= '\u0669') c = (char) ('0' + (c - '\u0660'));
+                        else if (c >= '\u06F0' && c <= '\u06F9') c = (char) ('0' + (c - '\u06F0'));
+                        else if (Character.isLetterOrDigit(c)) c = Character.toLowerCase(c);
+                        else c = ' ';
+                }
+                if (c == ' ' && (out.length() == 0 || out.charAt(out.length() - 1) == ' ')) continue;
+                out.append(c);
+            }
+        }
+
+        // Latin letters with accents, and the ligatures and stroked letters that have no decomposition, as the plain
+        // lowercase letters people type: "André Strauß" is found as "andre strauss".
+        private static final char LATIN_FROM = '\u00C0', LATIN_TO = '\u024F', EXTENDED_FROM = '\u1E00', EXTENDED_TO = '\u1EFF';
+        private static final String[] LATIN_FOLDS = new String[LATIN_TO - LATIN_FROM + 1 + EXTENDED_TO - EXTENDED_FROM + 1];
+        static {
+            for (char c = LATIN_FROM; c <= EXTENDED_TO; c++) {
+                if (c > LATIN_TO && c < EXTENDED_FROM) c = EXTENDED_FROM;
+                char base = java.text.Normalizer.normalize(String.valueOf(c), java.text.Normalizer.Form.NFD).charAt(0);
+                if (base < 0x80 && Character.isLetter(base)) LATIN_FOLDS[foldSlot(c)] = String.valueOf(Character.toLowerCase(base));
+            }
+            String[] special = {"\u00DF", "ss", "\u00C6", "ae", "\u00E6", "ae", "\u0152", "oe", "\u0153", "oe", "\u00D8", "o", "\u00F8", "o",
+                    "\u00D0", "d", "\u00F0", "d", "\u0110", "d", "\u0111", "d", "\u00DE", "th", "\u00FE", "th", "\u0141", "l", "\u0142", "l",
+                    "\u0126", "h", "\u0127", "h", "\u0131", "i", "\u014A", "n", "\u014B", "n", "\u0166", "t", "\u0167", "t"};
+            for (int i = 0; i < special.length; i += 2) LATIN_FOLDS[foldSlot(special[i].charAt(0))] = special[i + 1];
+        }
+
+        private static int foldSlot(char c) {
+            return c <= LATIN_TO ? c - LATIN_FROM : LATIN_TO - LATIN_FROM + 1 + c - EXTENDED_FROM;
+        }
+
+        private static String foldLatin(char c) {
+            if (c <= LATIN_TO || (c >= EXTENDED_FROM && c <= EXTENDED_TO)) return LATIN_FOLDS[foldSlot(c)];
+            return null;
+        }
+
+        private static final class IntList {
+            int[] values = new int[4];
+            int size;
+            void add(int value) {
+                if (size == values.length) values = java.util.Arrays.copyOf(values, size * 2);
+                values[size++] = value;
+            }
+            int[] toArray() { return java.util.Arrays.copyOf(values, size); }
+        }
+    }
+    //endregion
+
+    //region Font Registry (Internal)
+    // One per process. The font index is built once; Typefaces are loaded from plain files with Typeface.Builder,
+    // which maps the file instead of copying it onto the heap, and kept in an LRU sized by font file bytes so
+    // going back to a recently used font is a cache hit. Bundled fonts are extracted from the APK once per app
+    // update so they can be mapped too; fonts downloaded into filesDir/fonts are picked up next to them. Extraction
+    // and loading only happen on the loader thread, so the UI thread never waits on a file or on a prefetch.
+    static final class FontRegistry {
+        static final String DEFAULT_FONT = "Default";
+        static final String FONT_DIR = "fonts";
+        static final int BYTE_BUDGET_KB = 3 * 1024;
+
+        private static FontRegistry instance;
+
+        private final Context context;
+        private final File downloadDir;
+        private final Object indexLock = new Object();
+        private final Handler loader;
+        private volatile List<String> names;
+        private final LruCache<String, Loaded> cache = new LruCache<String, Loaded>(BYTE_BUDGET_KB) {
+            @Override protected int sizeOf(String name, Loaded loaded) { return loaded.kilobytes; }
+        };
+
+        interface Callback {
+            // Called on the handler passed to load; typeface is null when the font could not be read.
+            void onLoaded(String name, Typeface typeface);
+        }
+
+        private static final class Loaded {
+            final Typeface typeface;
+            final int kilobytes;
+            Loaded(Typeface typeface, long bytes) {
+                this.typeface = typeface;
+                this.kilobytes = (int) Math.max(1, bytes / 1024);
+            }
+        }
+
+        static synchronized FontRegistry get(Context context) {
+            if (instance == null) instance = new FontRegistry(context.getApplicationContext());
+            return instance;
+        }
+
+        private FontRegistry(Context context) {
+            this.context = context;
+            this.downloadDir = new File(context.getFilesDir(), FONT_DIR);
+            HandlerThread thread = new HandlerThread("FontRegistry");
+            thread.start();
+            this.loader = new Handler(thread.getLooper());
+        }
+
+        void buildIndexAsync() {
+            if (names != null) return;
+            loader.post(new Runnable() { @Override public void run() { names(); } });
+        }
+
+        // The last finished index, or null while the first scan is still running. Never blocks.
+        List<String> indexed() {
+            return names;
+        }
+
+        // Posts callback to replyTo once the index is built.
+        void whenIndexed(final Handler replyTo, final Runnable callback) {
+            loader.post(new Runnable() {
+                @Override public void run() {
+                    names();
+                    replyTo.post(callback);
+                }
+            });
+        }
+
+        // "Default" first, then bundled and downloaded fonts by name. Blocks during the first scan.
+        List<String> names() {
+            List<String> current = names;
+            if (current != null) return current;
+            synchronized (indexLock) {
+                if (names == null) names = scan();
+                return names;
+            }
+        }
+
+        File downloadDir() {
+            return downloadDir;
+        }
+
+        // Call after fonts were added to or removed from the download dir.
+        void refresh() {
+            synchronized (indexLock) {
+                names = scan();
+            }
+        }
+
+        private List<String> scan() {
+            java.util.TreeSet<String> found = new java.util.TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            try {
+                String[] assetFiles = context.getAssets().list(FONT_DIR);
+                if (assetFiles != null) {
+                    for (String filename : assetFiles) if (isFontFile(filename)) found.add(filename);
+                }
+            } catch (IOException e) { Log.e(TAG, "Error listing asset fonts", e); }
+            String[] downloaded = downloadDir.list();
+            if (downloaded != null) {
+                for (String filename : downloaded) if (isFontFile(filename)) found.add(filename);
+            }
+            List<String> list = new ArrayList<>(found.size() + 1);
+            list.add(DEFAULT_FONT);
+            list.addAll(found);
+            return Collections.unmodifiableList(list);
+        }
+
+        static boolean isFontFile(String filename) {
+            String lower = filename.toLowerCase(java.util.Locale.ROOT);
+            return lower.endsWith(".ttf") || lower.endsWith(".otf");
+        }
+
+        // The typeface if it is ready, else null. Never blocks.
+        Typeface cached(String name) {
+            if (DEFAULT_FONT.equalsIgnoreCase(name)) return Typeface.DEFAULT;
+            Loaded loaded = cache.get(name);
+            return loaded != null ? loaded.typeface : null;
+        }
+
+        // Loads name on the loader thread, ahead of any queued prefetch, and hands it to callback on replyTo.
+        void load(final String name, final Handler replyTo, final Callback callback) {
+            loader.postAtFrontOfQueue(new Runnable() {
+                @Override public void run() {
+                    Typeface loaded = null;
+                    try {
+                        loaded = typeface(name);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to load font " + name + ": " + e.getMessage());
+                    }
+                    final Typeface typeface = loaded;
+                    replyTo.post(new Runnable() {
+                        @Override public void run() { callback.onLoaded(name, typeface); }
+                    });
+                }
+            });
+        }
+
+        // Loader thread only.
+        private Typeface typeface(String name) throws IOException {
+            Typeface ready = cached(name);
+            if (ready != null) return ready;
+            File file = fontFile(name);
+            Typeface typeface = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                    ? new Typeface.Builder(file).build() : Typeface.createFromFile(file);
+            if (typeface == null) throw new IOException("Unreadable font: " + name);
+            cache.put(name, new Loaded(typeface, file.length()));
+            return typeface;
+        }
+
+        // Loads the fonts either side of name in the picker order, so stepping through fonts finds them ready.
+        void prefetchNeighbours(final String name) {
+            loader.post(new Runnable() {
+                @Override public void run() {
+                    List<String> list = names();
+                    int index = list.indexOf(name);
+                    if (index < 0 || list.size() < 3) return;
+                    for (String neighbour : new String[] { list.get((index + 1) % list.size()), list.get((index + list.size() - 1) % list.size()) }) {
+                        try {
+                            typeface(neighbour);
+                        } catch (IOException e) {
+                            Log.w(TAG, "Could not prefetch font " + neighbour + ": " + e.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+
+        private File fontFile(String name) throws IOException {
+            if (name.indexOf('/') >= 0 || name.startsWith(".")) throw new IOException("Bad font name: " + name);
+            File downloaded = new File(downloadDir, name);
+            if (downloaded.isFile()) return downloaded;
+            return extractAsset(name);
+        }
+
+        // Bundled fonts live compressed or not inside the APK; a copy in the app's files is what we can map.
+        private File extractAsset(String name) throws IOException {
+            File dir = new File(downloadDir, ".assets-" + assetStamp());
+            File target = new File(dir, name);
+            if (target.isFile()) return target;
+            if (!dir.isDirectory()) {
+                if (!dir.mkdirs()) throw new IOException("Cannot create " + dir);
+                // Copies from an older install are stale now.
+                File[] old = downloadDir.listFiles();
+                if (old != null) {
+                    for (File stale : old) {
+                        if (stale.getName().startsWith(".assets-") && !stale.equals(dir)) deleteTree(stale);
+                    }
+                }
+            }
+            File temp = new File(dir, name + ".tmp");
+            try (InputStream in = context.getAssets().open(FONT_DIR + "/" + name);
+                 java.io.FileOutputStream out = new java.io.FileOutputStream(temp)) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > -1) out.write(buffer, 0, read);
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Cannot extract font " + name);
+            }
+            return target;
+        }
+
+        private long assetStamp() {
+            try {
+                return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                return 0;
+            }
+        }
+
+        private static void deleteTree(File file) {
+            File[] children = file.listFiles();
+            if (children != null) for (File child : children) deleteTree(child);
+            file.delete();
+        }
+    }
+    //endregion
+
+    //region Font Downloads (Internal)
+    // Fetches the fonts listed in a fontlist.xml into the registry's download dir with a small worker pool.
+    // Each font is written to <name>.part and only renamed into place once its size checks out, so the registry
+    // never sees half a font; an interrupted download picks up from the .part length with an HTTP Range request.
+    static final class FontDownloader {
+        static final int DEFAULT_PARALLELISM = 4;
+        private static final long PROGRESS_INTERVAL_MS = 250;
+
+        interface Listener {
+            // Called from worker threads, at most every PROGRESS_INTERVAL_MS and whenever a font finishes.
+            void onProgress(int finishedFonts, int totalFonts, long bytesDone, long bytesPerSecond);
+        }
+
+        static final class FontSource {
+            final String name;
+            final URL url;
+            FontSource(String name, URL url) { this.name = name; this.url = url; }
+        }
+
+        static final class Result {
+            final int downloaded, skipped, failed;
+            final long bytes, elapsedMillis;
+            Result(int downloaded, int skipped, int failed, long bytes, long elapsedMillis) {
+                this.downloaded = downloaded;
+                this.skipped = skipped;
+                this.failed = failed;
+                this.bytes = bytes;
+                this.elapsedMillis = elapsedMillis;
+            }
+        }
+
+        private final File dir;
+        private final int parallelism;
+        private final Listener listener;
+        private final java.util.concurrent.atomic.AtomicLong bytesDone = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicInteger finished = new java.util.concurrent.atomic.AtomicInteger();
+        private final java.util.concurrent.atomic.AtomicLong lastReport = new java.util.concurrent.atomic.AtomicLong();
+        private long startedAt;
+        private int total;
+
+        FontDownloader(File dir, int parallelism, Listener listener) {
+            this.dir = dir;
+            this.parallelism = parallelism <= 0 ? DEFAULT_PARALLELISM : Math.min(8, parallelism);
+            this.listener = listener;
+        }
+
+        // <fontlist fontname="..." fonturl="..."/> entries; names that could leave the font dir are dropped.
+        static List<FontSource> parseFontList(InputStream in) throws IOException {
+            List<FontSource> sources = new ArrayList<>();
+            try {
+                XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+                parser.setInput(in, null);
+                for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                    if (event != XmlPullParser.START_TAG || !"fontlist".equals(parser.getName())) continue;
+                    String name = parser.getAttributeValue(null, "fontname");
+                    String url = parser.getAttributeValue(null, "fonturl");
+                    if (name == null || url == null || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0
+                            || name.startsWith(".") || !FontRegistry.isFontFile(name)) {
+                        continue;
+                    }
+                    sources.add(new FontSource(name, new URL(url)));
+                }
+            } catch (XmlPullParserException e) {
+                throw new IOException("Bad font list: " + e.getMessage());
+            } finally {
+                in.close();
+            }
+            return sources;
+        }
+
+        // Blocks until every font is either present or has failed. Fonts already in the dir are not fetched again.
+        Result downloadAll(List<FontSource> sources) throws InterruptedException {
+            if (!dir.isDirectory()) dir.mkdirs();
+            total = sources.size();
+            startedAt = System.nanoTime();
+            final java.util.concurrent.atomic.AtomicInteger downloaded = new java.util.concurrent.atomic.AtomicInteger();
+            final java.util.concurrent.atomic.AtomicInteger skipped = new java.util.concurrent.atomic.AtomicInteger();
+            final java.util.concurrent.atomic.AtomicInteger failed = new java.util.concurrent.atomic.AtomicInteger();
+            java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(parallelism);
+            try {
+                for (final FontSource source : sources) {
+                    pool.execute(new Runnable() {
+                        @Override public void run() {
+                            try {
+                                if (new File(dir, source.name).isFile()) skipped.incrementAndGet();
+                                else {
+                                    download(source);
+                                    downloaded.incrementAndGet();
+                                }
+                            } catch (IOException e) {
+                                failed.incrementAndGet();
+                                Log.w(TAG, "Font download failed for " + source.name + ": " + e.getMessage());
+                            }
+                            finished.incrementAndGet();
+                            report(true);
+                        }
+                    });
+                }
+            } finally {
+                pool.shutdown();
+            }
+            pool.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.MILLISECONDS);
+            return new Result(downloaded.get(), skipped.get(), failed.get(), bytesDone.get(), (System.nanoTime() - startedAt) / 1000000);
+        }
+
+        void download(FontSource source) throws IOException {
+            File part = new File(dir, source.name + ".part");
+            File target = new File(dir, source.name);
+            long offset = part.isFile() ? part.length() : 0;
+            java.net.HttpURLConnection connection = (java.net.HttpURLConnection) source.url.openConnection();
+            connection.setConnectTimeout(15000);
+            connection.setReadTimeout(15000);
+            if (offset > 0) connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            try {
+                int status = connection.getResponseCode();
+                long expected;
+                if (status == 416 && offset > 0) {
+                    // The part file is no prefix of what the server has; start over.
+                    part.delete();
+                    connection.disconnect();
+                    download(source);
+                    return;
+                } else if (status == 206 && offset > 0) {
+                    expected = totalFromContentRange(connection.getHeaderField("Content-Range"), offset + connection.getContentLength());
+                } else if (status == 200) {
+                    offset = 0;
+                    expected = connection.getContentLength();
+                } else {
+                    throw new IOException("HTTP " + status);
+                }
+                try (InputStream in = connection.getInputStream();
+                     java.io.FileOutputStream out = new java.io.FileOutputStream(part, offset > 0)) {
+                    byte[] buffer = new byte[32 * 1024];
+                    int read;
+                    while ((read = in.read(buffer)) > -1) {
+                        out.write(buffer, 0, read);
+                        bytesDone.addAndGet(read);
+                        report(false);
+                    }
+                }
+                long length = part.length();
+                if (expected >= 0 && length != expected) {
+                    throw new IOException("Got " + length + " of " + expected + " bytes, will resume");
+                }
+                if (!looksLikeFont(part)) {
+                    part.delete();
+                    throw new IOException("Not a font file");
+                }
+                if (!part.renameTo(target)) throw new IOException("Cannot move " + part + " into place");
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        // "bytes 100-199/2000" -> 2000; fallback when the total is missing or "*".
+        static long totalFromContentRange(String header, long fallback) {
+            if (header == null) return fallback;
+            int slash = header.lastIndexOf('/');
+            if (slash < 0) return fallback;
+            try {
+                return Long.parseLong(header.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+
+        // TrueType, OpenType/CFF and collections; catches an HTML error page saved under a font name.
+        static boolean looksLikeFont(File file) throws IOException {
+            byte[] head = new byte[4];
+            try (FileInputStream in = new FileInputStream(file)) {
+                if (in.read(head) != 4) return false;
+            }
+            int tag = (head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16 | (head[2] & 0xFF) << 8 | (head[3] & 0xFF);
+            return tag == 0x00010000 || tag == 0x4F54544F /* OTTO */ || tag == 0x74727565 /* true */ || tag == 0x74746366 /* ttcf */;
+        }
+
+        private void report(boolean force) {
+            if (listener == null) return;
+            long now = System.nanoTime() / 1000000, last = lastReport.get();
+            if (!force && now - last < PROGRESS_INTERVAL_MS) return;
+            if (!force && !lastReport.compareAndSet(last, now)) return;
+            if (force) lastReport.set(now);
+            long bytes = bytesDone.get(), elapsed = Math.max(1, now - startedAt / 1000000);
+            listener.onProgress(finished.get(), total, bytes, bytes * 1000 / elapsed);
+        }
+    }
+    //endregion
+
+    //region XMLTV Guide (Internal)
+    // "20220526004000 +0200" to epoch millis without allocating: digits are read in place and the civil date is
+    // converted arithmetically. Guides list programmes day by day in one zone, so the last date and zone seen are
+    // memoized and most stamps cost a handful of char compares. One instance per reader thread.
+    static final class XmltvTime {
+        static final long INVALID = Long.MIN_VALUE;
+        private int lastDate = -1, lastZone = Integer.MIN_VALUE;
+        private long lastEpochDay, lastZoneMillis;
+
+        long parse(String stamp) {
+            if (stamp == null) return INVALID;
+            int length = stamp.length();
+            if (length < 12) return INVALID;
+            int date = digits(stamp, 0, 8);
+            int hour = digits(stamp, 8, 2), minute = digits(stamp, 10, 2);
+            int second = length >= 14 && isDigit(stamp.charAt(12)) ? digits(stamp, 12, 2) : 0;
+            if (date < 0 || hour < 0 || minute < 0 || second < 0) return INVALID;
+            if (date != lastDate) {
+                int year = date / 10000, month = date / 100 % 100, day = date % 100;
+                if (month < 1 || month > 12 || day < 1 || day > 31) return INVALID;
+                lastEpochDay = epochDay(year, month, day);
+                lastDate = date;
+            }
+            long millis = ((lastEpochDay * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+            int sign = stamp.indexOf('+', 12);
+            if (sign < 0) sign = stamp.indexOf('-', 12);
+            if (sign < 0 || sign + 5 > length) return millis;
+            int zone = digits(stamp, sign + 1, 4);
+            if (zone < 0) return millis;
+            if (stamp.charAt(sign) == '-') zone = -zone;
+            if (zone != lastZone) {
+                int magnitude = Math.abs(zone);
+                lastZoneMillis = Long.signum(zone) * ((magnitude / 100) * 3_600_000L + (magnitude % 100) * 60_000L);
+                lastZone = zone;
+            }
+            return millis - lastZoneMillis;
+        }
+
+        // Epoch millis back to a stamp, in UTC: "20220525224000 +0000".
+        static String format(long millis) {
+            long epochDay = millis >= 0 ? millis / 86_400_000L : (millis + 1) / 86_400_000L - 1;
+            int secondOfDay = (int) ((millis - epochDay * 86_400_000L) / 1000);
+            // H. Hinnant's civil_from_days.
+            long z = epochDay + 719468;
+            long era = (z >= 0 ? z : z - 146096) / 146097;
+            int dayOfEra = (int) (z - era * 146097);
+            int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            int shiftedMonth = (5 * dayOfYear + 2) / 153;
+            int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+            int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+            long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+            char[] out = "00000000000000 +0000".toCharArray();
+            put(out, 0, year, 4);
+            put(out, 4, month, 2);
+            put(out, 6, day, 2);
+            put(out, 8, secondOfDay / 3600, 2);
+            put(out, 10, secondOfDay / 60 % 60, 2);
+            put(out, 12, secondOfDay % 60, 2);
+            return new String(out);
+        }
+
+        private static void put(char[] out, int from, long value, int count) {
+            for (int i = from + count - 1; i >= from; i--, value /= 10) out[i] = (char) ('0' + value % 10);
+        }
+
+        // Days since 1970-01-01 for a proleptic Gregorian date (H. Hinnant's days_from_civil).
+        static long epochDay(int year, int month, int day) {
+            year -= month <= 2 ? 1 : 0;
+            int era = (year >= 0 ? year : year - 399) / 400;
+            int yearOfEra = year - era * 400;
+            int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097L + dayOfEra - 719468;
+        }
+
+        private static int digits(String s, int from, int count) {
+            int value = 0;
+            for (int i = from; i < from + count; i++) {
+                char c = s.charAt(i);
+                if (!isDigit(c)) return -1;
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+    }
+
+    // One <programme>. Titles keep every language in document order; credits keep the element text as is.
+    static final class EpgProgramme {
+        final String channel;
+        final long start, stop;
+        String[] titles, titleLangs;
+        String subTitle, desc, descLang, episode, date, category, country;
+        String directors, writers, actors;
+
+        EpgProgramme(String channel, long start, long stop) {
+            this.channel = channel;
+            this.start = start;
+            this.stop = stop;
+        }
+
+        // The first title not marked "xx" (the grabber's language-less copy), else the first one.
+        String title() {
+            if (titles == null || titles.length == 0) return "";
+            for (int i = 0; i < titles.length; i++) {
+                if (!"xx".equals(titleLangs[i])) return titles[i];
+            }
+            return titles[0];
+        }
+    }
+
+    // Streams an XMLTV document through XmlPullParser and hands each <channel> and <programme> to a Handler as it
+    // closes, so only one programme is ever held and memory stays flat however large the guide is. Elements the
+    // guide screens don't use (reviews, icons, ratings) are skipped without reading their text.
+    static final class XmltvReader {
+        interface Handler {
+            void channel(String id, String displayName);
+            void programme(EpgProgramme programme);
+        }
+
+        private final XmltvTime time = new XmltvTime();
+        private final List<String> titles = new ArrayList<>(), titleLangs = new ArrayList<>();
+        private int skipped;
+
+        // Programmes dropped by the last read for a missing channel or an unreadable start/stop.
+        int skipped() { return skipped; }
+
+        void read(InputStream in, Handler handler) throws IOException {
+            skipped = 0;
+            try {
+                XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+                parser.setInput(in, null);
+                for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                    if (event != XmlPullParser.START_TAG) continue;
+                    String name = parser.getName();
+                    if ("programme".equals(name)) readProgramme(parser, handler);
+                    else if ("channel".equals(name)) readChannel(parser, handler);
+                }
+            } catch (XmlPullParserException e) {
+                throw new IOException("Bad XMLTV: " + e.getMessage());
+            } finally {
+                in.close();
+            }
+        }
+
+        private void readChannel(XmlPullParser parser, Handler handler) throws IOException, XmlPullParserException {
+            String id = parser.getAttributeValue(null, "id");
+            String displayName = null;
+            int depth = parser.getDepth();
+            for (int event = parser.next(); !(event == XmlPullParser.END_TAG && parser.getDepth() == depth); event = parser.next()) {
+                if (event != XmlPullParser.START_TAG) continue;
+                if (displayName == null && "display-name".equals(parser.getName())) displayName = parser.nextText().trim();
+                else skip(parser);
+            }
+            if (id != null) handler.channel(id, displayName != null ? displayName : id);
+        }
+
+        private void readProgramme(XmlPullParser parser, Handler handler) throws IOException, XmlPullParserException {
+            String channel = parser.getAttributeValue(null, "channel");
+            long start = time.parse(parser.getAttributeValue(null, "start"));
+            long stop = time.parse(parser.getAttributeValue(null, "stop"));
+            EpgProgramme programme = new EpgProgramme(channel, start, stop == XmltvTime.INVALID ? start : stop);
+            titles.clear();
+            titleLangs.clear();
+            int depth = parser.getDepth();
+            for (int event = parser.next(); !(event == XmlPullParser.END_TAG && parser.getDepth() == depth); event = parser.next()) {
+                if (event != XmlPullParser.START_TAG) continue;
+                String name = parser.getName();
+                if ("title".equals(name)) {
+                    titleLangs.add(parser.getAttributeValue(null, "lang"));
+                    titles.add(parser.nextText());
+                } else if ("desc".equals(name) && programme.desc == null) {
+                    programme.descLang = parser.getAttributeValue(null, "lang");
+                    programme.desc = parser.nextText();
+                } else if ("sub-title".equals(name) && programme.subTitle == null) {
+                    programme.subTitle = parser.nextText();
+                } else if ("episode-num".equals(name) && programme.episode == null) {
+                    programme.episode = parser.nextText();
+                } else if ("date".equals(name)) {
+                    programme.date = parser.nextText();
+                } else if ("category".equals(name) && programme.category == null) {
+                    programme.category = parser.nextText();
+                } else if ("country".equals(name) && programme.country == null) {
+                    programme.country = parser.nextText();
+                } else if ("credits".equals(name)) {
+                    readCredits(parser, programme);
+                } else {
+                    skip(parser);
+                }
+            }
+            if (channel == null || start == XmltvTime.INVALID) {
+                skipped++;
+                return;
+            }
+            programme.titles = titles.toArray(new String[0]);
+            programme.titleLangs = titleLangs.toArray(new String[0]);
+            handler.programme(programme);
+        }
+
+        private static void readCredits(XmlPullParser parser, EpgProgramme programme) throws IOException, XmlPullParserException {
+            int depth = parser.getDepth();
+            for (int event = parser.next(); !(event == XmlPullParser.END_TAG && parser.getDepth() == depth); event = parser.next()) {
+                if (event != XmlPullParser.START_TAG) continue;
+                String name = parser.getName();
+                if ("director".equals(name)) programme.directors = join(programme.directors, parser.nextText());
+                else if ("writer".equals(name)) programme.writers = join(programme.writers, parser.nextText());
+                else if ("actor".equals(name)) programme.actors = join(programme.actors, parser.nextText());
+                else skip(parser);
+            }
+        }
+
+        private static String join(String list, String name) {
+            name = name.trim();
+            return list == null || list.isEmpty() ? name : name.isEmpty() ? list : list + ", " + name;
+        }
+
+        private static void skip(XmlPullParser parser) throws IOException, XmlPullParserException {
+            int depth = 1;
+            while (depth > 0) {
+                int event = parser.next();
+                if (event == XmlPullParser.START_TAG) depth++;
+                else if (event == XmlPullParser.END_TAG) depth--;
+                else if (event == XmlPullParser.END_DOCUMENT) return;
+            }
+        }
+    }
+
+    // A Handler stage between XmltvReader and whatever indexes or writes the guide, cleaning each programme as it
+    // streams past, so memory stays flat like the reader's. What it fixes, all seen in the satellite grabs:
+    //   text ending in scraper leftovers such as '" data-id="main"/><metacontent="', cut off;
+    //   markup the grabber copied as text (categories arrive as <ul><li>Drama</li></ul>), removed, while a '<' that
+    //   does not open a tag ("Rated <18") stays;
+    //   runs of spaces, tabs, newlines and no-break spaces, collapsed to one space and trimmed;
+    //   a title repeating an earlier one's language or text (the "xx" copy, or the same element twice), dropped;
+    //   a name listed twice in the same credit role, dropped.
+    // Counts add up across reads; add() folds one file's counts into a batch total.
+    static final class XmltvSanitizer implements XmltvReader.Handler {
+        private final XmltvReader.Handler next;
+        private final List<String> names = new ArrayList<>();
+        private final StringBuilder scratch = new StringBuilder();
+        private int[] spans = new int[32];
+        int programmes, junkCut, markupRemoved, whitespaceFixed, titlesDropped, creditsCollapsed;
+
+        XmltvSanitizer(XmltvReader.Handler next) {
+            this.next = next;
+        }
+
+        @Override public void channel(String id, String displayName) {
+            next.channel(id, clean(displayName));
+        }
+
+        @Override public void programme(EpgProgramme programme) {
+            programmes++;
+            dedupeTitles(programme);
+            programme.subTitle = clean(programme.subTitle);
+            programme.desc = clean(programme.desc);
+            programme.episode = clean(programme.episode);
+            programme.date = clean(programme.date);
+            programme.category = clean(programme.category);
+            programme.country = clean(programme.country);
+            programme.directors = collapseCredits(clean(programme.directors));
+            programme.writers = collapseCredits(clean(programme.writers));
+            programme.actors = collapseCredits(clean(programme.actors));
+            next.programme(programme);
+        }
+
+        void add(XmltvSanitizer other) {
+            programmes += other.programmes;
+            junkCut += other.junkCut;
+            markupRemoved += other.markupRemoved;
+            whitespaceFixed += other.whitespaceFixed;
+            titlesDropped += other.titlesDropped;
+            creditsCollapsed += other.creditsCollapsed;
+        }
+
+        int fixes() {
+            return junkCut + markupRemoved + whitespaceFixed + titlesDropped + creditsCollapsed;
+        }
+
+        String report() {
+            return programmes + " programmes: " + junkCut + " scraper tails cut, " + markupRemoved + " markup removed, " + whitespaceFixed
+                    + " whitespace fixed, " + titlesDropped + " duplicate titles dropped, " + creditsCollapsed + " duplicate credits dropped";
+        }
+
+        private void dedupeTitles(EpgProgramme programme) {
+            if (programme.titles == null) return;
+            int kept = 0;
+            for (int i = 0; i < programme.titles.length; i++) {
+                String title = clean(programme.titles[i]), lang = programme.titleLangs[i];
+                boolean duplicate = title == null || title.isEmpty();
+                for (int j = 0; j < kept && !duplicate; j++) {
+                    duplicate = title.equals(programme.titles[j]) || (lang != null && lang.equals(programme.titleLangs[j]));
+                }
+                if (duplicate) {
+                    titlesDropped++;
+                    continue;
+                }
+                programme.titles[kept] = title;
+                programme.titleLangs[kept] = lang;
+                kept++;
+            }
+            if (kept < programme.titles.length) {
+                programme.titles = java.util.Arrays.copyOf(programme.titles, kept);
+                programme.titleLangs = java.util.Arrays.copyOf(programme.titleLangs, kept);
+            }
+        }
+
+        // Returns text itself when there was nothing to fix, which is most of the time. Otherwise the cut, the
+        // markup and the spacing are all fixed in one pass, so a dirty field costs one new string, not three.
+        String clean(String text) {
+            if (text == null) return null;
+            int end = text.indexOf("\" data-");
+            if (end < 0) end = text.indexOf("<meta");
+            boolean cut = end >= 0;
+            if (!cut) end = text.length();
+            boolean markup = false;
+            for (int at = text.indexOf('<'); at >= 0 && at < end && !markup; at = text.indexOf('<', at + 1)) markup = tagEnd(text, at, end) >= 0;
+            if (!cut && !markup && !needsWhitespaceFix(text)) return text;
+            scratch.setLength(0);
+            boolean pendingSpace = false, respaced = false;
+            for (int i = 0; i < end; ) {
+                char c = text.charAt(i);
+                int tag = c == '<' ? tagEnd(text, i, end) : -1;
+                if (tag >= 0) {
+                    i = tag;
+                } else if (isSpace(c)) {
+                    if (c != ' ' || pendingSpace || scratch.length() == 0) respaced = true;
+                    pendingSpace = scratch.length() > 0;
+                    i++;
+                } else {
+                    int run = i + 1;
+                    while (run < end && (c = text.charAt(run)) != '<' && !isSpace(c)) run++;
+                    if (pendingSpace) scratch.append(' ');
+                    pendingSpace = false;
+                    scratch.append(text, i, run);
+                    i = run;
+                }
+            }
+            if (pendingSpace) respaced = true;
+            if (cut) junkCut++;
+            if (markup) markupRemoved++;
+            if (respaced) whitespaceFixed++;
+            return scratch.toString();
+        }
+
+        // Just past the '>' of the tag opening at at, or -1 when the '<' there is text: a tag starts with a letter,
+        // '/' or '!' and closes before end.
+        private static int tagEnd(String text, int at, int end) {
+            if (at + 1 >= end) return -1;
+            char next = text.charAt(at + 1);
+            if (next != '/' && next != '!' && !Character.isLetter(next)) return -1;
+            int close = text.indexOf('>', at + 2);
+            return close < 0 || close >= end ? -1 : close + 1;
+        }
+
+        private static boolean needsWhitespaceFix(String text) {
+            int length = text.length();
+            if (length == 0) return false;
+            if (text.charAt(0) == ' ' || text.charAt(length - 1) == ' ') return true;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c == ' ') {
+                    if (text.charAt(i - 1) == ' ') return true;
+                } else if (isSpace(c)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Character.isWhitespace or isSpaceChar, without calling either for the ASCII and Arabic letters that make up
+        // nearly all of a guide: below U+1680 only the control characters, NEL and the no-break space qualify.
+        private static boolean isSpace(char c) {
+            if (c > ' ' && c < 0x1680 && c != 0x85 && c != 0xA0) return false;
+            return Character.isWhitespace(c) || Character.isSpaceChar(c);
+        }
+
+        // "A, B, A" -> "A, B", comparing names without regard to case.
+        private String collapseCredits(String list) {
+            if (list == null || list.indexOf(',') < 0 || !repeatsName(list)) return list;
+            names.clear();
+            boolean dropped = false;
+            for (String name : list.split(",")) {
+                name = name.trim();
+                boolean seen = name.isEmpty();
+                for (int i = 0; i < names.size() && !seen; i++) seen = names.get(i).equalsIgnoreCase(name);
+                if (seen) {
+                    if (!name.isEmpty()) creditsCollapsed++;
+                    dropped = true;
+                } else {
+                    names.add(name);
+                }
+            }
+            if (!dropped) return list;
+            scratch.setLength(0);
+            for (String name : names) {
+                if (scratch.length() > 0) scratch.append(", ");
+                scratch.append(name);
+            }
+            return scratch.toString();
+        }
+
+        // Whether collapseCredits has anything to drop, an empty or repeated name, checked in place: most lists
+        // have neither, and splitting every one of them cost more than the rest of the sanitizer.
+        private boolean repeatsName(String list) {
+            int count = 0;
+            for (int from = 0; from <= list.length(); ) {
+                int comma = list.indexOf(',', from);
+                if (comma < 0) comma = list.length();
+                int start = from, end = comma;
+                while (start < end && list.charAt(start) <= ' ') start++;
+                while (end > start && list.charAt(end - 1) <= ' ') end--;
+                if (start == end) return true;
+                for (int i = 0; i < count; i++) {
+                    int length = spans[2 * i + 1] - spans[2 * i];
+                    if (length == end - start && list.regionMatches(true, spans[2 * i], list, start, length)) return true;
+                }
+                if (2 * count + 2 > spans.length) spans = java.util.Arrays.copyOf(spans, spans.length * 2);
+                spans[2 * count] = start;
+                spans[2 * count + 1] = end;
+                count++;
+                from = comma + 1;
+            }
+            return false;
+        }
+    }
+
+    // Writes channels and programmes back out as XMLTV while they stream past, usually behind an XmltvSanitizer.
+    // It writes what EpgProgramme keeps, in UTC; the elements the reader skips (icons, ratings, reviews) are not
+    // carried over. Channels must come before programmes, as they do in every guide.
+    static final class XmltvWriter implements XmltvReader.Handler, java.io.Closeable {
+        private final XmlSerializer out;
+        private final java.io.Writer writer;
+
+        XmltvWriter(java.io.OutputStream stream) throws IOException {
+            writer = new java.io.BufferedWriter(new java.io.OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+            try {
+                out = XmlPullParserFactory.newInstance().newSerializer();
+            } catch (XmlPullParserException e) {
+                throw new IOException("No XML serializer: " + e.getMessage());
+            }
+            out.setOutput(writer);
+            out.startDocument("UTF-8", null);
+            out.text("\n");
+            out.startTag(null, "tv");
+            out.attribute(null, "generator-info-name", "PersistentSubtitle XMLTV sanitizer");
+        }
+
+        @Override public void channel(String id, String displayName) {
+            try {
+                out.text("\n  ").startTag(null, "channel").attribute(null, "id", id);
+                out.text("\n    ").startTag(null, "display-name").text(displayName).endTag(null, "display-name");
+                out.text("\n  ").endTag(null, "channel");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override public void programme(EpgProgramme programme) {
+            try {
+                out.text("\n  ").startTag(null, "programme").attribute(null, "start", XmltvTime.format(programme.start))
+                        .attribute(null, "stop", XmltvTime.format(programme.stop)).attribute(null, "channel", programme.channel);
+                if (programme.titles != null) {
+                    for (int i = 0; i < programme.titles.length; i++) element("title", programme.titleLangs[i], programme.titles[i]);
+                }
+                element("sub-title", null, programme.subTitle);
+                element("desc", programme.descLang, programme.desc);
+                if (programme.directors != null || programme.writers != null || programme.actors != null) {
+                    out.text("\n    ").startTag(null, "credits");
+                    credit("director", programme.directors);
+                    credit("writer", programme.writers);
+                    credit("actor", programme.actors);
+                    out.text("\n    ").endTag(null, "credits");
+                }
+                element("date", null, programme.date);
+                element("category", null, programme.category);
+                element("country", null, programme.country);
+                element("episode-num", null, programme.episode);
+                out.text("\n  ").endTag(null, "programme");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void element(String name, String lang, String text) throws IOException {
+            if (text == null) return;
+            out.text("\n    ").startTag(null, name);
+            if (lang != null) out.attribute(null, "lang", lang);
+            out.text(text).endTag(null, name);
+        }
+
+        private void credit(String role, String names) throws IOException {
+            if (names == null || names.isEmpty()) return;
+            out.text("\n      ").startTag(null, role).text(names).endTag(null, role);
+        }
+
+        // Closes the document and the stream.
+        @Override public void close() throws IOException {
+            out.text("\n").endTag(null, "tv");
+            out.endDocument();
+            writer.close();
+        }
+    }
+
+    // Programmes grouped by channel and sorted by start. maxStops[i] is the latest stop among programmes 0..i of a
+    // channel, which is monotonic even when a grabber emits overlapping slots, so "what covers t" and "what
+    // overlaps [from, to)" are a binary search followed by a walk over just the answers.
+    static final class EpgGuide {
+        static final class Channel {
+            final String id, displayName;
+            final EpgProgramme[] programmes;
+            final long[] starts, maxStops;
+
+            Channel(String id, String displayName, List<EpgProgramme> list) {
+                this.id = id;
+                this.displayName = displayName;
+                this.programmes = list.toArray(new EpgProgramme[0]);
+                java.util.Arrays.sort(programmes, new Comparator<EpgProgramme>() {
+                    @Override public int compare(EpgProgramme a, EpgProgramme b) {
+                        return a.start != b.start ? Long.compare(a.start, b.start) : Long.compare(a.stop, b.stop);
+                    }
+                });
+                this.starts = new long[programmes.length];
+                this.maxStops = new long[programmes.length];
+                long runningMax = Long.MIN_VALUE;
+                for (int i = 0; i < programmes.length; i++) {
+                    starts[i] = programmes[i].start;
+                    runningMax = Math.max(runningMax, programmes[i].stop);
+                    maxStops[i] = runningMax;
+                }
+            }
+
+            // The programme on air at time, or null. When slots overlap, the one that started last wins.
+            EpgProgramme at(long time) {
+                for (int i = upperBound(starts, time) - 1; i >= 0 && maxStops[i] > time; i--) {
+                    if (programmes[i].stop > time) return programmes[i];
+                }
+                return null;
+            }
+
+            // The first programme starting after time, or null.
+            EpgProgramme after(long time) {
+                int i = upperBound(starts, time);
+                return i < programmes.length ? programmes[i] : null;
+            }
+
+            // Appends every programme that overlaps [from, to) in start order.
+            void between(long from, long to, List<EpgProgramme> out) {
+                for (int i = firstStoppingAfter(from); i < programmes.length && starts[i] < to; i++) {
+                    if (programmes[i].stop > from || programmes[i].start >= from) out.add(programmes[i]);
+                }
+            }
+
+            // Whether any programme is on air during [start, stop); an empty slot is taken as one millisecond.
+            boolean overlaps(long start, long stop) {
+                long end = Math.max(stop, start + 1);
+                for (int i = firstStoppingAfter(start); i < programmes.length && starts[i] < end; i++) {
+                    if (programmes[i].stop > start) return true;
+                }
+                return false;
+            }
+
+            private int firstStoppingAfter(long time) {
+                int lo = 0, hi = programmes.length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (maxStops[mid] <= time) lo = mid + 1; else hi = mid;
+                }
+                return lo;
+            }
+
+            private static int upperBound(long[] values, long key) {
+                int lo = 0, hi = values.length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (values[mid] <= key) lo = mid + 1; else hi = mid;
+                }
+                return lo;
+            }
+        }
+
+        private final java.util.LinkedHashMap<String, Channel> channels;
+        private final int programmeCount;
+
+        private EpgGuide(java.util.LinkedHashMap<String, Channel> channels, int programmeCount) {
+            this.channels = channels;
+            this.programmeCount = programmeCount;
+        }
+
+        static EpgGuide read(InputStream in) throws IOException {
+            Builder builder = new Builder();
+            new XmltvReader().read(in, new XmltvSanitizer(builder));
+            return builder.build();
+        }
+
+        java.util.Collection<Channel> channels() { return channels.values(); }
+
+        Channel channel(String id) { return channels.get(id); }
+
+        int programmeCount() { return programmeCount; }
+
+        // Every programme overlapping [from, to), channel by channel in guide order.
+        List<EpgProgramme> between(long from, long to) {
+            List<EpgProgramme> out = new ArrayList<>();
+            for (Channel channel : channels.values()) channel.between(from, to, out);
+            return out;
+        }
+
+        // One guide from several, earlier guides first. A channel id seen before keeps its name and programmes; a
+        // later guide only adds the programmes whose slot no kept programme overlaps, so a show carried by two
+        // satellites is listed once and gaps in one feed are filled from the other.
+        static EpgGuide merge(List<EpgGuide> guides) {
+            java.util.LinkedHashMap<String, Channel> merged = new java.util.LinkedHashMap<>();
+            int count = 0;
+            for (EpgGuide guide : guides) {
+                for (Channel channel : guide.channels.values()) {
+                    Channel kept = merged.get(channel.id);
+                    if (kept == null) {
+                        merged.put(channel.id, channel);
+                        count += channel.programmes.length;
+                        continue;
+                    }
+                    List<EpgProgramme> combined = new ArrayList<>(java.util.Arrays.asList(kept.programmes));
+                    for (EpgProgramme programme : channel.programmes) {
+                        if (kept.overlaps(programme.start, programme.stop)) continue;
+                        combined.add(programme);
+                        count++;
+                    }
+                    if (combined.size() > kept.programmes.length) merged.put(channel.id, new Channel(kept.id, kept.displayName, combined));
+                }
+            }
+            return new EpgGuide(merged, count);
+        }
+
+        // Collects a guide from reader callbacks. Programmes for channels the guide never declared still get a
+        // channel, named after the id. Programmes that stopped by evictBefore are left out.
+        static final class Builder implements XmltvReader.Handler {
+            private final java.util.LinkedHashMap<String, String> names = new java.util.LinkedHashMap<>();
+            private final java.util.LinkedHashMap<String, List<EpgProgramme>> programmes = new java.util.LinkedHashMap<>();
+            private final long evictBefore;
+            private int count;
+
+            Builder() {
+                this(Long.MIN_VALUE);
+            }
+
+            Builder(long evictBefore) {
+                this.evictBefore = evictBefore;
+            }
+
+            @Override public void channel(String id, String displayName) {
+                if (!names.containsKey(id)) names.put(id, displayName);
+                if (!programmes.containsKey(id)) programmes.put(id, new ArrayList<EpgProgramme>());
+            }
+
+            @Override public void programme(EpgProgramme programme) {
+                if (programme.stop <= evictBefore) return;
+                List<EpgProgramme> list = programmes.get(programme.channel);
+                if (list == null) programmes.put(programme.channel, list = new ArrayList<>());
+                list.add(programme);
+                count++;
+            }
+
+            EpgGuide build() {
+                java.util.LinkedHashMap<String, Channel> channels = new java.util.LinkedHashMap<>();
+                for (java.util.Map.Entry<String, List<EpgProgramme>> entry : programmes.entrySet()) {
+                    String name = names.get(entry.getKey());
+                    channels.put(entry.getKey(), new Channel(entry.getKey(), name != null ? name : entry.getKey(), entry.getValue()));
+                }
+                return new EpgGuide(channels, count);
+            }
+        }
+    }
+
+    // Fetches every guide a satlist.xml lists on a small pool, one satellite per task, and merges them in satlist
+    // order. Each task streams its response straight into its own XmltvReader, so download and parse overlap and
+    // the slowest feed, not the sum of them, sets the load time. Per-feed timings are kept to find that feed. Every
+    // feed is kept as a snapshot in the cache: a changed feed is folded into its kept snapshot window by window, an
+    // unchanged one is used as it is, and the merge copies rows between the mappings.
+    static final class SatelliteGuides {
+        static final int DEFAULT_PARALLELISM = 5;
+
+        static final class Satellite {
+            final String name;
+            final URL url;
+            Satellite(String name, URL url) { this.name = name; this.url = url; }
+        }
+
+        // One satellite's fetch. snapshot is null and error set when it failed. bytes are as received, so a gzipped
+        // feed counts compressed, and none when the server answered that the cached snapshot is current.
+        static final class Feed {
+            final Satellite satellite;
+            EpgSnapshot snapshot;
+            String error;
+            boolean notModified;
+            long bytes, connectMillis, totalMillis;
+            Feed(Satellite satellite) { this.satellite = satellite; }
+        }
+
+        // guide is the merged snapshot as written to the target, null when no feed loaded.
+        static final class Result {
+            final EpgSnapshot guide;
+            final List<Feed> feeds;
+            final int loaded, sharedChannels, droppedProgrammes;
+            final long elapsedMillis;
+            Result(EpgSnapshot guide, List<Feed> feeds, int loaded, int sharedChannels, int droppedProgrammes, long elapsedMillis) {
+                this.guide = guide;
+                this.feeds = feeds;
+                this.loaded = loaded;
+                this.sharedChannels = sharedChannels;
+                this.droppedProgrammes = droppedProgrammes;
+                this.elapsedMillis = elapsedMillis;
+            }
+        }
+
+        private final int parallelism;
+        private final GuideFeedCache cache;
+        private final long evictBefore;
+
+        // Feeds are fetched conditionally against their cached snapshots. Programmes that stopped by evictBefore are
+        // left out of every snapshot written, so a feed that is never downloaded again still ages out of the guide.
+        SatelliteGuides(int parallelism, GuideFeedCache cache, long evictBefore) {
+            this.parallelism = parallelism <= 0 ? DEFAULT_PARALLELISM : Math.min(8, parallelism);
+            this.cache = cache;
+            this.evictBefore = evictBefore;
+        }
+
+        // <satlist satname="..." saturl="..."/> entries.
+        static List<Satellite> parseSatList(InputStream in) throws IOException {
+            List<Satellite> satellites = new ArrayList<>();
+            try {
+                XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+                parser.setInput(in, null);
+                for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                    if (event != XmlPullParser.START_TAG || !"satlist".equals(parser.getName())) continue;
+                    String url = parser.getAttributeValue(null, "saturl");
+                    if (url == null) continue;
+                    String name = parser.getAttributeValue(null, "satname");
+                    satellites.add(new Satellite(name != null ? name : url, new URL(url)));
+                }
+            } catch (XmlPullParserException e) {
+                throw new IOException("Bad satellite list: " + e.getMessage());
+            } finally {
+                in.close();
+            }
+            return satellites;
+        }
+
+        // Blocks until every feed has loaded or failed, then writes the merged snapshot to target. Nothing is written
+        // when all of them failed.
+        Result loadAll(List<Satellite> satellites, File target) throws InterruptedException, IOException {
+            long started = System.nanoTime();
+            List<Feed> feeds = new ArrayList<>();
+            java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, satellites.size())));
+            try {
+                for (Satellite satellite : satellites) {
+                    final Feed feed = new Feed(satellite);
+                    feeds.add(feed);
+                    pool.execute(new Runnable() {
+                        @Override public void run() {
+                            try {
+                                fetch(feed);
+                            } catch (IOException | RuntimeException e) {
+                                feed.error = e.getMessage() != null ? e.getMessage() : e.toString();
+                                Log.w(TAG, "Guide fetch failed for " + feed.satellite.name + ": " + feed.error);
+                            }
+                        }
+                    });
+                }
+            } finally {
+                pool.shutdown();
+            }
+            pool.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.MILLISECONDS);
+            List<EpgSnapshot> snapshots = new ArrayList<>();
+            int channels = 0;
+            for (Feed feed : feeds) {
+                if (feed.snapshot == null) continue;
+                snapshots.add(feed.snapshot);
+                channels += feed.snapshot.channelCount();
+            }
+            if (snapshots.isEmpty()) return new Result(null, feeds, 0, 0, 0, (System.nanoTime() - started) / 1000000);
+            EpgSnapshot.Writer merged = EpgSnapshot.merge(snapshots, evictBefore);
+            EpgSnapshot guide = EpgSnapshot.map(merged.write(target));
+            return new Result(guide, feeds, snapshots.size(), channels - merged.channelCount(), merged.duplicates,
+                    (System.nanoTime() - started) / 1000000);
+        }
+
+        void fetch(Feed feed) throws IOException {
+            long started = System.nanoTime();
+            URL url = feed.satellite.url;
+            GuideFeedCache.Entry previous = cache.lookup(url);
+            java.net.URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(15000);
+            connection.setReadTimeout(15000);
+            // Asking explicitly also turns off Android's transparent gzip, so the body is unpacked here either way.
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (previous != null && previous.etag != null) connection.setRequestProperty("If-None-Match", previous.etag);
+            if (previous != null && previous.lastModified != null) connection.setRequestProperty("If-Modified-Since", previous.lastModified);
+            try {
+                int status = connection instanceof java.net.HttpURLConnection ? ((java.net.HttpURLConnection) connection).getResponseCode() : 200;
+                if (status == 304 && previous != null) {
+                    feed.connectMillis = (System.nanoTime() - started) / 1000000;
+                    feed.notModified = true;
+                    feed.snapshot = previous.snapshot;
+                } else if (status == 200) {
+                    CountingInputStream counted = new CountingInputStream(connection.getInputStream());
+                    feed.connectMillis = (System.nanoTime() - started) / 1000000;
+                    InputStream in = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new java.util.zip.GZIPInputStream(counted, 32 * 1024) : counted;
+                    EpgGuide.Builder builder = new EpgGuide.Builder(evictBefore);
+                    new XmltvReader().read(in, new XmltvSanitizer(builder));
+                    feed.bytes = counted.count;
+                    EpgSnapshot.Writer refreshed = EpgSnapshot.refresh(previous != null ? previous.snapshot : null, builder.build(), evictBefore);
+                    feed.snapshot = cache.store(url, refreshed, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+                } else {
+                    throw new IOException("HTTP " + status);
+                }
+            } finally {
+                feed.totalMillis = (System.nanoTime() - started) / 1000000;
+                if (connection instanceof java.net.HttpURLConnection) ((java.net.HttpURLConnection) connection).disconnect();
+            }
+        }
+
+        private static final class CountingInputStream extends java.io.FilterInputStream {
+            long count;
+
+            CountingInputStream(InputStream in) { super(in); }
+
+            @Override public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) count++;
+                return b;
+            }
+
+            @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) count += read;
+                return read;
+            }
+        }
+    }
+    //endregion
+
+    //region Guide Snapshot (Internal)
+    // Flat, read-in-place form of a loaded guide. It is written once after parsing and then mapped, so the heap only
+    // holds what a query touches. Channel ids, titles, languages and credit lines go into one string table, since the
+    // guides repeat them thousands of times. Programmes are primitive columns; descriptions stay as UTF-8 in the
+    // mapping until one is asked for, and repeated ones are stored once.
+    // Layout (little endian, sections 8-byte aligned):
+    //   header   magic, version, channels, programmes, strings, titleRefs, stringBytes, descBytes, fingerprint (long)
+    //   int[channels + 1] first programme, int[channels] id string, int[channels] name string
+    //   long[programmes] starts, stops, running max stops (restarting at each channel)
+    //   int[programmes] channel, then one string column per field (-1 for none)
+    //   int[programmes] desc offset, int[programmes] desc length (-1 for none)
+    //   int[programmes + 1] title ref offsets, int[titleRefs * 2] (lang, title) string pairs
+    //   int[strings + 1] string offsets, byte[stringBytes] strings, byte[descBytes] descriptions
+    static final class EpgSnapshot {
+        static final int MAGIC = 0x50455047; // "PEPG"
+        static final int FORMAT_VERSION = 2;
+        static final int HEADER_SIZE = 40;
+        static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+        static final int TITLE = 0, SUB_TITLE = 1, EPISODE = 2, DATE = 3, CATEGORY = 4, COUNTRY = 5,
+                DIRECTORS = 6, WRITERS = 7, ACTORS = 8, DESC_LANG = 9;
+        private static final int COLUMNS = 10;
+
+        private final ByteBuffer buffer;
+        private final int channelCount, programmeCount, stringPoolOffset, descPoolOffset;
+        private final IntBuffer firsts, channelIds, channelNames, channelOf, descOffsets, descLengths, titleRefOffsets, titleRefs, stringOffsets;
+        private final IntBuffer[] columns = new IntBuffer[COLUMNS];
+        private final LongBuffer starts, stops, maxStops;
+        // Decoded on first use; a race only decodes a string twice.
+        private final String[] strings;
+        private final java.util.HashMap<String, Integer> channelIndex = new java.util.HashMap<>();
+
+        private EpgSnapshot(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer.order(ORDER);
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Not a guide snapshot.");
+            }
+            channelCount = buffer.getInt(8);
+            programmeCount = buffer.getInt(12);
+            int stringCount = buffer.getInt(16), refCount = buffer.getInt(20), stringBytes = buffer.getInt(24), descBytes = buffer.getInt(28);
+            int offset = HEADER_SIZE;
+            firsts = slice(offset, (channelCount + 1) * 4L).asIntBuffer(); offset += align((channelCount + 1) * 4);
+            channelIds = slice(offset, channelCount * 4L).asIntBuffer(); offset += align(channelCount * 4);
+            channelNames = slice(offset, channelCount * 4L).asIntBuffer(); offset += align(channelCount * 4);
+            starts = slice(offset, programmeCount * 8L).asLongBuffer(); offset += programmeCount * 8;
+            stops = slice(offset, programmeCount * 8L).asLongBuffer(); offset += programmeCount * 8;
+            maxStops = slice(offset, programmeCount * 8L).asLongBuffer(); offset += programmeCount * 8;
+            channelOf = slice(offset, programmeCount * 4L).asIntBuffer(); offset += align(programmeCount * 4);
+            for (int i = 0; i < COLUMNS; i++) {
+                columns[i] = slice(offset, programmeCount * 4L).asIntBuffer(); offset += align(programmeCount * 4);
+            }
+            descOffsets = slice(offset, programmeCount * 4L).asIntBuffer(); offset += align(programmeCount * 4);
+            descLengths = slice(offset, programmeCount * 4L).asIntBuffer(); offset += align(programmeCount * 4);
+            titleRefOffsets = slice(offset, (programmeCount + 1) * 4L).asIntBuffer(); offset += align((programmeCount + 1) * 4);
+            titleRefs = slice(offset, refCount * 8L).asIntBuffer(); offset += refCount * 8;
+            stringOffsets = slice(offset, (stringCount + 1) * 4L).asIntBuffer(); offset += align((stringCount + 1) * 4);
+            stringPoolOffset = offset;
+            descPoolOffset = offset + align(stringBytes);
+            if ((long) descPoolOffset + descBytes > buffer.capacity()) throw new IOException("Truncated guide snapshot.");
+            strings = new String[stringCount];
+            for (int c = 0; c < channelCount; c++) channelIndex.put(channelId(c), c);
+        }
+
+        private ByteBuffer slice(int offset, long length) throws IOException {
+            if (offset + length > buffer.capacity()) throw new IOException("Truncated guide snapshot.");
+            ByteBuffer view = buffer.duplicate();
+            view.limit((int) (offset + length)).position(offset);
+            return view.slice().order(ORDER);
+        }
+
+        private static int align(int bytes) { return (bytes + 7) & ~7; }
+
+        static EpgSnapshot map(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                return new EpgSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        // Writes the guide through a writable mapping, then renames into place so a reader never maps a half-written file.
+        static File write(EpgGuide guide, File target) throws IOException {
+            Writer writer = new Writer();
+            for (EpgGuide.Channel channel : guide.channels()) {
+                writer.channel(channel.id, channel.displayName);
+                for (EpgProgramme programme : channel.programmes) writer.add(programme);
+            }
+            return writer.write(target);
+        }
+
+        // The next grab of a feed folded into the feed's last snapshot. On each channel the grab covers, its
+        // programmes replace the rows that start inside its window, [first start, last stop); the rows before and
+        // after the window are copied over as index ranges, and a channel the grab leaves out is copied whole. Rows
+        // that stopped by evictBefore are left out. Only the grab's programmes are ever objects.
+        static Writer refresh(EpgSnapshot previous, EpgGuide grab, long evictBefore) {
+            Writer writer = new Writer();
+            if (previous != null) {
+                for (int channel = 0; channel < previous.channelCount; channel++) {
+                    String id = previous.channelId(channel);
+                    EpgGuide.Channel fresh = grab.channel(id);
+                    int first = previous.firsts.get(channel), end = previous.firsts.get(channel + 1);
+                    // The grab names a channel after its id when it never declared it.
+                    writer.channel(id, fresh != null && !fresh.displayName.equals(id) ? fresh.displayName : previous.channelName(channel));
+                    if (fresh == null || fresh.programmes.length == 0) {
+                        writer.copy(previous, first, end, evictBefore);
+                        continue;
+                    }
+                    int last = fresh.programmes.length - 1;
+                    long from = fresh.starts[0], to = Math.max(fresh.maxStops[last], fresh.starts[last] + 1);
+                    writer.copy(previous, first, previous.lowerBound(channel, from), evictBefore);
+                    for (EpgProgramme programme : fresh.programmes) {
+                        if (programme.stop > evictBefore) writer.add(programme);
+                    }
+                    writer.copy(previous, previous.lowerBound(channel, to), end, evictBefore);
+                }
+            }
+            for (EpgGuide.Channel fresh : grab.channels()) {
+                if (previous != null && previous.channelIndex(fresh.id) >= 0) continue;
+                writer.channel(fresh.id, fresh.displayName);
+                for (EpgProgramme programme : fresh.programmes) {
+                    if (programme.stop > evictBefore) writer.add(programme);
+                }
+            }
+            return writer;
+        }
+
+        // Several feeds as one snapshot, earlier feeds first, by EpgGuide.merge's rules: a channel id seen before
+        // keeps its name and rows, and a later feed only adds the rows whose slot no kept row overlaps. A channel
+        // one feed carries alone is copied as a range. Rows that stopped by evictBefore are left out.
+        static Writer merge(List<EpgSnapshot> feeds, long evictBefore) {
+            java.util.LinkedHashMap<String, List<int[]>> carriers = new java.util.LinkedHashMap<>();
+            for (int feed = 0; feed < feeds.size(); feed++) {
+                EpgSnapshot snapshot = feeds.get(feed);
+                for (int channel = 0; channel < snapshot.channelCount; channel++) {
+                    String id = snapshot.channelId(channel);
+                    List<int[]> list = carriers.get(id);
+                    if (list == null) carriers.put(id, list = new ArrayList<>());
+                    list.add(new int[] {feed, channel});
+                }
+            }
+            Writer writer = new Writer();
+            for (java.util.Map.Entry<String, List<int[]>> entry : carriers.entrySet()) {
+                List<int[]> list = entry.getValue();
+                EpgSnapshot owner = feeds.get(list.get(0)[0]);
+                int channel = list.get(0)[1];
+                writer.channel(entry.getKey(), owner.channelName(channel));
+                if (list.size() == 1) {
+                    writer.copy(owner, owner.firsts.get(channel), owner.firsts.get(channel + 1), evictBefore);
+                    continue;
+                }
+                // Rows as {start, stop, feed, index}, kept in (start, stop) order like EpgGuide.Channel.
+                List<long[]> kept = new ArrayList<>();
+                for (int[] carrier : list) {
+                    EpgSnapshot snapshot = feeds.get(carrier[0]);
+                    long[] keptStarts = new long[kept.size()], keptMaxStops = new long[kept.size()], keptStops = new long[kept.size()];
+                    long runningMax = Long.MIN_VALUE;
+                    for (int i = 0; i < kept.size(); i++) {
+                        keptStarts[i] = kept.get(i)[0];
+                        keptStops[i] = kept.get(i)[1];
+                        keptMaxStops[i] = runningMax = Math.max(runningMax, keptStops[i]);
+                    }
+                    int added = 0;
+                    for (int index = snapshot.firsts.get(carrier[1]), end = snapshot.firsts.get(carrier[1] + 1); index < end; index++) {
+                        long start = snapshot.start(index), stop = snapshot.stop(index);
+                        if (stop <= evictBefore) continue;
+                        if (overlaps(keptStarts, keptStops, keptMaxStops, start, stop)) {
+                            writer.duplicates++;
+                        } else {
+                            kept.add(new long[] {start, stop, carrier[0], index});
+                            added++;
+                        }
+                    }
+                    if (added > 0 && keptStarts.length > 0) {
+                        Collections.sort(kept, new Comparator<long[]>() {
+                            @Override public int compare(long[] a, long[] b) {
+                                return a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]);
+                            }
+                        });
+                    }
+                }
+                for (long[] row : kept) writer.copy(feeds.get((int) row[2]), (int) row[3]);
+            }
+            return writer;
+        }
+
+        // EpgGuide.Channel.overlaps over parallel arrays.
+        private static boolean overlaps(long[] starts, long[] stops, long[] maxStops, long start, long stop) {
+            long end = Math.max(stop, start + 1);
+            int lo = 0, hi = starts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (maxStops[mid] <= start) lo = mid + 1; else hi = mid;
+            }
+            for (int i = lo; i < starts.length && starts[i] < end; i++) {
+                if (stops[i] > start) return true;
+            }
+            return false;
+        }
+
+        // Collects the rows of a new snapshot, channel by channel, each channel's rows in (start, stop) order. A row
+        // is either a parsed programme or a row of a mapped snapshot copied as it is: its strings are interned again
+        // and its description is copied as UTF-8, so a programme that is only carried over never becomes an object.
+        static final class Writer {
+            private final StringTable table = new StringTable();
+            private final java.util.HashMap<String, int[]> descs = new java.util.HashMap<>();
+            private final java.io.ByteArrayOutputStream descPool = new java.io.ByteArrayOutputStream();
+            // Per source snapshot: its string ids and description offsets as they are in this one.
+            private final java.util.IdentityHashMap<EpgSnapshot, int[]> stringMaps = new java.util.IdentityHashMap<>();
+            private final java.util.IdentityHashMap<EpgSnapshot, java.util.HashMap<Integer, int[]>> descMaps = new java.util.IdentityHashMap<>();
+            private int[] firsts = new int[64], ids = new int[64], names = new int[64];
+            private long[] starts = new long[1024], stops = new long[1024], maxStops = new long[1024];
+            private int[] channelOf = new int[1024], descOffsets = new int[1024], descLengths = new int[1024], refOffsets = new int[1024];
+            private final int[][] columns = new int[COLUMNS][1024];
+            private int[] refs = new int[2048];
+            private int channels, rows, refCount;
+            private long runningMax;
+            // Rows merge left out because an earlier feed already had the slot.
+            int duplicates;
+
+            int channelCount() { return channels; }
+            int programmeCount() { return rows; }
+
+            void channel(String id, String name) {
+                if (channels == firsts.length) {
+                    firsts = java.util.Arrays.copyOf(firsts, channels * 2);
+                    ids = java.util.Arrays.copyOf(ids, channels * 2);
+                    names = java.util.Arrays.copyOf(names, channels * 2);
+                }
+                firsts[channels] = rows;
+                ids[channels] = table.intern(id);
+                names[channels] = table.intern(name);
+                channels++;
+                runningMax = Long.MIN_VALUE;
+            }
+
+            void add(EpgProgramme programme) {
+                int row = row(programme.start, programme.stop);
+                columns[TITLE][row] = table.intern(programme.title());
+                columns[SUB_TITLE][row] = table.intern(programme.subTitle);
+                columns[EPISODE][row] = table.intern(programme.episode);
+                columns[DATE][row] = table.intern(programme.date);
+                columns[CATEGORY][row] = table.intern(programme.category);
+                columns[COUNTRY][row] = table.intern(programme.country);
+                columns[DIRECTORS][row] = table.intern(programme.directors);
+                columns[WRITERS][row] = table.intern(programme.writers);
+                columns[ACTORS][row] = table.intern(programme.actors);
+                columns[DESC_LANG][row] = table.intern(programme.descLang);
+                if (programme.titles != null) {
+                    for (int t = 0; t < programme.titles.length; t++) ref(table.intern(programme.titleLangs[t]), table.intern(programme.titles[t]));
+                }
+                int[] desc = programme.desc == null ? null : descs.get(programme.desc);
+                if (desc == null && programme.desc != null) {
+                    byte[] bytes = programme.desc.getBytes(StandardCharsets.UTF_8);
+                    desc = new int[]{descPool.size(), bytes.length};
+                    descPool.write(bytes, 0, bytes.length);
+                    descs.put(programme.desc, desc);
+                }
+                descOffsets[row] = desc != null ? desc[0] : 0;
+                descLengths[row] = desc != null ? desc[1] : -1;
+            }
+
+            // Rows [from, to) of one channel of source that are still on by evictBefore. The ended ones in front, up
+            // to the first running max stop past evictBefore, are skipped as a range.
+            void copy(EpgSnapshot source, int from, int to, long evictBefore) {
+                int lo = from, hi = to;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (source.maxStops.get(mid) <= evictBefore) lo = mid + 1; else hi = mid;
+                }
+                for (int index = lo; index < to; index++) {
+                    if (source.stops.get(index) > evictBefore) copy(source, index);
+                }
+            }
+
+            void copy(EpgSnapshot source, int index) {
+                int row = row(source.start(index), source.stop(index));
+                int[] strings = stringMaps.get(source);
+                if (strings == null) {
+                    strings = new int[source.strings.length];
+                    java.util.Arrays.fill(strings, -1);
+                    stringMaps.put(source, strings);
+                }
+                for (int column = 0; column < COLUMNS; column++) columns[column][row] = remap(source, strings, source.columns[column].get(index));
+                for (int t = source.titleRefOffsets.get(index), end = source.titleRefOffsets.get(index + 1); t < end; t++) {
+                    ref(remap(source, strings, source.titleRefs.get(2 * t)), remap(source, strings, source.titleRefs.get(2 * t + 1)));
+                }
+                int length = source.descLengths.get(index);
+                if (length < 0) {
+                    descOffsets[row] = 0;
+                    descLengths[row] = -1;
+                    return;
+                }
+                java.util.HashMap<Integer, int[]> copied = descMaps.get(source);
+                if (copied == null) descMaps.put(source, copied = new java.util.HashMap<>());
+                int offset = source.descOffsets.get(index);
+                int[] desc = copied.get(offset);
+                if (desc == null) {
+                    byte[] bytes = new byte[length];
+                    ByteBuffer view = source.buffer.duplicate();
+                    view.position(source.descPoolOffset + offset);
+                    view.get(bytes);
+                    desc = new int[]{descPool.size(), length};
+                    descPool.write(bytes, 0, length);
+                    copied.put(offset, desc);
+                }
+                descOffsets[row] = desc[0];
+                descLengths[row] = desc[1];
+            }
+
+            private int remap(EpgSnapshot source, int[] strings, int id) {
+                if (id < 0) return -1;
+                if (strings[id] < 0) strings[id] = table.intern(source.string(id));
+                return strings[id];
+            }
+
+            private int row(long start, long stop) {
+                if (rows == starts.length) {
+                    int capacity = rows * 2;
+                    starts = java.util.Arrays.copyOf(starts, capacity);
+                    stops = java.util.Arrays.copyOf(stops, capacity);
+                    maxStops = java.util.Arrays.copyOf(maxStops, capacity);
+                    channelOf = java.util.Arrays.copyOf(channelOf, capacity);
+                    descOffsets = java.util.Arrays.copyOf(descOffsets, capacity);
+                    descLengths = java.util.Arrays.copyOf(descLengths, capacity);
+                    refOffsets = java.util.Arrays.copyOf(refOffsets, capacity);
+                    for (int column = 0; column < COLUMNS; column++) columns[column] = java.util.Arrays.copyOf(columns[column], capacity);
+                }
+                runningMax = Math.max(runningMax, stop);
+                starts[rows] = start;
+                stops[rows] = stop;
+                maxStops[rows] = runningMax;
+                channelOf[rows] = channels - 1;
+                refOffsets[rows] = refCount;
+                return rows++;
+            }
+
+            private void ref(int lang, int title) {
+                if (refCount * 2 == refs.length) refs = java.util.Arrays.copyOf(refs, refs.length * 2);
+                refs[refCount * 2] = lang;
+                refs[refCount * 2 + 1] = title;
+                refCount++;
+            }
+
+            File write(File target) throws IOException {
+                int c = channels, n = rows;
+                int[] firstArray = java.util.Arrays.copyOf(firsts, c + 1), refOffsetArray = java.util.Arrays.copyOf(refOffsets, n + 1);
+                firstArray[c] = n;
+                refOffsetArray[n] = refCount;
+                int stringCount = table.size(), stringBytes = table.bytes(), descBytes = descPool.size();
+                long size = HEADER_SIZE + align((c + 1) * 4) + align(c * 4) * 2L + n * 24L + align(n * 4) * (long) (COLUMNS + 3)
+                        + align((n + 1) * 4) + refCount * 8L + align((stringCount + 1) * 4) + align(stringBytes) + descBytes;
+                File parent = target.getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+                File temp = new File(target.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+                try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel file = raf.getChannel()) {
+                    raf.setLength(size);
+                    MappedByteBuffer out = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    out.order(ORDER);
+                    out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(c).putInt(n).putInt(stringCount).putInt(refCount).putInt(stringBytes).putInt(descBytes).putLong(0);
+                    putInts(out, firstArray, c + 1);
+                    putInts(out, ids, c);
+                    putInts(out, names, c);
+                    for (int i = 0; i < n; i++) out.putLong(starts[i]);
+                    for (int i = 0; i < n; i++) out.putLong(stops[i]);
+                    for (int i = 0; i < n; i++) out.putLong(maxStops[i]);
+                    putInts(out, channelOf, n);
+                    for (int[] column : columns) putInts(out, column, n);
+                    putInts(out, descOffsets, n);
+                    putInts(out, descLengths, n);
+                    putInts(out, refOffsetArray, n + 1);
+                    putInts(out, refs, refCount * 2);
+                    int stringOffset = 0;
+                    for (byte[] bytes : table.pool) { out.putInt(stringOffset); stringOffset += bytes.length; }
+                    out.putInt(stringOffset);
+                    pad(out);
+                    for (byte[] bytes : table.pool) out.put(bytes);
+                    pad(out);
+                    out.put(descPool.toByteArray());
+                    out.putLong(32, digest(out));
+                    out.force();
+                }
+                if (!temp.renameTo(target)) {
+                    temp.delete();
+                    throw new IOException("Cannot move guide snapshot into " + target);
+                }
+                return target;
+            }
+        }
+
+        private static void putInts(ByteBuffer out, int[] values) {
+            putInts(out, values, values.length);
+        }
+
+        private static void putInts(ByteBuffer out, int[] values, int count) {
+            for (int i = 0; i < count; i++) out.putInt(values[i]);
+            pad(out);
+        }
+
+        private static void pad(ByteBuffer out) {
+            while ((out.position() & 7) != 0) out.put((byte) 0);
+        }
+
+        private static final class StringTable {
+            final java.util.HashMap<String, Integer> ids = new java.util.HashMap<>();
+            final List<byte[]> pool = new ArrayList<>();
+            int bytes;
+
+            int intern(String value) {
+                if (value == null) return -1;
+                Integer id = ids.get(value);
+                if (id != null) return id;
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                ids.put(value, pool.size());
+                pool.add(encoded);
+                bytes += encoded.length;
+                return pool.size() - 1;
+            }
+
+            int size() { return pool.size(); }
+            int bytes() { return bytes; }
+        }
+
+        int channelCount() { return channelCount; }
+        int programmeCount() { return programmeCount; }
+
+        // xxHash64 of the file as written, taken from the header; files derived from this snapshot carry it to prove
+        // whose they are.
+        long fingerprint() {
+            return buffer.getLong(32);
+        }
+
+        // Hashes the whole file with the fingerprint field still zero, so the writer pays for it instead of a reader.
+        private static long digest(ByteBuffer file) {
+            XxHash64.Streaming digest = new XxHash64.Streaming(0);
+            ByteBuffer view = file.duplicate();
+            view.clear();
+            byte[] chunk = new byte[64 * 1024];
+            while (view.hasRemaining()) {
+                int length = Math.min(chunk.length, view.remaining());
+                view.get(chunk, 0, length);
+                digest.update(chunk, 0, length);
+            }
+            return digest.digest();
+        }
+
+        String channelId(int channel) { return string(channelIds.get(channel)); }
+        String channelName(int channel) { return string(channelNames.get(channel)); }
+        long start(int index) { return starts.get(index); }
+        long stop(int index) { return stops.get(index); }
+        int channelOf(int index) { return channelOf.get(index); }
+        String field(int column, int index) { return string(columns[column].get(index)); }
+        String title(int index) { return field(TITLE, index); }
+
+        // Every title of a programme, one per language, without decoding the rest of it.
+        int titleCount(int index) { return titleRefOffsets.get(index + 1) - titleRefOffsets.get(index); }
+        String title(int index, int which) { return string(titleRefs.get(2 * (titleRefOffsets.get(index) + which) + 1)); }
+
+        // Channel position for an id, or -1.
+        int channelIndex(String id) {
+            Integer channel = channelIndex.get(id);
+            return channel != null ? channel : -1;
+        }
+
+        String desc(int index) {
+            int length = descLengths.get(index);
+            if (length < 0) return null;
+            ByteBuffer view = buffer.duplicate();
+            int from = descPoolOffset + descOffsets.get(index);
+            view.limit(from + length).position(from);
+            return StandardCharsets.UTF_8.decode(view).toString();
+        }
+
+        private String string(int id) {
+            if (id < 0) return null;
+            String value = strings[id];
+            if (value == null) {
+                int from = stringOffsets.get(id), to = stringOffsets.get(id + 1);
+                ByteBuffer view = buffer.duplicate();
+                view.limit(stringPoolOffset + to).position(stringPoolOffset + from);
+                strings[id] = value = StandardCharsets.UTF_8.decode(view).toString();
+            }
+            return value;
+        }
+
+        // The same queries as EpgGuide.Channel, answering programme indexes (-1 for none) straight off the mapping.
+        int at(int channel, long time) {
+            int first = firsts.get(channel);
+            for (int i = upperBound(channel, time) - 1; i >= first && maxStops.get(i) > time; i--) {
+                if (stops.get(i) > time) return i;
+            }
+            return -1;
+        }
+
+        int after(int channel, long time) {
+            int i = upperBound(channel, time);
+            return i < firsts.get(channel + 1) ? i : -1;
+        }
+
+        // Appends the indexes of the programmes overlapping [from, to) in start order.
+        void between(int channel, long from, long to, List<Integer> out) {
+            int lo = firsts.get(channel), hi = firsts.get(channel + 1), end = hi;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (maxStops.get(mid) <= from) lo = mid + 1; else hi = mid;
+            }
+            for (int i = lo; i < end && starts.get(i) < to; i++) {
+                if (stops.get(i) > from || starts.get(i) >= from) out.add(i);
+            }
+        }
+
+        private int upperBound(int channel, long time) {
+            int lo = firsts.get(channel), hi = firsts.get(channel + 1);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts.get(mid) <= time) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // The first row of channel starting at or after time.
+        private int lowerBound(int channel, long time) {
+            int lo = firsts.get(channel), hi = firsts.get(channel + 1);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts.get(mid) < time) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // The whole programme, description included, as the parser produced it.
+        EpgProgramme programme(int index) {
+            EpgProgramme programme = new EpgProgramme(channelId(channelOf(index)), start(index), stop(index));
+            int from = titleRefOffsets.get(index), to = titleRefOffsets.get(index + 1);
+            programme.titles = new String[to - from];
+            programme.titleLangs = new String[to - from];
+            for (int t = 0; t < to - from; t++) {
+                programme.titleLangs[t] = string(titleRefs.get(2 * (from + t)));
+                programme.titles[t] = string(titleRefs.get(2 * (from + t) + 1));
+            }
+            programme.subTitle = field(SUB_TITLE, index);
+            programme.episode = field(EPISODE, index);
+            programme.date = field(DATE, index);
+            programme.category = field(CATEGORY, index);
+            programme.country = field(COUNTRY, index);
+            programme.directors = field(DIRECTORS, index);
+            programme.writers = field(WRITERS, index);
+            programme.actors = field(ACTORS, index);
+            programme.descLang = field(DESC_LANG, index);
+            programme.desc = desc(index);
+            return programme;
+        }
+    }
+
+    // Each satellite feed's last grab as a snapshot, keyed by a hash of its URL, with the ETag and Last-Modified the
+    // server sent for it so the next refresh only downloads a feed that changed. The .meta file is written after
+    // the snapshot it describes, so validators never outlive their data.
+    static final class GuideFeedCache {
+        static final class Entry {
+            final EpgSnapshot snapshot;
+            final String etag, lastModified;
+            Entry(EpgSnapshot snapshot, String etag, String lastModified) {
+                this.snapshot = snapshot;
+                this.etag = etag;
+                this.lastModified = lastModified;
+            }
+        }
+
+        private final File dir;
+
+        GuideFeedCache(File dir) {
+            this.dir = dir;
+        }
+
+        Entry lookup(URL url) {
+            File data = file(url, ".pepg"), meta = file(url, ".meta");
+            if (!data.isFile() || !meta.isFile()) return null;
+            try (java.io.DataInputStream in = new java.io.DataInputStream(new java.io.BufferedInputStream(new FileInputStream(meta)))) {
+                if (!url.toString().equals(in.readUTF())) return null;
+                String etag = in.readUTF(), lastModified = in.readUTF();
+                return new Entry(EpgSnapshot.map(data), etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified);
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable guide feed cache for " + url + ": " + e.getMessage());
+                meta.delete();
+                data.delete();
+                return null;
+            }
+        }
+
+        // Returns the stored snapshot, mapped.
+        EpgSnapshot store(URL url, EpgSnapshot.Writer snapshot, String etag, String lastModified) throws IOException {
+            File meta = file(url, ".meta");
+            meta.delete();
+            EpgSnapshot stored = EpgSnapshot.map(snapshot.write(file(url, ".pepg")));
+            File temp = new File(meta.getPath() + ".tmp");
+            try (java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.FileOutputStream(temp))) {
+                out.writeUTF(url.toString());
+                out.writeUTF(etag != null ? etag : "");
+                out.writeUTF(lastModified != null ? lastModified : "");
+            }
+            if (!temp.renameTo(meta)) {
+                temp.delete();
+                throw new IOException("Cannot move " + temp + " into place");
+            }
+            return stored;
+        }
+
+        private File file(URL url, String suffix) {
+            byte[] key = url.toString().getBytes(StandardCharsets.UTF_8);
+            return new File(dir, Long.toHexString(XxHash64.hash(key, 0, key.length, 0)) + suffix);
+        }
+    }
+    //endregion
+
+    //region Guide Search (Internal)
+    // Inverted index over a guide snapshot: the words of every title in every language, the description and the
+    // director, writer and actor credits, normalized as CueSearchIndex does them, so Arabic letter forms, Latin
+    // accents and case do not matter. It is built when a guide is loaded, written next to the snapshot and mapped;
+    // the header carries the snapshot's fingerprint, so an index left over from another guide is never used.
+    // Layout (little endian, sections 8-byte aligned):
+    //   header   magic, version, programmes, terms, termChars, postingBytes, snapshot fingerprint (long)
+    //   int[terms + 1] term offsets (chars), int[terms + 1] posting offsets (bytes)
+    //   char[termChars] terms in sorted order, byte[postingBytes] each term's programme indexes as varint gaps
+    static final class EpgSearchIndex {
+        static final int MAGIC = 0x50455058; // "PEPX"
+        static final int FORMAT_VERSION = 1;
+        static final int HEADER_SIZE = 32;
+        private static final int INDEX_BITS = 22;
+
+        final EpgSnapshot guide;
+        private final ByteBuffer buffer;
+        private final int termCount, postingPoolOffset;
+        private final IntBuffer termOffsets, postingOffsets;
+        private final java.nio.CharBuffer terms;
+
+        private EpgSearchIndex(EpgSnapshot guide, ByteBuffer buffer) throws IOException {
+            this.guide = guide;
+            this.buffer = buffer.order(EpgSnapshot.ORDER);
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Not a guide search index.");
+            }
+            if (buffer.getInt(8) != guide.programmeCount() || buffer.getLong(24) != guide.fingerprint()) {
+                throw new IOException("Search index belongs to another guide.");
+            }
+            termCount = buffer.getInt(12);
+            int termChars = buffer.getInt(16), postingBytes = buffer.getInt(20);
+            int offset = HEADER_SIZE;
+            termOffsets = slice(offset, (termCount + 1) * 4).asIntBuffer(); offset += EpgSnapshot.align((termCount + 1) * 4);
+            postingOffsets = slice(offset, (termCount + 1) * 4).asIntBuffer(); offset += EpgSnapshot.align((termCount + 1) * 4);
+            terms = slice(offset, termChars * 2).asCharBuffer(); offset += EpgSnapshot.align(termChars * 2);
+            postingPoolOffset = offset;
+            if ((long) offset + postingBytes > buffer.capacity()) throw new IOException("Truncated guide search index.");
+        }
+
+        private ByteBuffer slice(int offset, int length) throws IOException {
+            if ((long) offset + length > buffer.capacity()) throw new IOException("Truncated guide search index.");
+            ByteBuffer view = buffer.duplicate();
+            view.limit(offset + length).position(offset);
+            return view.slice().order(EpgSnapshot.ORDER);
+        }
+
+        static EpgSearchIndex map(EpgSnapshot guide, File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                return new EpgSearchIndex(guide, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        // Reads every programme once, desc included, so it runs on the loader thread right after the snapshot is written.
+        // Reruns repeat their titles, descriptions and credits, so each distinct text is only normalized and split once.
+        static File write(EpgSnapshot guide, File target) throws IOException {
+            int n = guide.programmeCount();
+            if (n >= 1 << INDEX_BITS) throw new IOException("Guide too large to index: " + n + " programmes.");
+            java.util.HashMap<String, Integer> words = new java.util.HashMap<>();
+            List<CueSearchIndex.IntList> postingLists = new ArrayList<>();
+            java.util.HashMap<String, int[]> split = new java.util.HashMap<>();
+            StringBuilder text = new StringBuilder(4096);
+            for (int index = 0; index < n; index++) {
+                EpgProgramme programme = guide.programme(index);
+                if (programme.titles != null) {
+                    for (String title : programme.titles) addPostings(title, index, words, postingLists, split, text);
+                }
+                addPostings(programme.desc, index, words, postingLists, split, text);
+                addPostings(programme.directors, index, words, postingLists, split, text);
+                addPostings(programme.writers, index, words, postingLists, split, text);
+                addPostings(programme.actors, index, words, postingLists, split, text);
+            }
+            String[] sorted = words.keySet().toArray(new String[0]);
+            java.util.Arrays.sort(sorted);
+            int termCount = sorted.length, termChars = 0;
+            int[] termOffsetArray = new int[termCount + 1], postingOffsetArray = new int[termCount + 1];
+            java.io.ByteArrayOutputStream postings = new java.io.ByteArrayOutputStream();
+            for (int t = 0; t < termCount; t++) {
+                termOffsetArray[t] = termChars;
+                termChars += sorted[t].length();
+                postingOffsetArray[t] = postings.size();
+                CueSearchIndex.IntList programmes = postingLists.get(words.get(sorted[t]));
+                for (int i = 0, previous = 0; i < programmes.size; i++) {
+                    int gap = programmes.values[i] - previous;
+                    previous = programmes.values[i];
+                    while ((gap & ~0x7F) != 0) {
+                        postings.write((gap & 0x7F) | 0x80);
+                        gap >>>= 7;
+                    }
+                    postings.write(gap);
+                }
+            }
+            termOffsetArray[termCount] = termChars;
+            postingOffsetArray[termCount] = postings.size();
+            int postingBytes = postings.size();
+            long size = HEADER_SIZE + EpgSnapshot.align((termCount + 1) * 4) * 2L + EpgSnapshot.align(termChars * 2) + postingBytes;
+            File temp = new File(target.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel file = raf.getChannel()) {
+                raf.setLength(size);
+                MappedByteBuffer out = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.order(EpgSnapshot.ORDER);
+                out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n).putInt(termCount).putInt(termChars).putInt(postingBytes).putLong(guide.fingerprint());
+                EpgSnapshot.putInts(out, termOffsetArray);
+                EpgSnapshot.putInts(out, postingOffsetArray);
+                for (String term : sorted) {
+                    for (int i = 0; i < term.length(); i++) out.putChar(term.charAt(i));
+                }
+                EpgSnapshot.pad(out);
+                out.put(postings.toByteArray());
+                out.force();
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Cannot move guide search index into " + target);
+            }
+            return target;
+        }
+
+        private static void addPostings(String value, int index, java.util.HashMap<String, Integer> words,
+                                        List<CueSearchIndex.IntList> postingLists, java.util.HashMap<String, int[]> split, StringBuilder text) {
+            if (value == null) return;
+            int[] terms = split.get(value);
+            if (terms == null) {
+                text.setLength(0);
+                CueSearchIndex.normalizeInto(value, text);
+                CueSearchIndex.IntList found = new CueSearchIndex.IntList();
+                int wordStart = -1;
+                for (int i = 0; i <= text.length(); i++) {
+                    if (i == text.length() || text.charAt(i) == ' ') {
+                        if (wordStart >= 0) {
+                            String word = text.substring(wordStart, i);
+                            Integer term = words.get(word);
+                            if (term == null) {
+                                words.put(word, term = postingLists.size());
+                                postingLists.add(new CueSearchIndex.IntList());
+                            }
+                            found.add(term);
+                        }
+                        wordStart = -1;
+                    } else if (wordStart < 0) {
+                        wordStart = i;
+                    }
+                }
+                split.put(value, terms = found.toArray());
+            }
+            for (int term : terms) {
+                CueSearchIndex.IntList programmes = postingLists.get(term);
+                if (programmes.size == 0 || programmes.values[programmes.size - 1] != index) programmes.add(index);
+            }
+        }
+
+        int termCount() { return termCount; }
+
+        // Programme indexes that have every word of the query at the start of some word, at most limit of them:
+        // what is on air at 'now' first, then what starts later, soonest first, then what already ended, latest first.
+        int[] search(String query, long now, int limit) {
+            String normalized = CueSearchIndex.normalize(query);
+            if (normalized.isEmpty() || limit <= 0) return new int[0];
+            java.util.BitSet matches = null;
+            for (String word : normalized.split(" ")) {
+                java.util.BitSet programmes = prefixMatches(word);
+                if (matches == null) matches = programmes; else matches.and(programmes);
+                if (matches.isEmpty()) return new int[0];
+            }
+            long[] ranked = new long[matches.cardinality()];
+            int found = 0;
+            for (int index = matches.nextSetBit(0); index >= 0; index = matches.nextSetBit(index + 1)) {
+                ranked[found++] = rank(index, now);
+            }
+            java.util.Arrays.sort(ranked);
+            int[] hits = new int[Math.min(limit, found)];
+            for (int i = 0; i < hits.length; i++) hits[i] = (int) (ranked[i] & ((1 << INDEX_BITS) - 1));
+            return hits;
+        }
+
+        // Sorts as (on now, upcoming, over), then by start seconds away from now, then by index.
+        private long rank(int index, long now) {
+            long start = guide.start(index);
+            int group = start <= now && now < guide.stop(index) ? 0 : start > now ? 1 : 2;
+            long seconds = start / 1000 - now / 1000;
+            if (group == 2) seconds = -seconds;
+            seconds = Math.max(0, Math.min(0xFFFFFFFFL, seconds + 0x80000000L));
+            return (long) group << (32 + INDEX_BITS) | seconds << INDEX_BITS | index;
+        }
+
+        private java.util.BitSet prefixMatches(String prefix) {
+            java.util.BitSet programmes = new java.util.BitSet(guide.programmeCount());
+            for (int t = lowerBound(prefix); t < termCount && startsWith(t, prefix); t++) {
+                int at = postingPoolOffset + postingOffsets.get(t), end = postingPoolOffset + postingOffsets.get(t + 1), index = 0;
+                while (at < end) {
+                    int gap = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = buffer.get(at++);
+                        gap |= (b & 0x7F) << shift;
+                        if (b >= 0) break;
+                    }
+                    index += gap;
+                    programmes.set(index);
+                }
+            }
+            return programmes;
+        }
+
+        // The first term not less than the prefix, comparing chars as String.compareTo did when the terms were sorted.
+        private int lowerBound(String prefix) {
+            int lo = 0, hi = termCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(mid, prefix) < 0) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private int compare(int term, String word) {
+            int from = termOffsets.get(term), length = termOffsets.get(term + 1) - from;
+            for (int i = 0; i < Math.min(length, word.length()); i++) {
+                char c = terms.get(from + i);
+                if (c != word.charAt(i)) return c - word.charAt(i);
+            }
+            return length - word.length();
+        }
+
+        private boolean startsWith(int term, String prefix) {
+            int from = termOffsets.get(term);
+            if (termOffsets.get(term + 1) - from < prefix.length()) return false;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (terms.get(from + i) != prefix.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+    //endregion
+
+    //region Guide Ticker (Internal)
+    // Hierarchical timer wheel on one second ticks: four levels of 64 slots reach about 194 days ahead, and
+    // scheduling, cancelling and expiring cost the same for one timer or thousands. Timers are small int ids
+    // (the ticker's lines) chained through arrays, so rescheduling one allocates nothing.
+    static final class TimerWheel {
+        private static final int SLOT_BITS = 6, SLOTS = 1 << SLOT_BITS, LEVELS = 4;
+        private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+        private final int[] heads = new int[LEVELS * SLOTS], counts = new int[LEVELS];
+        private int[] next = new int[0], prev = new int[0], slotOf = new int[0];
+        private long[] ticks = new long[0];
+        private long current;
+        private int size;
+
+        TimerWheel(long nowMillis) { clear(nowMillis); }
+
+        void clear(long nowMillis) {
+            java.util.Arrays.fill(heads, -1);
+            java.util.Arrays.fill(counts, 0);
+            java.util.Arrays.fill(slotOf, -1);
+            current = nowMillis / 1000;
+            size = 0;
+        }
+
+        int size() { return size; }
+
+        // Due once the clock reaches deadlineMillis, rounded up to a whole second and never before the next one.
+        // Replaces the id's earlier deadline, if any.
+        void schedule(int id, long deadlineMillis) {
+            if (id >= slotOf.length) grow(id + 1);
+            if (slotOf[id] >= 0) unlink(id);
+            ticks[id] = Math.max(current + 1, (deadlineMillis + 999) / 1000);
+            link(id);
+        }
+
+        void cancel(int id) {
+            if (id < slotOf.length && slotOf[id] >= 0) unlink(id);
+        }
+
+        // Moves the clock to nowMillis, cascading each higher slot down as its turn comes, and writes the ids that
+        // came due to expired, which must have room for every scheduled id. Returns how many.
+        int advance(long nowMillis, int[] expired) {
+            long target = nowMillis / 1000;
+            int count = 0;
+            while (current < target) {
+                if (size == 0) {
+                    current = target;
+                    break;
+                }
+                // With the bottom level empty nothing comes due before the next occupied slot cascades, so a long
+                // sleep costs a step per occupied slot rather than one per second.
+                if (counts[0] == 0) current = Math.min(target, nextCascade()) - 1;
+                current++;
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((current & ((1L << (SLOT_BITS * level)) - 1)) != 0) continue;
+                    int slot = level * SLOTS + (int) ((current >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                    for (int id = take(slot); id >= 0; ) {
+                        int following = next[id];
+                        link(id);
+                        id = following;
+                    }
+                }
+                for (int id = take((int) (current & (SLOTS - 1))); id >= 0; ) {
+                    int following = next[id];
+                    if (ticks[id] <= current) {
+                        slotOf[id] = -1;
+                        counts[0]--;
+                        size--;
+                        expired[count++] = id;
+                    } else {
+                        link(id);
+                    }
+                    id = following;
+                }
+            }
+            return count;
+        }
+
+        // The earliest deadline in milliseconds, or Long.MAX_VALUE when nothing is scheduled. Within a level the
+        // slots are visited in the order they come due, so only the first occupied slot of each level is read;
+        // the top level is read whole, since ticks past its reach sit in whatever slot was furthest when filed.
+        long nextWake() {
+            if (size == 0) return Long.MAX_VALUE;
+            long earliest = Long.MAX_VALUE;
+            for (int level = 0; level < LEVELS; level++) {
+                int shift = SLOT_BITS * level;
+                long base = current >>> shift;
+                for (int k = 1; k <= (level == 0 ? SLOTS - 1 : SLOTS); k++) {
+                    int head = heads[level * SLOTS + (int) ((base + k) & (SLOTS - 1))];
+                    if (head < 0) continue;
+                    for (int id = head; id >= 0; id = next[id]) earliest = Math.min(earliest, ticks[id]);
+                    if (level < LEVELS - 1) break;
+                }
+            }
+            return earliest * 1000;
+        }
+
+        // The tick at which the first occupied slot above the bottom level is due to cascade.
+        private long nextCascade() {
+            long earliest = Long.MAX_VALUE;
+            for (int level = 1; level < LEVELS; level++) {
+                if (counts[level] == 0) continue;
+                int shift = SLOT_BITS * level;
+                long base = current >>> shift;
+                for (int k = 1; k <= SLOTS; k++) {
+                    if (heads[level * SLOTS + (int) ((base + k) & (SLOTS - 1))] < 0) continue;
+                    earliest = Math.min(earliest, (base + k) << shift);
+                    break;
+                }
+            }
+            return earliest;
+        }
+
+        // Files the id by how far off its tick is: level l holds ticks less than 64^(l+1) seconds away. Ticks
+        // beyond the top level wait in its furthest slot and are filed again when it cascades.
+        private void link(int id) {
+            long delta = Math.min(ticks[id] - current, MAX_DELTA), tick = current + delta;
+            int level = 0;
+            while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) level++;
+            int slot = level * SLOTS + (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+            int head = heads[slot];
+            next[id] = head;
+            prev[id] = -1;
+            if (head >= 0) prev[head] = id;
+            heads[slot] = id;
+            if (slotOf[id] >= 0) counts[slotOf[id] / SLOTS]--; else size++;
+            counts[level]++;
+            slotOf[id] = slot;
+        }
+
+        private void unlink(int id) {
+            int slot = slotOf[id];
+            if (prev[id] >= 0) next[prev[id]] = next[id]; else heads[slot] = next[id];
+            if (next[id] >= 0) prev[next[id]] = prev[id];
+            counts[slot / SLOTS]--;
+            slotOf[id] = -1;
+            size--;
+        }
+
+        // Empties a slot and returns its old chain; the ids keep their slotOf until they are linked again.
+        private int take(int slot) {
+            int head = heads[slot];
+            heads[slot] = -1;
+            return head;
+        }
+
+        private void grow(int capacity) {
+            int from = slotOf.length;
+            capacity = Math.max(capacity, from * 2);
+            next = java.util.Arrays.copyOf(next, capacity);
+            prev = java.util.Arrays.copyOf(prev, capacity);
+            ticks = java.util.Arrays.copyOf(ticks, capacity);
+            slotOf = java.util.Arrays.copyOf(slotOf, capacity);
+            java.util.Arrays.fill(slotOf, from, capacity, -1);
+        }
+    }
+    //endregion
+
+    //region Release Matching (Internal)
+    // What a scene release name says about its film or episode: "House.of.the.Dragon.S01.Episode1.2022.1080p.bluray"
+    // is "House of the Dragon", season 1, episode 1, 2022. The title runs up to the first season, episode, year or
+    // quality tag; the numbers are -1 when the name does not give them.
+    static final class ReleaseName {
+        private static final String[] EXTENSIONS = {".srt", ".ass", ".ssa", ".sub", ".vtt", ".mkv", ".mp4", ".avi"};
+        private static final java.util.HashSet<String> TAGS = new java.util.HashSet<>(java.util.Arrays.asList(
+                "4k", "uhd", "hdr", "10bit", "bluray", "blu-ray", "bdrip", "brrip", "remux", "webrip", "web-dl", "webdl", "web",
+                "hdtv", "hdrip", "dvdrip", "dvd", "x264", "x265", "h264", "h265", "hevc", "avc", "aac", "ac3", "dts", "proper",
+                "repack", "internal", "extended", "unrated", "remastered", "complete", "multi", "subbed", "amzn", "nf"));
+
+        final String title;
+        final int year, season, episode;
+
+        private ReleaseName(String title, int year, int season, int episode) {
+            this.title = title;
+            this.year = year;
+            this.season = season;
+            this.episode = episode;
+        }
+
+        static ReleaseName parse(String name) {
+            name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+            String lower = name.toLowerCase(Locale.ROOT);
+            for (String extension : EXTENSIONS) {
+                if (lower.endsWith(extension)) {
+                    name = name.substring(0, name.length() - extension.length());
+                    break;
+                }
+            }
+            List<String> tokens = new ArrayList<>();
+            int from = 0;
+            for (int i = 0; i <= name.length(); i++) {
+                char c = i < name.length() ? name.charAt(i) : ' ';
+                if (c == '.' || c == '_' || c == ' ' || c == '[' || c == ']' || c == '(' || c == ')') {
+                    if (i > from) tokens.add(name.substring(from, i));
+                    from = i + 1;
+                }
+            }
+            StringBuilder title = new StringBuilder();
+            int year = -1, season = -1, episode = -1;
+            boolean inTitle = true;
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i).toLowerCase(Locale.ROOT);
+                String following = i + 1 < tokens.size() ? tokens.get(i + 1) : "";
+                int number;
+                if (token.length() > 1 && token.charAt(0) == 's' && (number = number(token, 1)) >= 0) {
+                    // S01, S01E01, S01E01E02
+                    season = number;
+                    int e = token.indexOf('e', 1);
+                    if (e > 0 && episode < 0) episode = number(token, e + 1);
+                } else if ((number = episodeNumber(token)) >= 0) {
+                    if (episode < 0) episode = number;
+                } else if (("episode".equals(token) || "ep".equals(token)) && (number = number(following, 0)) >= 0) {
+                    if (episode < 0) episode = number;
+                    i++;
+                } else if ("season".equals(token) && (number = number(following, 0)) >= 0) {
+                    season = number;
+                    i++;
+                } else if (token.indexOf('x') > 0 && token.indexOf('x') <= 2 && (number = number(token, 0)) >= 0 && number(token, token.indexOf('x') + 1) >= 0) {
+                    // 1x05
+                    season = number;
+                    if (episode < 0) episode = number(token, token.indexOf('x') + 1);
+                } else if (isYear(token) && i > 0 && !isYear(following.toLowerCase(Locale.ROOT))) {
+                    // The last of two years is the release's, so "Blade.Runner.2049.2017" keeps 2049 in the title.
+                    if (year < 0) year = number(token, 0);
+                } else if (TAGS.contains(token) || isResolution(token)) {
+                    inTitle = false;
+                    continue;
+                } else {
+                    if (inTitle) {
+                        if (title.length() > 0) title.append(' ');
+                        title.append(tokens.get(i));
+                    }
+                    continue;
+                }
+                inTitle = false;
+            }
+            return new ReleaseName(title.toString(), year, season, episode);
+        }
+
+        // E05, Ep05, Episode5.
+        private static int episodeNumber(String token) {
+            int digits = token.startsWith("episode") ? 7 : token.startsWith("ep") ? 2 : token.startsWith("e") ? 1 : -1;
+            return digits > 0 && digits < token.length() ? number(token, digits) : -1;
+        }
+
+        private static boolean isYear(String token) {
+            return token.length() == 4 && (token.startsWith("19") || token.startsWith("20")) && number(token, 0) >= 0;
+        }
+
+        private static boolean isResolution(String token) {
+            return token.length() >= 4 && token.length() <= 5 && token.charAt(token.length() - 1) == 'p' && number(token.substring(0, token.length() - 1), 0) >= 0;
+        }
+
+        // The whole number at text[from..], ending at the string's end or at a letter; -1 if there is none.
+        private static int number(String text, int from) {
+            int value = 0, i = from;
+            while (i < text.length() && i - from < 6 && text.charAt(i) >= '0' && text.charAt(i) <= '9') value = value * 10 + text.charAt(i++) - '0';
+            if (i == from || (i < text.length() && !Character.isLetter(text.charAt(i)))) return -1;
+            return value;
+        }
+    }
+
+    // Fuzzy title lookup over a guide snapshot: every distinct title, in every language, normalized as the searches
+    // do it and cut into letter trigrams with a space at each end, so a release title finds its programme despite
+    // dots, case, accents, a missing article or a small spelling difference. Titles repeat across a guide, so a
+    // few thousand are compared instead of every programme, and only through the trigrams they share with the query.
+    // The trigram lists are sorted arrays, (trigram, title) pairs packed into longs and sorted once, not a map.
+    static final class EpgTitleMatcher {
+        // Jaccard similarity of the trigram sets below which a title is not considered the same.
+        static final float MIN_SIMILARITY = 0.5f;
+        private static final int TITLE_BITS = 16, INDEX_BITS = 22, MINUTE_BITS = 20;
+        private static final int EPISODE_POINTS = 300, SEASON_POINTS = 100, YEAR_POINTS = 100, YEAR_PENALTY = 200;
+
+        final EpgSnapshot guide;
+        private final long[] grams;
+        private final int[] gramOffsets, gramTitles, gramCounts;
+        private final int[][] titleProgrammes;
+
+        private EpgTitleMatcher(EpgSnapshot guide, long[] grams, int[] gramOffsets, int[] gramTitles, int[] gramCounts, int[][] titleProgrammes) {
+            this.guide = guide;
+            this.grams = grams;
+            this.gramOffsets = gramOffsets;
+            this.gramTitles = gramTitles;
+            this.gramCounts = gramCounts;
+            this.titleProgrammes = titleProgrammes;
+        }
+
+        static EpgTitleMatcher build(EpgSnapshot guide) throws IOException {
+            java.util.HashMap<String, Integer> raw = new java.util.HashMap<>(), normalized = new java.util.HashMap<>();
+            List<CueSearchIndex.IntList> programmes = new ArrayList<>();
+            long[] pairs = new long[1024];
+            int pairCount = 0;
+            StringBuilder text = new StringBuilder(128);
+            for (int index = 0; index < guide.programmeCount(); index++) {
+                for (int t = 0; t < guide.titleCount(index); t++) {
+                    String title = guide.title(index, t);
+                    Integer id = raw.get(title);
+                    if (id == null) {
+                        pad(title, text);
+                        String key = text.toString();
+                        id = normalized.get(key);
+                        if (id == null) {
+                            id = programmes.size();
+                            if (id >= 1 << TITLE_BITS) throw new IOException("Guide has too many titles to match: " + id);
+                            normalized.put(key, id);
+                            programmes.add(new CueSearchIndex.IntList());
+                            if (pairCount + key.length() > pairs.length) pairs = java.util.Arrays.copyOf(pairs, Math.max(pairs.length * 2, pairCount + key.length()));
+                            for (int i = 2; i < key.length(); i++) pairs[pairCount++] = trigram(key, i) << TITLE_BITS | id;
+                        }
+                        raw.put(title, id);
+                    }
+                    CueSearchIndex.IntList list = programmes.get(id);
+                    if (list.size == 0 || list.values[list.size - 1] != index) list.add(index);
+                }
+            }
+            // Sorting groups each trigram's titles together in id order; a trigram a title has twice shows up as a repeat.
+            java.util.Arrays.sort(pairs, 0, pairCount);
+            int[] gramCounts = new int[programmes.size()], gramTitles = new int[pairCount];
+            long[] grams = new long[pairCount];
+            CueSearchIndex.IntList offsets = new CueSearchIndex.IntList();
+            int gramCount = 0, titleCount = 0;
+            for (int i = 0; i < pairCount; i++) {
+                if (i > 0 && pairs[i] == pairs[i - 1]) continue;
+                long gram = pairs[i] >> TITLE_BITS;
+                if (gramCount == 0 || grams[gramCount - 1] != gram) {
+                    grams[gramCount++] = gram;
+                    offsets.add(titleCount);
+                }
+                int id = (int) (pairs[i] & ((1 << TITLE_BITS) - 1));
+                gramTitles[titleCount++] = id;
+                gramCounts[id]++;
+            }
+            offsets.add(titleCount);
+            int[][] titleProgrammes = new int[programmes.size()][];
+            for (int id = 0; id < titleProgrammes.length; id++) titleProgrammes[id] = programmes.get(id).toArray();
+            return new EpgTitleMatcher(guide, java.util.Arrays.copyOf(grams, gramCount), offsets.toArray(),
+                    java.util.Arrays.copyOf(gramTitles, titleCount), gramCounts, titleProgrammes);
+        }
+
+        int titleCount() { return titleProgrammes.length; }
+
+        // Programmes starting at or after 'from' that the release is likely to be, best first, at most limit of them.
+        // A title has to be similar enough; then a season or episode the guide lists must be the release's, and
+        // an agreeing year counts for the film while a distant one counts against it (remakes share titles).
+        // Among equals the earliest start comes first.
+        int[] match(ReleaseName release, long from, int limit) {
+            StringBuilder text = new StringBuilder(release.title.length() + 2);
+            pad(release.title, text);
+            if (text.length() < 3 || limit <= 0) return new int[0];
+            long[] query = new long[text.length() - 2];
+            for (int i = 2; i < text.length(); i++) query[i - 2] = trigram(text, i);
+            java.util.Arrays.sort(query);
+            int[] shared = new int[titleProgrammes.length];
+            CueSearchIndex.IntList touched = new CueSearchIndex.IntList();
+            int distinct = 0;
+            for (int q = 0; q < query.length; q++) {
+                if (q > 0 && query[q] == query[q - 1]) continue;
+                distinct++;
+                int gram = java.util.Arrays.binarySearch(grams, query[q]);
+                if (gram < 0) continue;
+                for (int i = gramOffsets[gram]; i < gramOffsets[gram + 1]; i++) {
+                    if (shared[gramTitles[i]]++ == 0) touched.add(gramTitles[i]);
+                }
+            }
+            CueSearchIndex.IntList ranked = new CueSearchIndex.IntList();
+            List<Long> keys = new ArrayList<>();
+            for (int t = 0; t < touched.size; t++) {
+                int id = touched.values[t];
+                float similarity = shared[id] / (float) (distinct + gramCounts[id] - shared[id]);
+                if (similarity < MIN_SIMILARITY) continue;
+                for (int index : titleProgrammes[id]) {
+                    long start = guide.start(index);
+                    if (start < from) continue;
+                    int points = Math.round(similarity * 1000);
+                    String onscreen = guide.field(EpgSnapshot.EPISODE, index);
+                    if (release.episode >= 0 || release.season >= 0) {
+                        int season = numberAfter(onscreen, 'S'), episode = numberAfter(onscreen, 'E');
+                        if (release.episode >= 0 && episode >= 0) {
+                            if (episode != release.episode) continue;
+                            points += EPISODE_POINTS;
+                        }
+                        if (release.season >= 0 && season >= 0) {
+                            if (season != release.season) continue;
+                            points += SEASON_POINTS;
+                        }
+                    }
+                    int year = release.year >= 0 ? numberAfter(guide.field(EpgSnapshot.DATE, index), '\0') : -1;
+                    if (year >= 0) points += Math.abs(year - release.year) <= 1 ? YEAR_POINTS : -YEAR_PENALTY;
+                    long minutes = Math.min((start - from) / 60_000, (1L << MINUTE_BITS) - 1);
+                    keys.add((long) (2000 - points) << (MINUTE_BITS + INDEX_BITS) | minutes << INDEX_BITS | index);
+                }
+            }
+            Collections.sort(keys);
+            int[] hits = new int[Math.min(limit, keys.size())];
+            for (int i = 0; i < hits.length; i++) hits[i] = (int) (keys.get(i) & ((1 << INDEX_BITS) - 1));
+            return hits;
+        }
+
+        // " normalized title ", the form both sides are cut into trigrams from.
+        private static void pad(String title, StringBuilder out) {
+            out.setLength(0);
+            out.append(' ');
+            CueSearchIndex.normalizeInto(title, out);
+            if (out.charAt(out.length() - 1) != ' ') out.append(' ');
+        }
+
+        private static long trigram(CharSequence text, int end) {
+            return (long) text.charAt(end - 2) << 32 | (long) text.charAt(end - 1) << 16 | text.charAt(end);
         }
-        if (entries.isEmpty()) throw new IOException("No valid subtitle entries found.");
-        Collections.sort(entries, new Comparator<SubtitleEntry>() {
-            @Override
-            public int compare(SubtitleEntry o1, SubtitleEntry o2) {
-                return Long.compare(o1.startTimeMillis, o2.startTimeMillis);
-            }
-        });
-        return entries;
-    }
 
-    private long parseSrtTime(String time) {
-        String cleanTime = time.split(" ")[0];
-        String[] parts = cleanTime.replace(',', '.').split("\\.");
-        String[] hms = parts[0].split(":");
-        long ms = Long.parseLong(parts[1]);
-        return (Long.parseLong(hms[0]) * 3600 + Long.parseLong(hms[1]) * 60 + Long.parseLong(hms[2])) * 1000 + ms;
+        // The number after the first 'key' that starts a word of an onscreen episode ("S1 E3") or a date ("2020"
+        // with key '\0'); -1 when there is none.
+        private static int numberAfter(String text, char key) {
+            if (text == null) return -1;
+            for (int i = 0; i < text.length(); i++) {
+                if (i > 0 && text.charAt(i - 1) != ' ') continue;
+                int from = key == '\0' ? i : i + 1;
+                if (key != '\0' && text.charAt(i) != key) continue;
+                int value = 0, end = from;
+                while (end < text.length() && end - from < 4 && Character.isDigit(text.charAt(end))) value = value * 10 + text.charAt(end++) - '0';
+                if (end > from) return value;
+            }
+            return -1;
+        }
     }
     //endregion
-    
+
     public static class SubtitleService extends Service {
         private static final String PREFS_NAME = "SubtitleSettings";
+        private static final String PROFILE_FILE = "sync-profiles.bin";
+        // A saved position is offered for resuming only when it is this far into the film and this far from its end.
+        private static final long RESUME_MIN_MS = 30_000, RESUME_END_MARGIN_MS = 60_000;
         private static final String CHANNEL_ID = "SubtitleServiceChannel";
         private static final int NOTIFICATION_ID = 1;
 
@@ -355,10 +5082,42 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
         private long startTime, pauseTime = 0, totalDuration = 0;
         private int currentIndex = -1;
 		private int currentFontIndex = 0;
+        // What the font picker steps through: the registry's index, or just the current font until the first scan is done.
+        private List<String> pickerFonts;
         private WindowManager.LayoutParams rootParams;
         private float currentTextColorHue = -1; // -1 signifies WHITE
         private String currentFont = "Default";
-        private List<SubtitleEntry> subtitleData;
+        private CompiledTimeline subtitleData;
+        private CueTimeline timeline;
+        private int[] activeCues = new int[0], shownCues = new int[0];
+        private int shownCount = 0;
+        private String timelinePath;
+        private long nudgeTotal = 0;
+        private PlaybackSnapshot.Writer snapshotWriter;
+        private boolean snapshotPending = false;
+        private CueShaper cueShaper;
+        private SyncRows syncRows;
+        private SubtitleSyncAdapter syncAdapter;
+        private LinearLayout syncPanel;
+        private EditText syncSearchBox;
+        private CueSearchIndex searchIndex;
+        private Retime retime = Retime.IDENTITY;
+        private SyncProfileStore profileStore;
+        private SyncProfileStore.Profile profile;
+        // First point of a two-point sync: a cue start and the player time it was heard at; -1 when none.
+        private long syncMarkCue = -1, syncMarkPlayer;
+        private FontRegistry fontRegistry;
+        // Seeks and nudges arrive in bursts while the slider is dragged; they are saved at most this often.
+        private static final long SNAPSHOT_INTERVAL_MS = 1000;
+        // Kept apart from PREFS_NAME, which resetting the look clears.
+        private static final String TICKER_PREFS = "GuideTicker";
+        private TextView tickerView;
+        private EpgSnapshot tickerGuide;
+        private TimerWheel tickerWheel;
+        private int[] tickerChannels = new int[0], tickerExpired = new int[0];
+        private String[] tickerLines = new String[0];
+        private java.text.DateFormat tickerClock;
+        private BroadcastReceiver tickerReceiver;
 
         @Override
         public IBinder onBind(Intent intent) { return null; }
@@ -368,18 +5127,75 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             super.onCreate();
             timerHandler = new Handler();
             controlsHideHandler = new Handler();
+            cueShaper = new CueShaper();
+            try {
+                profileStore = new SyncProfileStore(new File(getFilesDir(), PROFILE_FILE));
+            } catch (IOException e) {
+                Log.w(TAG, "Sync profiles unavailable: " + e.getMessage());
+            }
+            fontRegistry = FontRegistry.get(this);
+            fontRegistry.buildIndexAsync();
             windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
         }
 
         @Override
         public int onStartCommand(Intent intent, int flags, int startId) {
-            if (intent != null && intent.hasExtra("SUBTITLE_DATA")) {
-                this.subtitleData = (List<SubtitleEntry>) intent.getSerializableExtra("SUBTITLE_DATA");
+            if (intent != null && intent.hasExtra("SEEK_TO")) {
+                if (subtitleData != null && floatingRootView != null) seekTo(retime.toPlayer(intent.getLongExtra("SEEK_TO", 0)));
+                else if (subtitleData == null) stopSelf();
+                return START_STICKY;
+            }
+            if (intent != null && intent.hasExtra("GUIDE_TICKER")) {
+                String[] channels = intent.getStringArrayExtra("GUIDE_TICKER");
+                StringBuilder joined = new StringBuilder();
+                for (String channel : channels) {
+                    if (joined.length() > 0) joined.append('\n');
+                    joined.append(channel.trim());
+                }
+                getSharedPreferences(TICKER_PREFS, Context.MODE_PRIVATE).edit().putString("channels", joined.toString()).apply();
+                if (floatingRootView != null) startTicker();
+                else if (subtitleData == null) stopSelf();
+                return START_STICKY;
+            }
+            PlaybackSnapshot restored = null;
+            long lastPosition = 0;
+            // Set when an alarm armed by SchedulePlaybackForRelease starts playback: the wall clock time of position 0.
+            long scheduledStart = intent != null ? intent.getLongExtra("START_AT", -1) : -1;
+            // The alarm started us with startForegroundService, which has to be answered before anything can fail.
+            if (scheduledStart >= 0) startAsForegroundService();
+            if (intent != null && intent.hasExtra("TIMELINE_FILE")) {
+                saveProfile();
+                if (!mapTimeline(intent.getStringExtra("TIMELINE_FILE")) && scheduledStart >= 0) {
+                    // Never start whatever was playing before in place of the scheduled subtitles.
+                    Log.e(TAG, "Scheduled subtitles are gone, not starting.");
+                    if (floatingRootView == null) {
+                        stopForeground(true);
+                        stopSelf();
+                    }
+                    return START_NOT_STICKY;
+                }
+                this.nudgeTotal = profile != null ? profile.nudge : 0;
+                lastPosition = profile != null ? profile.position : 0;
+            } else if (intent == null && subtitleData == null) {
+                // Restarted by the system after being killed: pick up from the last snapshot.
+                restored = PlaybackSnapshot.read(snapshotFile());
+                if (restored != null && (!mapTimeline(restored.timelinePath) || subtitleData.sourceKey() != restored.sourceKey)) {
+                    Log.w(TAG, "Playback snapshot points at a timeline that is gone, not resuming.");
+                    subtitleData = null;
+                    restored = null;
+                }
             }
-            if (subtitleData != null && !subtitleData.isEmpty() && floatingRootView == null) {
+            if (subtitleData != null && subtitleData.size() > 0 && floatingRootView == null) {
                 startAsForegroundService();
                 createFloatingWidget();
                 startTimingLoop();
+                if (restored != null) resumeFrom(restored);
+                else if (scheduledStart >= 0) startScheduled(scheduledStart);
+                else if (lastPosition > 0) offerResume(lastPosition);
+            } else if (subtitleData != null && subtitleData.size() > 0 && scheduledStart >= 0) {
+                timerHandler.removeCallbacks(subtitleUpdater);
+                startTimingLoop();
+                startScheduled(scheduledStart);
             } else if (subtitleData == null) {
                 Log.e(TAG, "Service started without subtitle data, stopping.");
                 stopSelf();
@@ -387,6 +5203,105 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             return START_STICKY;
         }
 
+        private boolean mapTimeline(String path) {
+            try {
+                this.subtitleData = CompiledTimeline.map(new File(path));
+                this.timeline = subtitleData.newIndex();
+                this.activeCues = new int[timeline.maxOverlap()];
+                this.shownCues = new int[timeline.maxOverlap()];
+                this.shownCount = 0;
+                this.timelinePath = path;
+                this.profile = loadProfile(subtitleData.sourceKey());
+                this.retime = profile != null && profile.rate >= Retime.MIN_RATE && profile.rate <= Retime.MAX_RATE ? new Retime(profile.rate, profile.offset) : Retime.IDENTITY;
+                this.syncMarkCue = -1;
+                cueShaper.invalidate();
+                prepareSyncRows();
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Could not map subtitle timeline", e);
+                return false;
+            }
+        }
+
+        private File snapshotFile() {
+            return new File(new File(getCacheDir(), TIMELINE_DIR), "playback.snapshot");
+        }
+
+        private final Runnable snapshotSaver = new Runnable() {
+            @Override public void run() {
+                snapshotPending = false;
+                saveSnapshot();
+            }
+        };
+
+        // While playing, the saved position plus the clock at save time describes playback until the next
+        // pause, seek or nudge, so nothing has to be written as time simply passes.
+        private void saveSnapshot() {
+            if (subtitleData == null || timelinePath == null) return;
+            try {
+                if (snapshotWriter == null) snapshotWriter = new PlaybackSnapshot.Writer(snapshotFile());
+                snapshotWriter.write(timelinePath, subtitleData.sourceKey(), currentPosition(), clockNow(), nudgeTotal, isPaused);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not save playback snapshot: " + e.getMessage());
+            }
+            saveProfile();
+        }
+
+        private SyncProfileStore.Profile loadProfile(long sourceKey) {
+            if (profileStore == null) return null;
+            try {
+                return profileStore.get(sourceKey);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read sync profile: " + e.getMessage());
+                return null;
+            }
+        }
+
+        // Rides along with every snapshot save (start, pause, resume, and throttled seeks and nudges), so the
+        // profile is never further behind than the snapshot.
+        private void saveProfile() {
+            if (profileStore == null || subtitleData == null) return;
+            if (profile == null || profile.key != subtitleData.sourceKey()) profile = new SyncProfileStore.Profile(subtitleData.sourceKey());
+            profile.position = currentPosition();
+            profile.nudge = nudgeTotal;
+            profile.rate = retime.rate;
+            profile.offset = retime.offset;
+            try {
+                profileStore.put(profile);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not save sync profile: " + e.getMessage());
+            }
+        }
+
+        // The video may or may not resume where it stopped, so this only parks the player at the old position,
+        // paused, for the user to start together with the video.
+        private void offerResume(long position) {
+            if (position < RESUME_MIN_MS || position > totalDuration - RESUME_END_MARGIN_MS) return;
+            pausePlayback();
+            seekTo(position);
+            Toast.makeText(this, "Resuming at " + formatDuration(position) + ". Press \u25B6 when the video gets there.", Toast.LENGTH_LONG).show();
+        }
+
+        // A broadcast does not wait: an alarm that fired late starts the subtitles as far in as the programme is.
+        private void startScheduled(long scheduledStart) {
+            long late = System.currentTimeMillis() - scheduledStart;
+            if (late > 0) seekTo(nudgeTotal + late);
+        }
+
+        private void requestSnapshot() {
+            if (snapshotPending) return;
+            snapshotPending = true;
+            timerHandler.postDelayed(snapshotSaver, SNAPSHOT_INTERVAL_MS);
+        }
+
+        private void resumeFrom(PlaybackSnapshot snapshot) {
+            long now = clockNow();
+            nudgeTotal = snapshot.nudge;
+            if (snapshot.paused || now < snapshot.savedAt) pausePlayback();
+            seekTo(snapshot.positionAt(now));
+            saveSnapshot();
+        }
+
         private void startAsForegroundService() {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Subtitle Player Service", NotificationManager.IMPORTANCE_LOW);
@@ -408,9 +5323,14 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             super.onDestroy();
             if (floatingRootView != null && floatingRootView.isAttachedToWindow()) { windowManager.removeView(floatingRootView); }
             if (settingsPanelView != null && settingsPanelView.isAttachedToWindow()) { windowManager.removeView(settingsPanelView); }
-            if (syncListView != null && syncListView.isAttachedToWindow()) { windowManager.removeView(syncListView); }
+            if (syncPanel != null && syncPanel.isAttachedToWindow()) { windowManager.removeView(syncPanel); }
             timerHandler.removeCallbacksAndMessages(null);
             controlsHideHandler.removeCallbacksAndMessages(null);
+            stopTicker();
+            cueShaper.quit();
+            saveProfile();
+            if (profileStore != null) { profileStore.close(); }
+            if (snapshotWriter != null) { snapshotWriter.clear(); }
             floatingRootView = null;
             stopForeground(true);
         }
@@ -433,6 +5353,7 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             floatingTextView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 26);
             floatingTextView.setTextColor(Color.WHITE);
             floatingTextView.setGravity(Gravity.CENTER);
+            floatingTextView.setLayerCaching(true);
             floatingTextView.setOnClickListener(new View.OnClickListener() { @Override public void onClick(View v) { showControls(); }});
             mainContainer.addView(floatingTextView);
 
@@ -453,9 +5374,7 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
                 @Override public void onStartTrackingTouch(SeekBar seekBar) { isDraggingSlider = true; }
                 @Override public void onStopTrackingTouch(SeekBar seekBar) {
                     isDraggingSlider = false;
-                    if (!isPaused) {
-                        timerHandler.post(subtitleUpdater);
-                    }
+                    restartCueScheduler();
                 }
             });
             timeLayout.addView(timeLabel);
@@ -480,89 +5399,413 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             windowManager.addView(floatingRootView, rootParams);
             
             loadAndApplySettings();
+            startTicker();
+        }
+
+        // The now/next strip lives in the subtitle overlay itself, above the text, so it needs no window of its own.
+        // Each watched channel is one line and one timer in the wheel, due when its programme ends or the next one
+        // starts; the handler sleeps until the earliest of them, however many channels there are.
+        private void startTicker() {
+            stopTicker();
+            String saved = getSharedPreferences(TICKER_PREFS, Context.MODE_PRIVATE).getString("channels", "");
+            if (saved.isEmpty() || floatingRootView == null) return;
+            try {
+                tickerGuide = EpgSnapshot.map(new File(getCacheDir(), GUIDE_SNAPSHOT));
+            } catch (IOException e) {
+                Log.w(TAG, "No guide for the ticker: " + e.getMessage());
+                return;
+            }
+            List<Integer> found = new ArrayList<>();
+            for (String id : saved.split("\n")) {
+                int channel = tickerGuide.channelIndex(id);
+                if (channel >= 0) found.add(channel);
+                else Log.w(TAG, "Ticker channel not in the guide: " + id);
+            }
+            if (found.isEmpty()) return;
+            tickerChannels = new int[found.size()];
+            for (int i = 0; i < tickerChannels.length; i++) tickerChannels[i] = found.get(i);
+            tickerLines = new String[tickerChannels.length];
+            tickerExpired = new int[tickerChannels.length];
+            tickerClock = new java.text.SimpleDateFormat("HH:mm", Locale.getDefault());
+            if (tickerView == null) {
+                tickerView = new TextView(this);
+                tickerView.setLayoutParams(new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+                tickerView.setPadding(20, 5, 20, 5);
+                tickerView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 13);
+                tickerView.setTextColor(Color.WHITE);
+                tickerView.setBackgroundColor(0x99000000);
+                // A long watch list scrolls inside four lines instead of pushing the subtitles up the screen.
+                tickerView.setMaxLines(4);
+                tickerView.setMovementMethod(new ScrollingMovementMethod());
+                ((LinearLayout) floatingRootView.getChildAt(0)).addView(tickerView, 0);
+            }
+            long now = System.currentTimeMillis();
+            if (tickerWheel == null) tickerWheel = new TimerWheel(now);
+            else tickerWheel.clear(now);
+            for (int line = 0; line < tickerLines.length; line++) refreshTickerLine(line, now);
+            tickerView.setText(joinTickerLines());
+            tickerView.setVisibility(View.VISIBLE);
+            scheduleTicker();
+            // Handler delays stop counting in deep sleep and know nothing of clock changes, so either of these
+            // starts the strip over from the wall clock.
+            tickerReceiver = new BroadcastReceiver() {
+                @Override public void onReceive(Context context, Intent intent) { startTicker(); }
+            };
+            IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            registerReceiver(tickerReceiver, filter);
+        }
+
+        private void stopTicker() {
+            timerHandler.removeCallbacks(tickerUpdater);
+            if (tickerReceiver != null) {
+                unregisterReceiver(tickerReceiver);
+                tickerReceiver = null;
+            }
+            if (tickerView != null) tickerView.setVisibility(View.GONE);
+            tickerGuide = null;
+        }
+
+        // Runs only when some watched channel's programme changes, and rewrites just those lines.
+        private final Runnable tickerUpdater = new Runnable() {
+            @Override public void run() {
+                if (tickerGuide == null) return;
+                long now = System.currentTimeMillis();
+                int count = tickerWheel.advance(now, tickerExpired);
+                for (int i = 0; i < count; i++) refreshTickerLine(tickerExpired[i], now);
+                if (count > 0) tickerView.setText(joinTickerLines());
+                scheduleTicker();
+            }
+        };
+
+        private void scheduleTicker() {
+            long wake = tickerWheel.nextWake();
+            if (wake != Long.MAX_VALUE) timerHandler.postDelayed(tickerUpdater, Math.max(0, wake - System.currentTimeMillis()));
+        }
+
+        // "Name: now ▸ 21:30 next", and the line's timer set for whichever of the two boundaries comes first.
+        private void refreshTickerLine(int line, long now) {
+            int channel = tickerChannels[line];
+            int on = tickerGuide.at(channel, now), next = tickerGuide.after(channel, now);
+            String name = tickerGuide.channelName(channel);
+            StringBuilder sb = new StringBuilder(name != null ? name : tickerGuide.channelId(channel)).append(": ");
+            long boundary = Long.MAX_VALUE;
+            if (on >= 0) {
+                sb.append(tickerGuide.title(on));
+                boundary = tickerGuide.stop(on);
+            } else {
+                sb.append('\u2014');
+            }
+            if (next >= 0) {
+                sb.append(" \u25B8 ").append(tickerClock.format(new java.util.Date(tickerGuide.start(next)))).append(' ').append(tickerGuide.title(next));
+                boundary = Math.min(boundary, tickerGuide.start(next));
+            }
+            tickerLines[line] = sb.toString();
+            if (boundary != Long.MAX_VALUE) tickerWheel.schedule(line, boundary);
+            else tickerWheel.cancel(line);
         }
 
+        private String joinTickerLines() {
+            StringBuilder sb = new StringBuilder();
+            for (String text : tickerLines) {
+                if (sb.length() > 0) sb.append('\n');
+                sb.append(text);
+            }
+            return sb.toString();
+        }
+
+        // Playback position is measured on SystemClock.elapsedRealtime(), which is monotonic and keeps counting
+        // through deep sleep, so wall clock adjustments never move the subtitles.
+        private static long clockNow() { return SystemClock.elapsedRealtime(); }
+
+        // Runs only at cue boundaries: shows the cues for now and sleeps until the next start/end.
         private final Runnable subtitleUpdater = new Runnable() {
             @Override public void run() {
                 if (isPaused || isDraggingSlider || subtitleData == null) {
                     return;
                 }
-                long elapsedTime = System.currentTimeMillis() - startTime;
-                String currentText = "";
-                int newIndex = -1;
-				
-				 for (int i = 0; i < subtitleData.size(); i++) {
-                    SubtitleEntry entry = subtitleData.get(i);
-                    if (elapsedTime >= entry.startTimeMillis && elapsedTime <= entry.endTimeMillis) {
-                        currentText = entry.text;
-                        newIndex = i;
-                        break;
-                    }
-                }
-                
-                 if (currentIndex != newIndex) {
-                    floatingTextView.setText(currentText);
-                    currentIndex = newIndex;
+                long elapsedTime = clockNow() - startTime;
+                long cueTime = retime.toCue(elapsedTime);
+                showCuesAt(cueTime);
+                long boundary = timeline.nextChangeAfter(cueTime);
+                if (boundary != Long.MAX_VALUE) {
+                    timerHandler.postDelayed(this, Math.max(0, retime.toPlayer(boundary) - elapsedTime));
                 }
+            }
+        };
 
-                timeLabel.setText(formatDuration(elapsedTime) + " / " + formatDuration(totalDuration));
-                if (!isDraggingSlider) { timeSlider.setProgress((int)elapsedTime); }
-                timerHandler.postDelayed(this, 100);
+        // Refreshes the time label and slider on whole seconds, only while they are visible.
+        private final Runnable clockTicker = new Runnable() {
+            @Override public void run() {
+                if (timeSlider == null || subtitleData == null) return;
+                long elapsedTime = currentPosition();
+                updateTimeDisplay(elapsedTime);
+                if (isPaused || ((View) timeSlider.getParent()).getVisibility() != View.VISIBLE) return;
+                long intoSecond = elapsedTime % 1000;
+                if (intoSecond < 0) intoSecond += 1000;
+                timerHandler.postDelayed(this, 1000 - intoSecond);
             }
         };
 
+        private void restartCueScheduler() {
+            timerHandler.removeCallbacks(subtitleUpdater);
+            if (!isPaused && !isDraggingSlider) {
+                timerHandler.post(subtitleUpdater);
+            }
+        }
+
+        private void restartClockTicker() {
+            timerHandler.removeCallbacks(clockTicker);
+            timerHandler.post(clockTicker);
+        }
+
+        private void updateTimeDisplay(long elapsedTime) {
+            timeLabel.setText(formatDuration(elapsedTime) + " / " + formatDuration(totalDuration));
+            if (!isDraggingSlider) { timeSlider.setProgress((int)elapsedTime); }
+        }
+
         private void updateTextForSeek(long elapsedTime) {
              if (subtitleData == null) return;
-             String currentText = "";
-             int newIndex = -1;
-             for (int i = 0; i < subtitleData.size(); i++) {
-                 SubtitleEntry entry = subtitleData.get(i);
-                 if (elapsedTime >= entry.startTimeMillis && elapsedTime <= entry.endTimeMillis) {
-                     currentText = entry.text;
-                     newIndex = i;
-                     break;
-                 }
-             }
-             if (currentIndex != newIndex) {
-                 floatingTextView.setText(currentText);
-                 currentIndex = newIndex;
-             }
-             timeLabel.setText(formatDuration(elapsedTime) + " / " + formatDuration(totalDuration));
-             if (!isDraggingSlider) { timeSlider.setProgress((int)elapsedTime); }
+             showCuesAt(retime.toCue(elapsedTime));
+             updateTimeDisplay(elapsedTime);
+        }
+
+        // Shows every cue active at cueTime (subtitle time, after retiming); overlapping cues are stacked in start order.
+        private void showCuesAt(long cueTime) {
+            int count = timeline.activeAt(cueTime, activeCues);
+            boolean changed = count != shownCount;
+            for (int i = 0; i < count && !changed; i++) {
+                if (activeCues[i] != shownCues[i]) changed = true;
+            }
+            if (changed) {
+                if (count == 0) {
+                    floatingTextView.setText("");
+                } else {
+                    CharSequence shaped = cueShaper.take(activeCues, count);
+                    try {
+                        floatingTextView.setText(shaped != null ? shaped : composeCues(subtitleData, activeCues, count));
+                    } catch (IllegalArgumentException e) {
+                        // Shaped for metrics the view no longer has; drop the lookahead and show it plainly.
+                        cueShaper.invalidate();
+                        floatingTextView.setText(composeCues(subtitleData, activeCues, count));
+                    }
+                }
+                System.arraycopy(activeCues, 0, shownCues, 0, count);
+                shownCount = count;
+                currentIndex = count > 0 ? activeCues[0] : -1;
+            }
+            cueShaper.prefetch(subtitleData, cueTime, floatingTextView);
+        }
+
+        static CharSequence composeCues(CompiledTimeline data, int[] cues, int count) {
+            if (count == 1) return data.displayText(cues[0]);
+            SpannableStringBuilder sb = new SpannableStringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) sb.append('\n');
+                sb.append(data.displayText(cues[i]));
+            }
+            return sb;
+        }
+
+        // Call after anything that changes how text is measured: typeface, size, or the view's box.
+        private void reshapeCues() {
+            cueShaper.invalidate();
+            if (subtitleData != null && floatingTextView != null) {
+                cueShaper.prefetch(subtitleData, cueTime(), floatingTextView);
+            }
+        }
+
+        // Lays out what the next few cue changes will show on a background thread, so a cue change on the UI thread
+        // hands the view already measured text instead of running BiDi analysis, shaping and line breaking on the
+        // spot. From API 28 that is a PrecomputedText for the view's exact metrics; before that a StaticLayout built
+        // off-thread fills the shared shaping cache, which the UI thread layout then hits.
+        private static final class CueShaper {
+            private static final int LOOKAHEAD = 6;
+
+            private final HandlerThread thread = new HandlerThread("SubtitleShaper");
+            private final Handler worker, main = new Handler();
+            // UI thread only. An evicted cue is forgotten by shapedKeys too, so the worker shapes it again next time.
+            private final java.util.LinkedHashMap<String, CharSequence> ready = new java.util.LinkedHashMap<String, CharSequence>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(java.util.Map.Entry<String, CharSequence> eldest) {
+                    if (size() <= LOOKAHEAD * 2) return false;
+                    shapedKeys.remove(eldest.getKey());
+                    return true;
+                }
+            };
+            private int generation = 0;
+            private Object metrics;
+            // Worker thread only.
+            private CompiledTimeline indexedData;
+            private CueTimeline index;
+            private int[] cues = new int[0];
+            private int shapedGeneration = -1;
+            // Filled by the worker, trimmed by ready's evictions on the UI thread.
+            private final java.util.Set<String> shapedKeys = Collections.newSetFromMap(new java.util.concurrent.ConcurrentHashMap<String, Boolean>());
+
+            private static final class WarmupSpec {
+                final TextPaint paint;
+                final int width;
+                WarmupSpec(TextPaint paint, int width) { this.paint = paint; this.width = width; }
+            }
+
+            CueShaper() {
+                thread.start();
+                worker = new Handler(thread.getLooper());
+            }
+
+            CharSequence take(int[] activeCues, int count) {
+                return ready.get(key(activeCues, count));
+            }
+
+            void invalidate() {
+                generation++;
+                ready.clear();
+                metrics = null;
+                worker.removeCallbacksAndMessages(null);
+            }
+
+            void prefetch(final CompiledTimeline data, final long from, TextView view) {
+                if (metrics == null) metrics = captureMetrics(view);
+                if (metrics == null) return;
+                final int requestGeneration = generation;
+                final Object requestMetrics = metrics;
+                // Only the newest position matters.
+                worker.removeCallbacksAndMessages(null);
+                worker.post(new Runnable() {
+                    @Override public void run() { shapeAhead(data, from, requestGeneration, requestMetrics); }
+                });
+            }
+
+            void quit() {
+                worker.removeCallbacksAndMessages(null);
+                thread.quitSafely();
+            }
+
+            private static Object captureMetrics(TextView view) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) return view.getTextMetricsParams();
+                int width = view.getWidth() - view.getCompoundPaddingLeft() - view.getCompoundPaddingRight();
+                return width > 0 ? new WarmupSpec(new TextPaint(view.getPaint()), width) : null;
+            }
+
+            private void shapeAhead(CompiledTimeline data, long from, final int requestGeneration, Object requestMetrics) {
+                if (data != indexedData) {
+                    indexedData = data;
+                    index = data.newIndex();
+                    cues = new int[index.maxOverlap()];
+                }
+                if (shapedGeneration != requestGeneration) {
+                    shapedGeneration = requestGeneration;
+                    shapedKeys.clear();
+                }
+                long time = from;
+                for (int k = 0; k < LOOKAHEAD; k++) {
+                    time = index.nextChangeAfter(time);
+                    if (time == Long.MAX_VALUE) break;
+                    int count = index.activeAt(time, cues);
+                    if (count == 0) continue;
+                    final String key = key(cues, count);
+                    if (!shapedKeys.add(key)) continue;
+                    final CharSequence shaped = shape(composeCues(data, cues, count), requestMetrics);
+                    main.post(new Runnable() {
+                        @Override public void run() {
+                            if (generation == requestGeneration) ready.put(key, shaped);
+                        }
+                    });
+                }
+                if (shapedKeys.size() > LOOKAHEAD * 4) shapedKeys.clear();
+            }
+
+            private static CharSequence shape(CharSequence text, Object metrics) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && metrics instanceof PrecomputedText.Params) {
+                    return PrecomputedText.create(text, (PrecomputedText.Params) metrics);
+                }
+                WarmupSpec spec = (WarmupSpec) metrics;
+                new StaticLayout(text, spec.paint, spec.width, Layout.Alignment.ALIGN_CENTER, 1f, 0f, true);
+                return text;
+            }
+
+            private static String key(int[] cues, int count) {
+                StringBuilder sb = new StringBuilder(count * 6);
+                for (int i = 0; i < count; i++) sb.append(cues[i]).append(',');
+                return sb.toString();
+            }
+        }
+
+        private long currentPosition() {
+            return (isPaused && pauseTime > 0 ? pauseTime : clockNow()) - startTime;
+        }
+
+        // The player position in subtitle time, which is what every timeline lookup wants.
+        private long cueTime() { return retime.toCue(currentPosition()); }
+
+        // Applies a new mapping on the spot and remembers it in this file's profile.
+        private void setRetime(Retime next) {
+            retime = next;
+            saveProfile();
+            totalDuration = Math.max(0, retime.toPlayer(timeline.duration()));
+            timeSlider.setMax((int) totalDuration);
+            updateTextForSeek(currentPosition());
+            restartCueScheduler();
+        }
+
+        // Long-press on a sync list row: "this line is being spoken now". The first mark only shifts the
+        // subtitles; a second one far enough away also solves the speed, which fixes frame rate drift.
+        private void markSyncPoint(int cue) {
+            long cueStart = subtitleData.startAt(cue);
+            long player = currentPosition();
+            Retime solved = syncMarkCue >= 0 && syncMarkCue != cueStart ? Retime.fromPoints(syncMarkCue, syncMarkPlayer, cueStart, player) : null;
+            if (solved != null) {
+                setRetime(solved);
+                syncMarkCue = -1;
+                Toast.makeText(this, String.format(Locale.US, "Synced: speed x%.4f, offset %+.1f s", solved.rate, solved.offset / 1000.0), Toast.LENGTH_LONG).show();
+            } else {
+                setRetime(retime.alignedAt(cueStart, player));
+                syncMarkCue = cueStart;
+                syncMarkPlayer = player;
+                Toast.makeText(this, "Sync point set. Long-press a line later in the film to fix drift.", Toast.LENGTH_LONG).show();
+            }
         }
 
         private void startTimingLoop() {
-            if (subtitleData == null || subtitleData.isEmpty()) { stopSelf(); return; }
-            totalDuration = subtitleData.get(subtitleData.size() - 1).endTimeMillis;
+            if (subtitleData == null || subtitleData.size() == 0) { stopSelf(); return; }
+            totalDuration = Math.max(0, retime.toPlayer(timeline.duration()));
             timeSlider.setMax((int)totalDuration);
-            startTime = System.currentTimeMillis();
+            // A nudge saved in the file's profile carries over: the clock starts that far ahead.
+            startTime = clockNow() - nudgeTotal;
             currentIndex = -1;
+            shownCount = 0;
             pauseTime = 0;
             isPaused = false;
 
             ((Button)floatingControlsLayout.getChildAt(2)).setText("❚❚");
             timerHandler.post(subtitleUpdater);
             showControls();
+            saveSnapshot();
         }
         
         private void pausePlayback() {
             if (!isPaused) {
-                pauseTime = System.currentTimeMillis();
+                pauseTime = clockNow();
                 isPaused = true;
                 timerHandler.removeCallbacks(subtitleUpdater);
+                timerHandler.removeCallbacks(clockTicker);
                 ((Button)floatingControlsLayout.getChildAt(2)).setText("▶");
+                saveSnapshot();
             }
         }
         
         private void resumePlayback() {
             if (isPaused) {
                 if (pauseTime > 0) {
-                    startTime += System.currentTimeMillis() - pauseTime;
+                    startTime += clockNow() - pauseTime;
                 }
                 pauseTime = 0;
                 isPaused = false;
-                timerHandler.post(subtitleUpdater);
+                restartCueScheduler();
+                restartClockTicker();
                 ((Button)floatingControlsLayout.getChildAt(2)).setText("❚❚");
+                saveSnapshot();
             }
         }
         
@@ -576,12 +5819,14 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             windowManager.updateViewLayout(floatingRootView, rootParams);
             controlsHideHandler.removeCallbacksAndMessages(null);
             controlsHideHandler.postDelayed(new Runnable() { @Override public void run() { hideControls(); } }, 5000);
+            restartClockTicker();
         }
 
         private void hideControls() {
             if(isSyncListShowing || isSettingsShowing) return;
             floatingControlsLayout.setVisibility(View.GONE);
             ((View)timeSlider.getParent()).setVisibility(View.GONE);
+            timerHandler.removeCallbacks(clockTicker);
             rootParams.flags = WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
             windowManager.updateViewLayout(floatingRootView, rootParams);
         }
@@ -619,31 +5864,40 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
         }
 
         private void jumpToCue(boolean isNext) {
-            if (subtitleData == null || subtitleData.isEmpty()) {
+            if (subtitleData == null || subtitleData.size() == 0) {
                 return;
             }
+            long position = cueTime();
             int targetIndex;
             if (isNext) {
-                targetIndex = (currentIndex < 0) ? 1 : currentIndex + 1;
+                targetIndex = timeline.nextIndexAfter(position);
             } else {
-                targetIndex = (currentIndex < 0) ? 0 : currentIndex - 1;
+                // Step back past the cue we are inside of, otherwise land on the last cue that already played.
+                targetIndex = timeline.floorIndex(position);
+                if (targetIndex >= 0 && timeline.endAt(targetIndex) >= position) {
+                    targetIndex--;
+                }
             }
-            if (targetIndex >= subtitleData.size()) {
-                targetIndex = subtitleData.size() - 1;
+            if (targetIndex >= timeline.size()) {
+                targetIndex = timeline.size() - 1;
             }
             if (targetIndex < 0) {
                 targetIndex = 0;
             }
-            seekTo(subtitleData.get(targetIndex).startTimeMillis);
+            seekTo(retime.toPlayer(timeline.startAt(targetIndex)));
         }
         
         private void seekTo(long timeInMillis) {
-            long newStartTime = System.currentTimeMillis() - timeInMillis;
+            long newStartTime = clockNow() - timeInMillis;
             startTime = newStartTime;
             if (isPaused) {
                 pauseTime = newStartTime + timeInMillis;
             }
+            // The player clock no longer runs against the video the way a pending sync mark assumed.
+            syncMarkCue = -1;
             updateTextForSeek(timeInMillis);
+            restartCueScheduler();
+            requestSnapshot();
         }
         
         private void nudge(long ms) {
@@ -651,6 +5905,10 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             if (isPaused) {
                 pauseTime -= ms;
             }
+            nudgeTotal += ms;
+            syncMarkPlayer += ms;
+            restartCueScheduler();
+            requestSnapshot();
         }
         
         private void toggleSettingsPanel() { if(isSettingsShowing) hideSettingsPanel(); else showSettingsPanel(); }
@@ -667,7 +5925,7 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
 
             content.addView(createSettingsLabel("Text Size"));
             SeekBar textSizeSlider = createSettingsSlider(10, 50, (int) (floatingTextView.getTextSize() / getResources().getDisplayMetrics().scaledDensity));
-            textSizeSlider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() { @Override public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) { if(fromUser) floatingTextView.setTextSize(TypedValue.COMPLEX_UNIT_SP, Math.max(10, progress)); } @Override public void onStartTrackingTouch(SeekBar seekBar) {} @Override public void onStopTrackingTouch(SeekBar seekBar) {} });
+            textSizeSlider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() { @Override public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) { if(fromUser) { floatingTextView.setTextSize(TypedValue.COMPLEX_UNIT_SP, Math.max(10, progress)); reshapeCues(); } } @Override public void onStartTrackingTouch(SeekBar seekBar) {} @Override public void onStopTrackingTouch(SeekBar seekBar) {} });
             content.addView(textSizeSlider);
 
             content.addView(createSettingsLabel("Text Color"));
@@ -730,6 +5988,21 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             outlineLayout.addView(outlineSlider);
             content.addView(outlineLayout);
 
+            LinearLayout styleLayout = new LinearLayout(this);
+            styleLayout.setOrientation(LinearLayout.HORIZONTAL);
+            styleLayout.setGravity(Gravity.CENTER_VERTICAL);
+            Switch shadowSwitch = createSettingsSwitch("Shadow", floatingTextView.isShadowEnabled());
+            shadowSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) { floatingTextView.setShadowEnabled(isChecked); }
+            });
+            Switch boxSwitch = createSettingsSwitch("Line Box", floatingTextView.isBoxEnabled());
+            boxSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) { floatingTextView.setBoxEnabled(isChecked); }
+            });
+            styleLayout.addView(shadowSwitch);
+            styleLayout.addView(boxSwitch);
+            content.addView(styleLayout);
+
             content.addView(createSettingsLabel("View Vertical Position"));
             SeekBar yPosSlider = createSettingsSlider(-(getResources().getDisplayMetrics().heightPixels / 2), (getResources().getDisplayMetrics().heightPixels / 2), rootParams.y);
             yPosSlider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() { @Override public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) { if(fromUser) { rootParams.y = progress; windowManager.updateViewLayout(floatingRootView, rootParams); } } @Override public void onStartTrackingTouch(SeekBar seekBar) {} @Override public void onStopTrackingTouch(SeekBar seekBar) {} });
@@ -737,7 +6010,7 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             content.addView(createSettingsLabel("Text View Height (pixels)"));
             int currentHeight = floatingTextView.getLayoutParams().height > 0 ? floatingTextView.getLayoutParams().height : 150;
             SeekBar heightSlider = createSettingsSlider(50, 500, currentHeight);
-            heightSlider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() { @Override public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) { if(fromUser) { ViewGroup.LayoutParams params = floatingTextView.getLayoutParams(); params.height = progress; floatingTextView.setLayoutParams(params); } } @Override public void onStartTrackingTouch(SeekBar seekBar) {} @Override public void onStopTrackingTouch(SeekBar seekBar) {} });
+            heightSlider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() { @Override public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) { if(fromUser) { ViewGroup.LayoutParams params = floatingTextView.getLayoutParams(); params.height = progress; floatingTextView.setLayoutParams(params); reshapeCues(); } } @Override public void onStartTrackingTouch(SeekBar seekBar) {} @Override public void onStopTrackingTouch(SeekBar seekBar) {} });
             content.addView(heightSlider);
             
             content.addView(createSettingsLabel("Text Fonts"));
@@ -745,36 +6018,34 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             fontSelectorLayout.setOrientation(LinearLayout.HORIZONTAL);
             fontSelectorLayout.setGravity(Gravity.CENTER_VERTICAL | Gravity.CENTER_HORIZONTAL);
 
-            final ArrayList<String> fontList = new ArrayList<>();
-            fontList.add("Default");
-            try {
-                AssetManager assetManager = getAssets();
-                String[] assetFiles = assetManager.list("fonts");
-                if (assetFiles != null) {
-                    for (String filename : assetFiles) {
-                        if (filename.toLowerCase().endsWith(".ttf") || filename.toLowerCase().endsWith(".otf")) {
-                            fontList.add(filename);
-                        }
+            pickerFonts = fontRegistry.indexed();
+            if (pickerFonts == null) {
+                pickerFonts = FontRegistry.DEFAULT_FONT.equals(currentFont) ? Collections.singletonList(currentFont)
+                        : java.util.Arrays.asList(FontRegistry.DEFAULT_FONT, currentFont);
+                fontRegistry.whenIndexed(timerHandler, new Runnable() {
+                    @Override public void run() {
+                        pickerFonts = fontRegistry.indexed();
+                        currentFontIndex = Math.max(0, pickerFonts.indexOf(currentFont));
                     }
-                }
-            } catch (IOException e) { Log.e(TAG, "Error listing asset fonts", e); }
-            
-            currentFontIndex = fontList.indexOf(currentFont);
+                });
+            }
+
+            currentFontIndex = pickerFonts.indexOf(currentFont);
             if (currentFontIndex == -1) currentFontIndex = 0;
 
             final TextView fontNameLabel = new TextView(this);
             fontNameLabel.setTextColor(Color.WHITE);
             fontNameLabel.setTextSize(20);
             fontNameLabel.setPadding(20, 0, 20, 0);
-            fontNameLabel.setText(fontList.get(currentFontIndex));
+            fontNameLabel.setText(pickerFonts.get(currentFontIndex));
 
             Button minusButton = new Button(this);
             minusButton.setText("-");
             minusButton.setOnClickListener(new View.OnClickListener() {
                 @Override public void onClick(View v) {
                     currentFontIndex--;
-                    if (currentFontIndex < 0) { currentFontIndex = fontList.size() - 1; }
-                    String newFont = fontList.get(currentFontIndex);
+                    if (currentFontIndex < 0) { currentFontIndex = pickerFonts.size() - 1; }
+                    String newFont = pickerFonts.get(currentFontIndex);
                     fontNameLabel.setText(newFont);
                     applyFont(newFont);
                 }
@@ -785,8 +6056,8 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             plusButton.setOnClickListener(new View.OnClickListener() {
                 @Override public void onClick(View v) {
                     currentFontIndex++;
-                    if (currentFontIndex >= fontList.size()) { currentFontIndex = 0; }
-                    String newFont = fontList.get(currentFontIndex);
+                    if (currentFontIndex >= pickerFonts.size()) { currentFontIndex = 0; }
+                    String newFont = pickerFonts.get(currentFontIndex);
                     fontNameLabel.setText(newFont);
                     applyFont(newFont);
                 }
@@ -797,6 +6068,27 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             fontSelectorLayout.addView(plusButton);
             content.addView(fontSelectorLayout);
 
+            // Takes effect at once and is kept per file, independent of Save; 1:1 also clears any two-point sync.
+            final TextView speedLabel = createSettingsLabel(describeRetime());
+            content.addView(speedLabel);
+            LinearLayout speedLayout = new LinearLayout(this);
+            speedLayout.setOrientation(LinearLayout.HORIZONTAL);
+            speedLayout.setGravity(Gravity.CENTER_HORIZONTAL);
+            for (int i = 0; i < Retime.PRESET_NAMES.length; i++) {
+                final double rate = Retime.PRESET_RATES[i];
+                Button presetButton = new Button(this);
+                presetButton.setText(Retime.PRESET_NAMES[i]);
+                presetButton.setTextSize(TypedValue.COMPLEX_UNIT_SP, 14);
+                presetButton.setOnClickListener(new View.OnClickListener() {
+                    @Override public void onClick(View v) {
+                        if (rate == 1) { syncMarkCue = -1; setRetime(Retime.IDENTITY); } else { setRetime(retime.withRate(rate)); }
+                        speedLabel.setText(describeRetime());
+                    }
+                });
+                speedLayout.addView(presetButton, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+            }
+            content.addView(speedLayout);
+
             LinearLayout actionBar = new LinearLayout(this);
             actionBar.setOrientation(LinearLayout.HORIZONTAL);
             actionBar.setGravity(Gravity.CENTER);
@@ -825,8 +6117,10 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
         
         private void toggleSyncList() { if (isSyncListShowing) hideSyncList(); else showSyncList(); }
         
+        // The list and its adapter are built once per timeline and only detached from the window on hide, so
+        // reopening it just moves the highlight and the scroll position.
         private void showSyncList() {
-            if (isSyncListShowing || subtitleData == null || subtitleData.isEmpty()) return;
+            if (isSyncListShowing || subtitleData == null || subtitleData.size() == 0) return;
             hideSettingsPanel(); isSyncListShowing = true;
             
             DisplayMetrics metrics = new DisplayMetrics();
@@ -835,43 +6129,126 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             int widgetHeight = floatingRootView != null ? floatingRootView.getHeight() : 200;
             int panelHeight = screenHeight - widgetHeight;
             
-            syncListView = new ListView(this);
-            syncListView.setBackgroundColor(Color.argb(220, 20, 20, 20));
-            syncListView.setPadding(10, 10, 10, 10);
-            SubtitleSyncAdapter adapter = new SubtitleSyncAdapter(this, subtitleData, currentIndex);
-            syncListView.setAdapter(adapter);
-            syncListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-                @Override public void onItemClick(AdapterView<?> parent, View view, int position, long id) { if (subtitleData != null && position < subtitleData.size()) { seekTo(subtitleData.get(position).startTimeMillis); } hideSyncList(); }
-            });
+            if (syncPanel == null || syncAdapter == null || syncAdapter.rows.data != subtitleData) {
+                if (syncRows == null || syncRows.data != subtitleData) syncRows = new SyncRows(subtitleData);
+                syncAdapter = new SubtitleSyncAdapter(this, syncRows);
+                syncListView = new ListView(this);
+                syncListView.setPadding(10, 10, 10, 10);
+                syncListView.setFastScrollEnabled(true);
+                syncListView.setAdapter(syncAdapter);
+                syncListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+                    @Override public void onItemClick(AdapterView<?> parent, View view, int position, long id) { int cue = syncAdapter.cueAt(position); if (subtitleData != null && cue < subtitleData.size()) { seekTo(retime.toPlayer(subtitleData.startAt(cue))); } hideSyncList(); }
+                });
+                syncListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+                    @Override public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) { markSyncPoint(syncAdapter.cueAt(position)); hideSyncList(); return true; }
+                });
+                syncSearchBox = new EditText(this);
+                syncSearchBox.setSingleLine(true);
+                syncSearchBox.setHint("Search subtitles");
+                syncSearchBox.setTextColor(Color.WHITE);
+                syncSearchBox.setHintTextColor(Color.GRAY);
+                syncSearchBox.setTextSize(TypedValue.COMPLEX_UNIT_SP, 18);
+                syncSearchBox.setImeOptions(EditorInfo.IME_ACTION_SEARCH);
+                syncSearchBox.addTextChangedListener(new TextWatcher() {
+                    @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+                    @Override public void onTextChanged(CharSequence s, int start, int before, int count) {}
+                    @Override public void afterTextChanged(Editable s) { filterSyncList(s.toString()); }
+                });
+                // The panel takes key focus so the keyboard can come up; give Back its usual meaning.
+                View.OnKeyListener backCloses = new View.OnKeyListener() {
+                    @Override public boolean onKey(View v, int keyCode, KeyEvent event) {
+                        if (keyCode != KeyEvent.KEYCODE_BACK) return false;
+                        if (event.getAction() == KeyEvent.ACTION_UP) hideSyncList();
+                        return true;
+                    }
+                };
+                syncSearchBox.setOnKeyListener(backCloses);
+                syncListView.setOnKeyListener(backCloses);
+                syncPanel = new LinearLayout(this);
+                syncPanel.setOrientation(LinearLayout.VERTICAL);
+                syncPanel.setBackgroundColor(Color.argb(220, 20, 20, 20));
+                syncPanel.addView(syncSearchBox, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+                syncPanel.addView(syncListView, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 0, 1f));
+            }
+            final int selection = syncAdapter.positionOf(currentIndex >= 0 ? currentIndex : Math.max(0, timeline.floorIndex(cueTime())));
+            syncAdapter.moveHighlight(syncListView, currentIndex);
             int panelFlag = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY : WindowManager.LayoutParams.TYPE_PHONE;
-            WindowManager.LayoutParams listParams = new WindowManager.LayoutParams(WindowManager.LayoutParams.MATCH_PARENT, panelHeight, panelFlag, WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE, PixelFormat.TRANSLUCENT);
+            // Focusable (unlike the other overlays) so the search box can take input; touches outside still pass through.
+            WindowManager.LayoutParams listParams = new WindowManager.LayoutParams(WindowManager.LayoutParams.MATCH_PARENT, panelHeight, panelFlag, WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL, PixelFormat.TRANSLUCENT);
             listParams.gravity = Gravity.TOP | Gravity.CENTER_HORIZONTAL;
-            windowManager.addView(syncListView, listParams);
-            syncListView.post(new Runnable() { @Override public void run() { syncListView.setSelection(currentIndex); } });
+            listParams.softInputMode = WindowManager.LayoutParams.SOFT_INPUT_ADJUST_RESIZE | WindowManager.LayoutParams.SOFT_INPUT_STATE_HIDDEN;
+            windowManager.addView(syncPanel, listParams);
+            syncListView.post(new Runnable() { @Override public void run() { syncListView.setSelection(selection); } });
             syncListView.requestFocus();
         }
 
-        private void hideSyncList() { if (syncListView != null && syncListView.isAttachedToWindow()) { windowManager.removeView(syncListView); } syncListView = null; isSyncListShowing = false; hideControls(); }
+        private void hideSyncList() { if (syncPanel != null && syncPanel.isAttachedToWindow()) { windowManager.removeView(syncPanel); } isSyncListShowing = false; hideControls(); }
+
+        // Narrows the sync list to the cues matching the query; an empty query shows every cue again.
+        private void filterSyncList(String query) {
+            if (syncAdapter == null || subtitleData == null) return;
+            if (query.trim().isEmpty()) {
+                syncAdapter.setFilter(null);
+                int current = currentIndex >= 0 ? currentIndex : Math.max(0, timeline.floorIndex(cueTime()));
+                syncListView.setSelection(current);
+                return;
+            }
+            if (searchIndex == null || searchIndex.data != subtitleData) searchIndex = CueSearchIndex.build(subtitleData);
+            syncAdapter.setFilter(searchIndex.search(query, Integer.MAX_VALUE));
+            syncListView.setSelection(0);
+        }
+
+        // Flattens the rows and builds the search index off the UI thread as soon as a timeline is mapped;
+        // showSyncList and filterSyncList build them themselves if they get there first.
+        private void prepareSyncRows() {
+            final CompiledTimeline data = subtitleData;
+            new Thread(new Runnable() {
+                @Override public void run() {
+                    final SyncRows rows = new SyncRows(data);
+                    final CueSearchIndex index = CueSearchIndex.build(data);
+                    timerHandler.post(new Runnable() {
+                        @Override public void run() {
+                            if (subtitleData != data) return;
+                            if (syncRows == null || syncRows.data != data) syncRows = rows;
+                            if (searchIndex == null || searchIndex.data != data) searchIndex = index;
+                        }
+                    });
+                }
+            }).start();
+        }
         
         private void saveSettings() {
             if (floatingTextView == null || rootParams == null) return;
             SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
-            editor.putInt("textSize", (int) (floatingTextView.getTextSize() / getResources().getDisplayMetrics().scaledDensity));
+            editor.putInt("textSize", settingsTextSize());
             editor.putFloat("textColorHue", currentTextColorHue);
             int bgColor = (floatingTextView.getBackground() instanceof ColorDrawable) ? ((ColorDrawable) floatingTextView.getBackground()).getColor() : Color.TRANSPARENT;
             editor.putInt("bgColor", bgColor);
             editor.putBoolean("outlineEnabled", floatingTextView.isOutlineEnabled());
 			editor.putInt("outlineWidth", (int)floatingTextView.getOutlineWidth());
+            editor.putBoolean("shadowEnabled", floatingTextView.isShadowEnabled());
+            editor.putBoolean("boxEnabled", floatingTextView.isBoxEnabled());
             editor.putInt("yPosition", rootParams.y);
             editor.putInt("height", floatingTextView.getLayoutParams().height);
             editor.putString("fontName", currentFont);
             editor.apply();
+            // Saving while a file plays also makes this look that file's own, kept even if the defaults change later.
+            if (profile != null) {
+                profile.textSize = settingsTextSize();
+                profile.font = currentFont;
+                saveProfile();
+            }
+        }
+
+        private int settingsTextSize() {
+            return (int) (floatingTextView.getTextSize() / getResources().getDisplayMetrics().scaledDensity);
         }
         
         private void loadAndApplySettings() {
             if (floatingTextView == null || rootParams == null) return;
             SharedPreferences settings = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            floatingTextView.setTextSize(TypedValue.COMPLEX_UNIT_SP, settings.getInt("textSize", 26));
+            boolean ownLook = profile != null && subtitleData != null && profile.key == subtitleData.sourceKey();
+            floatingTextView.setTextSize(TypedValue.COMPLEX_UNIT_SP, ownLook && profile.textSize > 0 ? profile.textSize : settings.getInt("textSize", 26));
             
             currentTextColorHue = settings.getFloat("textColorHue", -1f); // Default to -1 for White
             if (currentTextColorHue < 0) {
@@ -885,48 +6262,83 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             int outlineWidth = settings.getInt("outlineWidth", 6);
             floatingTextView.setOutlineEnabled(outlineEnabled);
             floatingTextView.setOutlineWidth(outlineWidth);
+            floatingTextView.setShadowEnabled(settings.getBoolean("shadowEnabled", false));
+            floatingTextView.setBoxEnabled(settings.getBoolean("boxEnabled", false));
             
             LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) floatingTextView.getLayoutParams();
             params.height = settings.getInt("height", ViewGroup.LayoutParams.WRAP_CONTENT);
             floatingTextView.setLayoutParams(params);
-            applyFont(settings.getString("fontName", "Default"));
+            applyFont(ownLook && profile.font != null ? profile.font : settings.getString("fontName", "Default"));
             rootParams.y = settings.getInt("yPosition", 0);
             windowManager.updateViewLayout(floatingRootView, rootParams);
         }
         
         private void resetSettings() {
             getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+            if (profile != null) {
+                profile.textSize = 0;
+                profile.font = null;
+                saveProfile();
+            }
             floatingTextView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 26);
             floatingTextView.setTextColor(Color.WHITE);
             currentTextColorHue = -1;
             floatingTextView.setBackgroundColor(Color.TRANSPARENT);
             floatingTextView.setOutlineEnabled(true);
 			floatingTextView.setOutlineWidth(6f);
-            applyFont("Default");
+            floatingTextView.setShadowEnabled(false);
+            floatingTextView.setBoxEnabled(false);
             rootParams.y = 0;
             LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) floatingTextView.getLayoutParams();
             params.height = ViewGroup.LayoutParams.WRAP_CONTENT;
             floatingTextView.setLayoutParams(params);
+            applyFont("Default");
             windowManager.updateViewLayout(floatingRootView, rootParams);
         }
         
+        // A font that is not loaded yet comes from the registry's loader; the current face stays up until it
+        // arrives, and only the last font picked is applied.
         private void applyFont(String fontName) {
-            try {
-                Typeface tf;
-                if ("Default".equalsIgnoreCase(fontName)) {
-                    tf = Typeface.DEFAULT;
-                } else {
-                    tf = Typeface.createFromAsset(getAssets(), "fonts/" + fontName);
-                }
-                floatingTextView.setTypeface(tf);
-                currentFont = fontName;
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to apply font: " + fontName, e);
-                floatingTextView.setTypeface(Typeface.DEFAULT);
-                currentFont = "Default";
+            currentFont = fontName;
+            Typeface ready = fontRegistry.cached(fontName);
+            if (ready != null) {
+                showFont(fontName, ready);
+                return;
             }
+            fontRegistry.load(fontName, timerHandler, new FontRegistry.Callback() {
+                @Override public void onLoaded(String name, Typeface typeface) {
+                    if (!name.equals(currentFont) || floatingRootView == null) return;
+                    if (typeface == null) {
+                        Log.e(TAG, "Failed to apply font: " + name);
+                        currentFont = "Default";
+                        typeface = Typeface.DEFAULT;
+                    }
+                    showFont(currentFont, typeface);
+                }
+            });
+        }
+
+        private void showFont(String fontName, Typeface typeface) {
+            floatingTextView.setTypeface(typeface);
+            fontRegistry.prefetchNeighbours(fontName);
+            reshapeCues();
         }
 		
+        private Switch createSettingsSwitch(String text, boolean checked) {
+            Switch toggle = new Switch(this);
+            toggle.setText(text);
+            toggle.setTextColor(Color.WHITE);
+            toggle.setTextSize(20);
+            toggle.setPadding(0, 20, 40, 20);
+            toggle.setChecked(checked);
+            return toggle;
+        }
+
+        private String describeRetime() {
+            if (retime.isIdentity()) return "Subtitle Speed: 1:1";
+            return String.format(Locale.US, "Subtitle Speed: x%.4f, offset %+.1f s", retime.rate, retime.offset / 1000.0);
+        }
+
         private TextView createSettingsLabel(String text) { TextView label = new TextView(this); label.setText(text); label.setTextColor(Color.WHITE); label.setTextSize(20); label.setPadding(0, 20, 0, 5); return label; }
         
         private SeekBar createSettingsSlider(int min, int max, int current) {
@@ -937,23 +6349,150 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             return slider;
         }
         
-        private String formatDuration(long ms) { if (ms < 0) ms = 0; long s = ms / 1000; return String.format("%02d:%02d:%02d", s / 3600, (s % 3600) / 60, s % 60); }
-        
-        private class SubtitleSyncAdapter extends ArrayAdapter<SubtitleEntry> {
-            private final int highlightIndex;
-            public SubtitleSyncAdapter(Context context, List<SubtitleEntry> entries, int highlightIndex) {
-                super(context, 0, entries);
-                this.highlightIndex = highlightIndex;
+        private String formatDuration(long ms) {
+            char[] clock = new char[SyncRows.CLOCK_CHARS];
+            SyncRows.writeClock(clock, 0, ms);
+            return new String(clock);
+        }
+
+        // Everything a sync list row shows, flattened once per timeline: cue text with line breaks turned into
+        // spaces in one char pool and "HH:MM:SS" start times in another, 8 chars per cue. Rows bind with
+        // TextView.setText(char[], int, int), so scrolling allocates no strings. Minutes that have cues become the
+        // fast scroll sections.
+        static final class SyncRows {
+            static final int CLOCK_CHARS = 8;
+
+            final CompiledTimeline data;
+            final int size;
+            final char[] clocks;
+            final char[] texts;
+            final int[] textStarts;
+            final String[] sections;
+            final int[] sectionStarts;
+
+            SyncRows(CompiledTimeline data) {
+                this.data = data;
+                this.size = data.size();
+                this.clocks = new char[size * CLOCK_CHARS];
+                this.textStarts = new int[size + 1];
+                StringBuilder pool = new StringBuilder(size * 40);
+                List<String> sectionLabels = new ArrayList<>();
+                int[] starts = new int[Math.max(1, size)];
+                long lastMinute = -1;
+                for (int i = 0; i < size; i++) {
+                    long start = data.startAt(i);
+                    writeClock(clocks, i * CLOCK_CHARS, start);
+                    long minute = Math.max(0, start) / 60000;
+                    if (minute != lastMinute) {
+                        starts[sectionLabels.size()] = i;
+                        sectionLabels.add(new String(clocks, i * CLOCK_CHARS, 5));
+                        lastMinute = minute;
+                    }
+                    textStarts[i] = pool.length();
+                    String text = data.textAt(i);
+                    for (int k = 0; k < text.length(); k++) {
+                        char c = text.charAt(k);
+                        pool.append(c == '\n' || c == '\r' ? ' ' : c);
+                    }
+                }
+                textStarts[size] = pool.length();
+                this.texts = new char[pool.length()];
+                pool.getChars(0, pool.length(), texts, 0);
+                this.sections = sectionLabels.toArray(new String[0]);
+                this.sectionStarts = java.util.Arrays.copyOf(starts, sections.length);
+            }
+
+            static void writeClock(char[] out, int offset, long ms) {
+                long s = Math.max(0, ms) / 1000;
+                long h = Math.min(99, s / 3600), m = (s % 3600) / 60, sec = s % 60;
+                out[offset] = (char) ('0' + h / 10); out[offset + 1] = (char) ('0' + h % 10); out[offset + 2] = ':';
+                out[offset + 3] = (char) ('0' + m / 10); out[offset + 4] = (char) ('0' + m % 10); out[offset + 5] = ':';
+                out[offset + 6] = (char) ('0' + sec / 10); out[offset + 7] = (char) ('0' + sec % 10);
+            }
+
+            int sectionForPosition(int position) {
+                int lo = 0, hi = sectionStarts.length - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi + 1) >>> 1;
+                    if (sectionStarts[mid] <= position) lo = mid; else hi = mid - 1;
+                }
+                return lo;
+            }
+        }
+
+        private static final class SyncRowHolder {
+            TextView timeView, textView;
+            int cue = -1;
+        }
+
+        private static class SubtitleSyncAdapter extends BaseAdapter implements SectionIndexer {
+            private static final int HIGHLIGHT = Color.argb(80, 70, 130, 180);
+            private final Context context;
+            final SyncRows rows;
+            private int highlightIndex = -1;
+            // Cue index shown at each list position while a search is active, ascending; null shows every cue.
+            private int[] filter;
+            public SubtitleSyncAdapter(Context context, SyncRows rows) {
+                this.context = context;
+                this.rows = rows;
             }
+            private Context getContext() { return context; }
+            @Override public int getCount() { return filter == null ? rows.size : filter.length; }
+            @Override public Object getItem(int position) { int cue = cueAt(position); return new String(rows.texts, rows.textStarts[cue], rows.textStarts[cue + 1] - rows.textStarts[cue]); }
+            @Override public long getItemId(int position) { return cueAt(position); }
+            @Override public boolean hasStableIds() { return true; }
+            @Override public Object[] getSections() { return rows.sections; }
+            @Override public int getPositionForSection(int section) { return Math.min(positionOf(rows.sectionStarts[Math.max(0, Math.min(section, rows.sectionStarts.length - 1))]), Math.max(0, getCount() - 1)); }
+            @Override public int getSectionForPosition(int position) { return getCount() == 0 ? 0 : rows.sectionForPosition(cueAt(Math.min(position, getCount() - 1))); }
+
+            int cueAt(int position) { return filter == null ? position : filter[position]; }
+
+            // List position of the cue, or of the first shown cue after it when a search hides it.
+            int positionOf(int cue) {
+                if (filter == null) return cue;
+                int found = java.util.Arrays.binarySearch(filter, cue);
+                return found >= 0 ? found : -found - 1;
+            }
+
+            void setFilter(int[] cues) {
+                filter = cues;
+                notifyDataSetChanged();
+            }
+
+            // Repaints just the rows that gain or lose the highlight, if they are on screen.
+            void moveHighlight(ListView list, int index) {
+                if (index == highlightIndex) return;
+                int previous = highlightIndex;
+                highlightIndex = index;
+                for (int i = 0; i < list.getChildCount(); i++) {
+                    View row = list.getChildAt(i);
+                    Object tag = row.getTag();
+                    if (tag instanceof SyncRowHolder) {
+                        int cue = ((SyncRowHolder) tag).cue;
+                        if (cue == previous || cue == index) row.setBackgroundColor(cue == index ? HIGHLIGHT : Color.TRANSPARENT);
+                    }
+                }
+            }
+
             @Override
             public View getView(int position, View convertView, ViewGroup parent) {
+                SyncRowHolder holder;
+                View row = convertView;
+                if (row == null || !(row.getTag() instanceof SyncRowHolder)) {
+                    row = createRow();
+                }
+                holder = (SyncRowHolder) row.getTag();
+                int cue = cueAt(position);
+                holder.cue = cue;
+                row.setBackgroundColor(cue == this.highlightIndex ? HIGHLIGHT : Color.TRANSPARENT);
+                holder.timeView.setText(rows.clocks, cue * SyncRows.CLOCK_CHARS, SyncRows.CLOCK_CHARS);
+                holder.textView.setText(rows.texts, rows.textStarts[cue], rows.textStarts[cue + 1] - rows.textStarts[cue]);
+                return row;
+            }
+
+            private View createRow() {
                 RelativeLayout itemLayout = new RelativeLayout(getContext());
                 itemLayout.setPadding(5, 20, 5, 20);
-                if (position == this.highlightIndex) {
-                    itemLayout.setBackgroundColor(Color.argb(80, 70, 130, 180));
-                } else {
-                    itemLayout.setBackgroundColor(Color.TRANSPARENT);
-                }
                 TextView timeView = new TextView(getContext());
                 TextView textView = new TextView(getContext());
                 timeView.setTextColor(Color.LTGRAY);
@@ -971,13 +6510,12 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
                 textParams.addRule(RelativeLayout.CENTER_VERTICAL);
                 textParams.setMargins(10,0,25,0);
                 textView.setLayoutParams(textParams);
-                SubtitleEntry entry = getItem(position);
-                if (entry != null) {
-                    timeView.setText(formatDuration(entry.startTimeMillis));
-                    textView.setText(entry.text.replace("\n", " "));
-                }
                 itemLayout.addView(textView);
                 itemLayout.addView(timeView);
+                SyncRowHolder holder = new SyncRowHolder();
+                holder.timeView = timeView;
+                holder.textView = textView;
+                itemLayout.setTag(holder);
                 return itemLayout;
             }
         }
@@ -996,10 +6534,26 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             }
         }
 
+        // Draws the cue itself instead of running TextView.onDraw once per pass. The text is laid out twice, into
+        // StaticLayouts on a stroke paint and a fill paint of the renderer's own, with the view's break strategy,
+        // spacing and direction, and both are kept until the text, width or the view's paint change. The paints are
+        // only set up by the setters and when the view's paint changes; drawing touches neither them nor the view,
+        // so a cue that stays on screen is not redrawn until something really changes.
         public static class OutlineTextView extends TextView {
-            private boolean outlineEnabled = true;
+            private boolean outlineEnabled = true, shadowEnabled = false, boxEnabled = false;
             private int outlineColor = Color.BLACK;
             private float outlineWidth = 6f; // CHANGED to 6f
+            private int boxColor = Color.argb(160, 0, 0, 0);
+
+            private final TextPaint strokePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG), fillPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+            private final Paint boxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            private StaticLayout strokeLayout, fillLayout;
+            private boolean layoutDirty = true;
+            private int layoutWidth, layoutGravity;
+            private float layoutTextSize;
+            private Typeface layoutTypeface;
+            // Per line left, top, right, bottom of the background boxes, computed with the layouts.
+            private float[] boxes = new float[0];
 
             public OutlineTextView(Context context) {
                 super(context);
@@ -1013,6 +6567,7 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
 
             public void setOutlineEnabled(boolean enabled) {
                 this.outlineEnabled = enabled;
+                applyStyle();
                 this.invalidate();
             }
             public boolean isOutlineEnabled() {
@@ -1020,27 +6575,147 @@ public class PersistentSubtitle extends AndroidNonvisibleComponent implements Ac
             }
 			public void setOutlineWidth(float width) {
                 this.outlineWidth = width;
+                applyStyle();
+                measureBoxes();
                 this.invalidate();
             }
             public float getOutlineWidth() {
                 return this.outlineWidth;
             }
+            public void setShadowEnabled(boolean enabled) {
+                this.shadowEnabled = enabled;
+                applyStyle();
+                this.invalidate();
+            }
+            public boolean isShadowEnabled() {
+                return this.shadowEnabled;
+            }
+            public void setBoxEnabled(boolean enabled) {
+                this.boxEnabled = enabled;
+                this.invalidate();
+            }
+            public boolean isBoxEnabled() {
+                return this.boxEnabled;
+            }
+
+            @Override
+            public void setTextColor(int color) {
+                super.setTextColor(color);
+                // Null while TextView's constructor is still running; rebuildLayouts picks the colour up then.
+                if (fillPaint != null) fillPaint.setColor(color);
+            }
+
+            // Keeps the drawn cue in a GPU layer (a bitmap without hardware acceleration) that is only re-rendered
+            // when the view is invalidated, so outline, shadow and box cost nothing while the cue stays up.
+            public void setLayerCaching(boolean enabled) {
+                setLayerType(enabled ? View.LAYER_TYPE_HARDWARE : View.LAYER_TYPE_NONE, null);
+            }
+
+            @Override
+            protected void onTextChanged(CharSequence text, int start, int lengthBefore, int lengthAfter) {
+                super.onTextChanged(text, start, lengthBefore, lengthAfter);
+                layoutDirty = true;
+            }
+
+            private int contentWidth() {
+                return getWidth() - getCompoundPaddingLeft() - getCompoundPaddingRight();
+            }
+
+            private boolean layoutStale() {
+                TextPaint viewPaint = getPaint();
+                return layoutDirty || fillLayout == null || layoutWidth != contentWidth() || layoutGravity != getGravity()
+                        || layoutTextSize != viewPaint.getTextSize() || layoutTypeface != viewPaint.getTypeface();
+            }
+
+            // Stroke and fill passes as the setters left them. The shadow goes under whichever pass is outermost.
+            private void applyStyle() {
+                strokePaint.setStyle(Paint.Style.STROKE);
+                strokePaint.setStrokeJoin(Paint.Join.ROUND);
+                strokePaint.setStrokeWidth(outlineWidth);
+                strokePaint.setColor(outlineColor);
+                fillPaint.setStyle(Paint.Style.FILL);
+                fillPaint.setColor(getCurrentTextColor());
+                boxPaint.setColor(boxColor);
+                strokePaint.clearShadowLayer();
+                fillPaint.clearShadowLayer();
+                if (shadowEnabled) {
+                    float textSize = fillPaint.getTextSize(), radius = Math.max(2f, textSize / 12f), offset = textSize / 16f;
+                    (outlineEnabled ? strokePaint : fillPaint).setShadowLayer(radius, offset, offset, Color.BLACK);
+                }
+            }
+
+            private void rebuildLayouts() {
+                TextPaint viewPaint = getPaint();
+                strokePaint.set(viewPaint);
+                fillPaint.set(viewPaint);
+                applyStyle();
+                layoutWidth = contentWidth();
+                layoutGravity = getGravity();
+                layoutTextSize = viewPaint.getTextSize();
+                layoutTypeface = viewPaint.getTypeface();
+                layoutDirty = false;
+                CharSequence text = getText();
+                int horizontal = layoutGravity & Gravity.RELATIVE_HORIZONTAL_GRAVITY_MASK;
+                Layout.Alignment alignment = horizontal == Gravity.CENTER_HORIZONTAL ? Layout.Alignment.ALIGN_CENTER
+                        : (horizontal == Gravity.RIGHT || horizontal == Gravity.END) ? Layout.Alignment.ALIGN_OPPOSITE : Layout.Alignment.ALIGN_NORMAL;
+                strokeLayout = buildLayout(text, strokePaint, alignment);
+                fillLayout = buildLayout(text, fillPaint, alignment);
+                measureBoxes();
+            }
+
+            private StaticLayout buildLayout(CharSequence text, TextPaint paint, Layout.Alignment alignment) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    StaticLayout.Builder builder = StaticLayout.Builder.obtain(text, 0, text.length(), paint, layoutWidth)
+                            .setAlignment(alignment).setLineSpacing(getLineSpacingExtra(), getLineSpacingMultiplier())
+                            .setIncludePad(getIncludeFontPadding()).setBreakStrategy(getBreakStrategy())
+                            .setHyphenationFrequency(getHyphenationFrequency());
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) builder.setJustificationMode(getJustificationMode());
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) builder.setUseLineSpacingFromFallbacks(isFallbackLineSpacing());
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) builder.setTextDirection(getTextDirectionHeuristic());
+                    return builder.build();
+                }
+                return new StaticLayout(text, paint, layoutWidth, alignment, getLineSpacingMultiplier(), getLineSpacingExtra(), getIncludeFontPadding());
+            }
+
+            private void measureBoxes() {
+                if (fillLayout == null) return;
+                int lines = fillLayout.getText().length() == 0 ? 0 : fillLayout.getLineCount();
+                if (boxes.length < lines * 4) boxes = new float[lines * 4];
+                float pad = outlineWidth / 2 + layoutTextSize * 0.15f;
+                for (int line = 0; line < lines; line++) {
+                    boxes[line * 4] = fillLayout.getLineLeft(line) - pad;
+                    boxes[line * 4 + 1] = fillLayout.getLineTop(line);
+                    boxes[line * 4 + 2] = fillLayout.getLineRight(line) + pad;
+                    boxes[line * 4 + 3] = fillLayout.getLineBottom(line);
+                }
+                for (int k = lines * 4; k < boxes.length; k++) boxes[k] = 0;
+            }
 
             @Override
             protected void onDraw(Canvas canvas) {
-                if (outlineEnabled) {
-                    int originalColor = this.getCurrentTextColor();
-                    TextPaint paint = this.getPaint();
+                if (getText().length() == 0 || contentWidth() <= 0) return;
+                if (layoutStale()) rebuildLayouts();
 
-                    paint.setStyle(Paint.Style.STROKE);
-                    paint.setStrokeWidth(outlineWidth);
-                    this.setTextColor(outlineColor);
-                    super.onDraw(canvas);
+                int top = getExtendedPaddingTop();
+                int box = getHeight() - top - getExtendedPaddingBottom();
+                int vertical = layoutGravity & Gravity.VERTICAL_GRAVITY_MASK;
+                int offset = 0;
+                if (fillLayout.getHeight() < box) {
+                    if (vertical == Gravity.BOTTOM) offset = box - fillLayout.getHeight();
+                    else if (vertical == Gravity.CENTER_VERTICAL) offset = (box - fillLayout.getHeight()) / 2;
+                }
 
-                    paint.setStyle(Paint.Style.FILL);
-                    this.setTextColor(originalColor);
+                int save = canvas.save();
+                canvas.clipRect(getCompoundPaddingLeft(), top, getWidth() - getCompoundPaddingRight(), getHeight() - getExtendedPaddingBottom());
+                canvas.translate(getCompoundPaddingLeft(), top + offset);
+                if (boxEnabled) {
+                    for (int k = 0; k + 3 < boxes.length; k += 4) {
+                        if (boxes[k + 3] > boxes[k + 1]) canvas.drawRect(boxes[k], boxes[k + 1], boxes[k + 2], boxes[k + 3], boxPaint);
+                    }
                 }
-                super.onDraw(canvas);
+                if (outlineEnabled) strokeLayout.draw(canvas);
+                fillLayout.draw(canvas);
+                canvas.restoreToCount(save);
             }
         }
     }
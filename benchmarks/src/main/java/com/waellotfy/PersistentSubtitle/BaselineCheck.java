@@ -0,0 +1,92 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares a JMH CSV result (-rf csv) against the checked-in baseline and exits non-zero when a
+// benchmark got slower, or allocates more per operation, than the tolerance allows.
+//   java -cp target/benchmarks.jar com.waellotfy.PersistentSubtitle.BaselineCheck baseline/jmh.csv jmh-result.csv [tolerance%]
+public final class BaselineCheck {
+
+    private BaselineCheck() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineCheck <baseline.csv> <result.csv> [tolerancePercent]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 15;
+        Map<String, Double> baseline = read(args[0]);
+        Map<String, Double> result = read(args[1]);
+        int regressions = 0, compared = 0;
+        for (Map.Entry<String, Double> entry : result.entrySet()) {
+            Double before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("NEW        %-90s %14.3f%n", entry.getKey(), entry.getValue());
+                continue;
+            }
+            compared++;
+            double after = entry.getValue();
+            double change = before == 0 ? (after == 0 ? 0 : 100) : (after - before) * 100 / before;
+            // A few bytes of allocation noise per op (e.g. the iteration bookkeeping) is not a regression.
+            double slack = entry.getKey().contains("gc.alloc.rate.norm") ? 8 : 1e-3;
+            boolean regressed = change > tolerance && after - before > slack;
+            if (regressed) regressions++;
+            System.out.printf("%-10s %-90s %14.3f -> %14.3f (%+.1f%%)%n", regressed ? "REGRESSED" : "ok", entry.getKey(), before, after, change);
+        }
+        System.out.println(compared + " compared, " + regressions + " regressed (tolerance " + tolerance + "%)");
+        if (regressions > 0) System.exit(1);
+    }
+
+    // Keeps the primary score of every benchmark plus its normalised allocation rate; both are "lower is better".
+    private static Map<String, Double> read(String path) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            List<String> header = split(reader.readLine());
+            int benchmark = header.indexOf("Benchmark"), mode = header.indexOf("Mode"), score = header.indexOf("Score");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                List<String> row = split(line);
+                String name = row.get(benchmark);
+                int secondary = name.indexOf(':');
+                if (secondary >= 0 && !name.endsWith("gc.alloc.rate.norm")) continue;
+                if (secondary < 0 && !"avgt".equals(row.get(mode)) && !"ss".equals(row.get(mode)) && !"sample".equals(row.get(mode))) continue;
+                StringBuilder key = new StringBuilder(name);
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).startsWith("Param: ") && i < row.size() && !row.get(i).isEmpty()) {
+                        key.append(' ').append(header.get(i).substring(7)).append('=').append(row.get(i));
+                    }
+                }
+                scores.put(key.toString(), Double.parseDouble(row.get(score).replace(',', '.')));
+            }
+        }
+        return scores;
+    }
+
+    private static List<String> split(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
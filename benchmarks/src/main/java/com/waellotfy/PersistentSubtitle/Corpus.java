@@ -0,0 +1,42 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+// Resolves the subtitle and guide files shipped at the repository root.
+final class Corpus {
+    static final String BABY_JOHN = "Baby.John.2024.1080p.WEBRip.mora.25r.srt";
+    static final String HOUSE_OF_THE_DRAGON = "House.of.the.Dragon.S01.Episode1.2022.1080p.bluray.mora.25r.srt";
+    static final String BURNING_DAYS = "Burning.Days.2022.1080p.WEBRip.mora.25r.ass";
+
+    private Corpus() {}
+
+    static File dir() {
+        return new File(System.getProperty("corpus.dir", ".."));
+    }
+
+    static File file(String name) {
+        File file = new File(dir(), name);
+        if (!file.isFile()) {
+            throw new IllegalStateException("Corpus file not found: " + file.getAbsolutePath() + " (set -Dcorpus.dir)");
+        }
+        return file;
+    }
+
+    static byte[] bytes(String name) throws IOException {
+        return Files.readAllBytes(file(name).toPath());
+    }
+
+    static String subtitle(String key) {
+        if ("baby-john".equals(key)) return BABY_JOHN;
+        if ("house-of-the-dragon".equals(key)) return HOUSE_OF_THE_DRAGON;
+        if ("burning-days".equals(key)) return BURNING_DAYS;
+        throw new IllegalArgumentException("Unknown subtitle: " + key);
+    }
+
+    // XMLTV guides are named after their satellite position: 13E, 16E, 19E, 30W, 7W, plus Sport.
+    static String guide(String key) {
+        return key + ".xml";
+    }
+}
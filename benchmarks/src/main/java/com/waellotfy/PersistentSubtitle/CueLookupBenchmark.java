@@ -0,0 +1,90 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CueLookupBenchmark {
+
+    @Param({"baby-john"})
+    public String file;
+
+    @Param({"start", "middle", "end"})
+    public String position;
+
+    private List<PersistentSubtitle.SubtitleEntry> entries;
+    private PersistentSubtitle.CueTimeline timeline;
+    private int[] active;
+    private PersistentSubtitle.Retime retime;
+    private long[] seekProbes;
+    private long playbackFrom, playbackTo, playbackNow;
+    private int probe;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = Corpus.bytes(Corpus.subtitle(file));
+        PersistentSubtitle.CharsetDetector.Result detection = PersistentSubtitle.CharsetDetector.detect(bytes, Math.min(bytes.length, PersistentSubtitle.CharsetDetector.SAMPLE_SIZE));
+        entries = PersistentSubtitle.doParse(new ByteArrayInputStream(bytes, detection.bomLength, bytes.length - detection.bomLength), detection.charset);
+        timeline = new PersistentSubtitle.CueTimeline(entries);
+        active = new int[timeline.maxOverlap()];
+        retime = new PersistentSubtitle.Retime(PersistentSubtitle.Retime.PRESET_RATES[1], -2300);
+
+        long duration = timeline.duration();
+        long center = "start".equals(position) ? 60_000 : "middle".equals(position) ? duration / 2 : duration - 60_000;
+        Random random = new Random(42);
+        seekProbes = new long[256];
+        for (int i = 0; i < seekProbes.length; i++) {
+            seekProbes[i] = center - 30_000 + random.nextInt(60_000);
+        }
+        playbackFrom = center - 30_000;
+        playbackTo = center + 30_000;
+        playbackNow = playbackFrom;
+    }
+
+    // Slider drags and jumps: unrelated times, answered by binary search.
+    @Benchmark
+    public int seekLookup() {
+        long time = seekProbes[probe++ & (seekProbes.length - 1)];
+        return timeline.activeAt(time, active);
+    }
+
+    // Normal playback: monotonically increasing times, answered by the forward cursors.
+    @Benchmark
+    public long playbackLookup(Blackhole blackhole) {
+        playbackNow += 40;
+        if (playbackNow > playbackTo) playbackNow = playbackFrom;
+        blackhole.consume(timeline.activeAt(playbackNow, active));
+        return timeline.nextChangeAfter(playbackNow);
+    }
+
+    // Playback through a 23.976/25 retime: the same lookups plus the conversion both ways, as the updater does it.
+    @Benchmark
+    public long retimedPlaybackLookup(Blackhole blackhole) {
+        playbackNow += 40;
+        if (playbackNow > playbackTo) playbackNow = playbackFrom;
+        long cueTime = retime.toCue(playbackNow);
+        blackhole.consume(timeline.activeAt(cueTime, active));
+        return retime.toPlayer(timeline.nextChangeAfter(cueTime));
+    }
+
+    // The first-match list walk the updater used before the timeline index, kept for comparison.
+    @Benchmark
+    public int linearScan() {
+        long time = seekProbes[probe++ & (seekProbes.length - 1)];
+        for (int i = 0; i < entries.size(); i++) {
+            PersistentSubtitle.SubtitleEntry entry = entries.get(i);
+            if (time >= entry.startTimeMillis && time <= entry.endTimeMillis) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,55 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CueSearchBenchmark {
+
+    @Param({"baby-john", "burning-days"})
+    public String file;
+
+    // One trigram word, two words ANDed, and a two-letter prefix.
+    @Param({"هذا", "أنا خائفة", "لا"})
+    public String query;
+
+    private File compiled;
+    private PersistentSubtitle.CompiledTimeline data;
+    private PersistentSubtitle.CueSearchIndex index;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = Corpus.bytes(Corpus.subtitle(file));
+        PersistentSubtitle.CharsetDetector.Result detection = PersistentSubtitle.CharsetDetector.detect(bytes, Math.min(bytes.length, PersistentSubtitle.CharsetDetector.SAMPLE_SIZE));
+        List<PersistentSubtitle.SubtitleEntry> entries = PersistentSubtitle.doParse(new ByteArrayInputStream(bytes, detection.bomLength, bytes.length - detection.bomLength), detection.charset);
+        compiled = File.createTempFile("search", ".pst");
+        PersistentSubtitle.CompiledTimeline.write(entries, compiled, 0, PersistentSubtitle.TimelineCache.PARSER_VERSION);
+        data = PersistentSubtitle.CompiledTimeline.map(compiled);
+        index = PersistentSubtitle.CueSearchIndex.build(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiled.delete();
+    }
+
+    @Benchmark
+    public int[] search() {
+        return index.search(query, 50);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PersistentSubtitle.CueSearchIndex buildIndex() {
+        return PersistentSubtitle.CueSearchIndex.build(data);
+    }
+}
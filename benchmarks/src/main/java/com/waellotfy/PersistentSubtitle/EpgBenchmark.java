@@ -0,0 +1,123 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EpgBenchmark {
+
+    @Param({"13E", "16E", "19E", "30W", "7W", "Sport"})
+    public String guide;
+
+    private byte[] bytes;
+    private PersistentSubtitle.EpgGuide epg;
+    private File snapshotFile;
+    private PersistentSubtitle.EpgSnapshot snapshot;
+    private PersistentSubtitle.XmltvTime time;
+    private long[] probes;
+    private int probe;
+    private final List<PersistentSubtitle.EpgProgramme> window = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = Corpus.bytes(Corpus.guide(guide));
+        epg = PersistentSubtitle.EpgGuide.read(new ByteArrayInputStream(bytes));
+        time = new PersistentSubtitle.XmltvTime();
+        snapshotFile = File.createTempFile("guide-" + guide, ".pepg");
+        PersistentSubtitle.EpgSnapshot.write(epg, snapshotFile);
+        snapshot = PersistentSubtitle.EpgSnapshot.map(snapshotFile);
+        long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+        for (PersistentSubtitle.EpgGuide.Channel channel : epg.channels()) {
+            if (channel.programmes.length == 0) continue;
+            from = Math.min(from, channel.starts[0]);
+            to = Math.max(to, channel.maxStops[channel.maxStops.length - 1]);
+        }
+        Random random = new Random(42);
+        probes = new long[256];
+        for (int i = 0; i < probes.length; i++) probes[i] = from + (long) (random.nextDouble() * (to - from));
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshotFile.delete();
+    }
+
+    // Stream, parse and index the whole guide.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PersistentSubtitle.EpgGuide load() throws IOException {
+        return PersistentSubtitle.EpgGuide.read(new ByteArrayInputStream(bytes));
+    }
+
+    // What CleanGuides does per file: read, sanitize and write the guide back out as XMLTV.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int cleanToXmltv() throws IOException {
+        PersistentSubtitle.XmltvSanitizer sanitizer;
+        try (PersistentSubtitle.XmltvWriter writer = new PersistentSubtitle.XmltvWriter(new NullOutputStream())) {
+            sanitizer = new PersistentSubtitle.XmltvSanitizer(writer);
+            new PersistentSubtitle.XmltvReader().read(new ByteArrayInputStream(bytes), sanitizer);
+        }
+        return sanitizer.fixes();
+    }
+
+    // Now and next on every channel of the guide at one moment.
+    @Benchmark
+    public void nowNextAllChannels(Blackhole blackhole) {
+        long at = probes[probe++ & (probes.length - 1)];
+        for (PersistentSubtitle.EpgGuide.Channel channel : epg.channels()) {
+            blackhole.consume(channel.at(at));
+            blackhole.consume(channel.after(at));
+        }
+    }
+
+    // The same lookups answered from the mapped snapshot, titles decoded on first use.
+    @Benchmark
+    public void snapshotNowNextAllChannels(Blackhole blackhole) {
+        long at = probes[probe++ & (probes.length - 1)];
+        for (int channel = 0; channel < snapshot.channelCount(); channel++) {
+            int now = snapshot.at(channel, at), next = snapshot.after(channel, at);
+            if (now >= 0) blackhole.consume(snapshot.title(now));
+            if (next >= 0) blackhole.consume(snapshot.title(next));
+        }
+    }
+
+    // Opening a snapshot kept from an earlier run, instead of load().
+    @Benchmark
+    public PersistentSubtitle.EpgSnapshot mapSnapshot() throws IOException {
+        return PersistentSubtitle.EpgSnapshot.map(snapshotFile);
+    }
+
+    // Everything on any channel in a two hour window.
+    @Benchmark
+    public int twoHourWindow() {
+        long at = probes[probe++ & (probes.length - 1)];
+        window.clear();
+        for (PersistentSubtitle.EpgGuide.Channel channel : epg.channels()) channel.between(at, at + 2 * 3600_000L, window);
+        return window.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long parseStamp() {
+        return time.parse("20220526004000 +0200") + time.parse("20220526021000 +0200");
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override public void write(int b) {}
+        @Override public void write(byte[] b, int off, int len) {}
+    }
+}
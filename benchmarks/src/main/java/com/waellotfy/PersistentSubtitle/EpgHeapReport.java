@@ -0,0 +1,56 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+// Retained heap of each guide held as parsed objects versus as a mapped snapshot, measured as the used heap after
+// full collections with only that one guide reachable. The snapshot is measured as mapped, and again once every
+// channel and title has been read, which is about what the guide screens touch.
+//   java -XX:+UseSerialGC -cp target/benchmarks.jar:$ANDROID_JAR:$APPINVENTOR_JAR com.waellotfy.PersistentSubtitle.EpgHeapReport
+public final class EpgHeapReport {
+    static final String[] GUIDES = {"13E", "16E", "19E", "30W", "7W", "Sport"};
+
+    private EpgHeapReport() {}
+
+    public static void main(String[] args) throws IOException {
+        // The first round only loads classes and settles the heap.
+        for (String name : GUIDES) measure(name, false);
+        System.out.printf("%-6s %10s %12s %12s %14s %12s%n", "guide", "programmes", "objects KB", "mapped KB", "titles read KB", "file KB");
+        for (String name : GUIDES) measure(name, true);
+    }
+
+    private static void measure(String name, boolean print) throws IOException {
+        byte[] xml = Corpus.bytes(Corpus.guide(name));
+        File file = File.createTempFile("guide-" + name, ".pepg");
+        try {
+            long before = usedHeap();
+            PersistentSubtitle.EpgGuide guide = PersistentSubtitle.EpgGuide.read(new ByteArrayInputStream(xml));
+            long objects = usedHeap() - before;
+            int programmes = guide.programmeCount();
+            PersistentSubtitle.EpgSnapshot.write(guide, file);
+            guide = null;
+
+            before = usedHeap();
+            PersistentSubtitle.EpgSnapshot snapshot = PersistentSubtitle.EpgSnapshot.map(file);
+            long mapped = usedHeap() - before;
+            for (int c = 0; c < snapshot.channelCount(); c++) snapshot.channelName(c);
+            for (int i = 0; i < snapshot.programmeCount(); i++) snapshot.title(i);
+            long titles = usedHeap() - before;
+            if (print) System.out.printf("%-6s %10d %12d %12d %14d %12d%n", name, programmes, objects / 1024, mapped / 1024, titles / 1024, file.length() / 1024);
+            if (snapshot.programmeCount() != programmes) throw new IllegalStateException("snapshot lost programmes");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
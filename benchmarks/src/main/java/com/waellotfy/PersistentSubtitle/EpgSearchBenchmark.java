@@ -0,0 +1,60 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EpgSearchBenchmark {
+
+    private static final String[] GUIDES = {"13E", "16E", "19E", "30W", "7W", "Sport"};
+    // 2022-05-29 12:00 UTC, inside every guide.
+    private static final long NOW = 1653825600000L;
+
+    // Two full words across fields, a typed prefix, an Arabic word, and a common word with thousands of hits.
+    @Param({"rafe spall", "denm", "محمد", "the"})
+    public String query;
+
+    private File snapshotFile, indexFile;
+    private PersistentSubtitle.EpgSnapshot snapshot;
+    private PersistentSubtitle.EpgSearchIndex index;
+
+    // All six guides merged, as LoadSatelliteGuides leaves them.
+    @Setup
+    public void setup() throws IOException {
+        List<PersistentSubtitle.EpgGuide> guides = new ArrayList<>();
+        for (String guide : GUIDES) guides.add(PersistentSubtitle.EpgGuide.read(new ByteArrayInputStream(Corpus.bytes(Corpus.guide(guide)))));
+        snapshotFile = File.createTempFile("guide-search", ".pepg");
+        indexFile = File.createTempFile("guide-search", ".pepx");
+        PersistentSubtitle.EpgSnapshot.write(PersistentSubtitle.EpgGuide.merge(guides), snapshotFile);
+        snapshot = PersistentSubtitle.EpgSnapshot.map(snapshotFile);
+        index = PersistentSubtitle.EpgSearchIndex.map(snapshot, PersistentSubtitle.EpgSearchIndex.write(snapshot, indexFile));
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshotFile.delete();
+        indexFile.delete();
+    }
+
+    // One keystroke: every match ranked, the first 50 kept.
+    @Benchmark
+    public int[] search() {
+        return index.search(query, NOW, 50);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public File buildIndex() throws IOException {
+        return PersistentSubtitle.EpgSearchIndex.write(snapshot, indexFile);
+    }
+}
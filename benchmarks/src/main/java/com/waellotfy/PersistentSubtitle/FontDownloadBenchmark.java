@@ -0,0 +1,61 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Downloads all of fontlist.xml from LocalFontServer into an empty dir per invocation. latency stands in for the
+// round trip to the real host, which is what the parallel pool is there to hide.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FontDownloadBenchmark {
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"0", "40"})
+    public long latency;
+
+    private LocalFontServer server;
+    private List<PersistentSubtitle.FontDownloader.FontSource> sources;
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        server = new LocalFontServer("127.0.0.1", 0);
+        server.latencyMillis = latency;
+        sources = PersistentSubtitle.FontDownloader.parseFontList(new ByteArrayInputStream(server.fontList()));
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyDir() throws IOException {
+        dir = Files.createTempDirectory("fonts").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeDir() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.close();
+    }
+
+    @Benchmark
+    public PersistentSubtitle.FontDownloader.Result downloadAll() throws InterruptedException {
+        PersistentSubtitle.FontDownloader.Result result = new PersistentSubtitle.FontDownloader(dir, parallelism, null).downloadAll(sources);
+        if (result.downloaded != sources.size()) throw new IllegalStateException(result.failed + " fonts failed");
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Refreshes every guide in satlist.xml from LocalGuideServer into a feed cache:
+//   cold       an empty cache, so everything is downloaded and parsed
+//   unchanged  a cache holding the same grab, so every feed answers 304
+//   changed    a cache holding the old grab while the server has the next day's, so every feed is downloaded and
+//              folded into its cached snapshot channel by channel
+// The clock is pinned to midday on 29 May 2022, inside the repository's guides, so eviction has past programmes
+// to drop. The per-feed result of the last refresh is printed at the end of each trial.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GuideRefreshBenchmark {
+    static final long NOW = 1653825600000L; // 2022-05-29T12:00:00Z
+
+    @Param({"cold", "unchanged", "changed"})
+    public String scenario;
+
+    @Param({"0", "2048"})
+    public int kilobytesPerSecond;
+
+    private LocalGuideServer server;
+    private List<PersistentSubtitle.SatelliteGuides.Satellite> satellites;
+    private File primed, dir;
+    private PersistentSubtitle.SatelliteGuides.Result last;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException, InterruptedException {
+        server = new LocalGuideServer("127.0.0.1", 0);
+        satellites = PersistentSubtitle.SatelliteGuides.parseSatList(new ByteArrayInputStream(server.satList()));
+        primed = Files.createTempDirectory("guides-primed").toFile();
+        if (!"cold".equals(scenario)) {
+            new PersistentSubtitle.SatelliteGuides(5, new PersistentSubtitle.GuideFeedCache(primed), Long.MIN_VALUE).loadAll(satellites, new File(primed, "guide.pepg"));
+        }
+        server.version = "changed".equals(scenario) ? 2 : 1;
+        server.kilobytesPerSecond = kilobytesPerSecond;
+    }
+
+    @Setup(Level.Invocation)
+    public void copyCache() throws IOException {
+        dir = Files.createTempDirectory("guides").toFile();
+        File[] files = primed.listFiles();
+        if (files != null) for (File f : files) Files.copy(f.toPath(), new File(dir, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeCache() {
+        delete(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.close();
+        delete(primed);
+        if (last == null) return;
+        System.out.println();
+        for (PersistentSubtitle.SatelliteGuides.Feed feed : last.feeds) {
+            System.out.printf("  %-14s %-13s %8d bytes %5d ms  %5d programmes%n", feed.satellite.name,
+                    feed.notModified ? "not modified" : "downloaded", feed.bytes, feed.totalMillis, feed.snapshot.programmeCount());
+        }
+    }
+
+    @Benchmark
+    public PersistentSubtitle.SatelliteGuides.Result refresh() throws InterruptedException, IOException {
+        PersistentSubtitle.SatelliteGuides.Result result = new PersistentSubtitle.SatelliteGuides(5, new PersistentSubtitle.GuideFeedCache(dir), NOW)
+                .loadAll(satellites, new File(dir, "guide.pepg"));
+        if (result.loaded != satellites.size()) throw new IllegalStateException((satellites.size() - result.loaded) + " guides failed");
+        return last = result;
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+}
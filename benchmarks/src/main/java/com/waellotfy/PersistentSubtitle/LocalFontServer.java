@@ -0,0 +1,107 @@
+package com.waellotfy.PersistentSubtitle;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// Offline stand-in for the font host: serves FontFiles/ with Range support and a copy of fontlist.xml whose
+// URLs point back at this server. latencyMillis delays every response; dropAfterBytes cuts each body short
+// to exercise resumed downloads.
+final class LocalFontServer implements AutoCloseable {
+    static final String UPSTREAM = "https://github.com/zantac/OSN/raw/master/";
+
+    private final HttpServer server;
+    private final File fontDir;
+    private final byte[] fontList;
+    volatile long latencyMillis;
+    volatile long dropAfterBytes = -1;
+
+    LocalFontServer(String host, int port) throws IOException {
+        fontDir = new File(Corpus.dir(), "FontFiles");
+        if (!fontDir.isDirectory()) throw new IllegalStateException("Font dir not found: " + fontDir.getAbsolutePath() + " (set -Dcorpus.dir)");
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        String base = "http://" + host + ":" + server.getAddress().getPort() + "/";
+        fontList = new String(Corpus.bytes("fontlist.xml"), StandardCharsets.UTF_8).replace(UPSTREAM, base).getBytes(StandardCharsets.UTF_8);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    String fontListUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/fontlist.xml";
+    }
+
+    byte[] fontList() {
+        return fontList;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (latencyMillis > 0) Thread.sleep(latencyMillis);
+            String path = exchange.getRequestURI().getPath();
+            if ("/fontlist.xml".equals(path)) {
+                exchange.sendResponseHeaders(200, fontList.length);
+                try (OutputStream out = exchange.getResponseBody()) { out.write(fontList); }
+                return;
+            }
+            File file = path.startsWith("/FontFiles/") ? new File(fontDir, path.substring("/FontFiles/".length())) : null;
+            if (file == null || !file.isFile() || !file.getParentFile().equals(fontDir)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            long length = file.length(), from = 0, to = length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && range.startsWith("bytes=")) {
+                String[] bounds = range.substring(6).split("-", 2);
+                from = Long.parseLong(bounds[0]);
+                if (bounds.length > 1 && !bounds[1].isEmpty()) to = Math.min(to, Long.parseLong(bounds[1]));
+                if (from >= length) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + length);
+                exchange.sendResponseHeaders(206, to - from + 1);
+            } else {
+                exchange.sendResponseHeaders(200, length);
+            }
+            long remaining = to - from + 1, limit = dropAfterBytes;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); OutputStream out = exchange.getResponseBody()) {
+                raf.seek(from);
+                byte[] buffer = new byte[16 * 1024];
+                while (remaining > 0) {
+                    int chunk = (int) Math.min(buffer.length, remaining);
+                    if (limit >= 0) {
+                        if (limit == 0) return;
+                        chunk = (int) Math.min(chunk, limit);
+                        limit -= chunk;
+                    }
+                    raf.readFully(buffer, 0, chunk);
+                    out.write(buffer, 0, chunk);
+                    remaining -= chunk;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    // Serves the fonts for a device on the same network: LocalFontServer [host] [port]
+    public static void main(String[] args) throws IOException {
+        LocalFontServer server = new LocalFontServer(args.length > 0 ? args[0] : "0.0.0.0", args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+        System.out.println("Font list at " + server.fontListUrl());
+    }
+}
@@ -0,0 +1,191 @@
+package com.waellotfy.PersistentSubtitle;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+// Offline stand-in for the guide host: serves the XMLTV files at the repository root and a copy of satlist.xml
+// whose URLs point back at this server. latencyMillis delays every response; kilobytesPerSecond throttles each
+// body to look like a slow link, which is where fetching the satellites in parallel pays off.
+// Guides carry an ETag and Last-Modified and honour If-None-Match / If-Modified-Since and gzip. version 1 serves
+// the files as they are; version 2 serves nextGrab() of them, the same feeds a day later.
+final class LocalGuideServer implements AutoCloseable {
+    static final String UPSTREAM = "https://raw.githubusercontent.com/zantac/OSN/master/";
+    private static final String[] LAST_MODIFIED = {"Thu, 26 May 2022 00:00:00 GMT", "Fri, 27 May 2022 00:00:00 GMT"};
+    private static final Pattern PROGRAMME = Pattern.compile(
+            "(?s)[ \\t]*<programme start=\"(\\d{8})(\\d{6}[^\"]*)\" stop=\"(\\d{8})(\\d{6}[^\"]*)\"(.*?)</programme>\\r?\\n");
+    private static final Pattern TITLE = Pattern.compile("(<title[^>]*>)([^<]*)(</title>)");
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final File root;
+    private final byte[] satList;
+    private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+    volatile long latencyMillis;
+    volatile int kilobytesPerSecond;
+    volatile int version = 1;
+    volatile boolean gzip = true;
+
+    LocalGuideServer(String host, int port) throws IOException {
+        root = Corpus.dir();
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        String base = "http://" + host + ":" + server.getAddress().getPort() + "/";
+        satList = new String(Corpus.bytes("satlist.xml"), StandardCharsets.UTF_8).replace(UPSTREAM, base).getBytes(StandardCharsets.UTF_8);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String satListUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/satlist.xml";
+    }
+
+    byte[] satList() {
+        return satList;
+    }
+
+    // The guide as served at a version, uncompressed.
+    byte[] guide(String name, int version) throws IOException {
+        String key = name + "@" + version;
+        byte[] body = bodies.get(key);
+        if (body == null) {
+            body = Files.readAllBytes(new File(root, name).toPath());
+            if (version > 1) body = nextGrab(body);
+            bodies.put(key, body);
+        }
+        return body;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (latencyMillis > 0) Thread.sleep(latencyMillis);
+            String path = exchange.getRequestURI().getPath();
+            byte[] body;
+            if ("/satlist.xml".equals(path)) {
+                body = satList;
+            } else {
+                String name = path.substring(1);
+                if (!path.endsWith(".xml") || path.indexOf('/', 1) >= 0 || !new File(root, name).isFile()) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                int served = version;
+                body = guide(name, served);
+                String etag = "\"" + name + "-" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+                String lastModified = LAST_MODIFIED[Math.min(served, LAST_MODIFIED.length) - 1];
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Last-Modified", lastModified);
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+                if (ifNoneMatch != null ? ifNoneMatch.equals(etag) : lastModified.equals(ifModifiedSince)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (gzip && accept != null && accept.contains("gzip")) {
+                    ByteArrayOutputStream packed = new ByteArrayOutputStream();
+                    try (GZIPOutputStream out = new GZIPOutputStream(packed)) { out.write(body); }
+                    body = packed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                int rate = kilobytesPerSecond;
+                if (rate <= 0) {
+                    out.write(body);
+                    return;
+                }
+                // Tenth-of-a-second slices at the configured rate.
+                int slice = Math.max(1, rate * 1024 / 10);
+                for (int offset = 0; offset < body.length; offset += slice) {
+                    out.write(body, offset, Math.min(slice, body.length - offset));
+                    out.flush();
+                    Thread.sleep(100);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // The grab a day later: the first day has aired and is gone, every tenth programme of the second day got a new
+    // title, and a new day (the last full one, moved on two days) follows the old last day.
+    static byte[] nextGrab(byte[] xml) {
+        String text = new String(xml, StandardCharsets.UTF_8);
+        Matcher matcher = PROGRAMME.matcher(text);
+        List<String> blocks = new ArrayList<>(), days = new ArrayList<>();
+        TreeSet<String> allDays = new TreeSet<>();
+        int head = -1, tail = 0;
+        while (matcher.find()) {
+            if (head < 0) head = matcher.start();
+            tail = matcher.end();
+            blocks.add(matcher.group());
+            days.add(matcher.group(1));
+            allDays.add(matcher.group(1));
+        }
+        if (allDays.size() < 3) return xml;
+        List<String> sorted = new ArrayList<>(allDays);
+        String first = sorted.get(0), second = sorted.get(1), lastFull = sorted.get(sorted.size() - 2);
+        StringBuilder out = new StringBuilder(text.length()).append(text, 0, head);
+        List<String> appended = new ArrayList<>();
+        int secondDayIndex = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            String block = blocks.get(i), day = days.get(i);
+            if (day.equals(lastFull)) appended.add(shiftDays(block, 2));
+            if (day.equals(first)) continue;
+            if (day.equals(second) && secondDayIndex++ % 10 == 0) {
+                Matcher title = TITLE.matcher(block);
+                if (title.find()) block = block.substring(0, title.end(2)) + " (Live)" + block.substring(title.end(2));
+            }
+            out.append(block);
+        }
+        for (String block : appended) out.append(block);
+        out.append(text, tail, text.length());
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String shiftDays(String block, int days) {
+        Matcher matcher = PROGRAMME.matcher(block);
+        if (!matcher.find()) return block;
+        String start = LocalDate.parse(matcher.group(1), DAY).plusDays(days).format(DAY);
+        String stop = LocalDate.parse(matcher.group(3), DAY).plusDays(days).format(DAY);
+        return block.substring(0, matcher.start(1)) + start + block.substring(matcher.end(1), matcher.start(3)) + stop + block.substring(matcher.end(3));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Serves the guides for a device on the same network: LocalGuideServer [host] [port] [version]
+    public static void main(String[] args) throws IOException {
+        LocalGuideServer server = new LocalGuideServer(args.length > 0 ? args[0] : "0.0.0.0", args.length > 1 ? Integer.parseInt(args[1]) : 8081);
+        if (args.length > 2) server.version = Integer.parseInt(args[2]);
+        System.out.println("Satellite list at " + server.satListUrl() + ", guides at version " + server.version);
+    }
+}
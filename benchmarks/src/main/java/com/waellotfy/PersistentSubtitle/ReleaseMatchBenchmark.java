@@ -0,0 +1,63 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReleaseMatchBenchmark {
+
+    static final String[] GUIDES = {"13E", "16E", "19E", "30W", "7W", "Sport"};
+    // 2022-05-29 12:00 UTC, inside every guide.
+    static final long NOW = 1653825600000L;
+
+    // The repository's own subtitles, which the 2022 guides do not carry, then two that they do: an episode in
+    // scene form and a misspelt title with its apostrophe lost.
+    @Param({Corpus.HOUSE_OF_THE_DRAGON, Corpus.BABY_JOHN, "Kaser.Adem.E11.2022.1080p.WEB-DL.x264.srt", "Nur.and.the.Dragons.Tempel.720p.HDTV.srt"})
+    public String release;
+
+    private File snapshotFile;
+    private PersistentSubtitle.EpgSnapshot snapshot;
+    private PersistentSubtitle.EpgTitleMatcher matcher;
+
+    // All six guides merged, as LoadSatelliteGuides leaves them.
+    @Setup
+    public void setup() throws IOException {
+        snapshotFile = File.createTempFile("guide-match", ".pepg");
+        snapshot = mergedGuides(snapshotFile);
+        matcher = PersistentSubtitle.EpgTitleMatcher.build(snapshot);
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshotFile.delete();
+    }
+
+    static PersistentSubtitle.EpgSnapshot mergedGuides(File file) throws IOException {
+        List<PersistentSubtitle.EpgGuide> guides = new ArrayList<>();
+        for (String guide : GUIDES) guides.add(PersistentSubtitle.EpgGuide.read(new ByteArrayInputStream(Corpus.bytes(Corpus.guide(guide)))));
+        PersistentSubtitle.EpgSnapshot.write(PersistentSubtitle.EpgGuide.merge(guides), file);
+        return PersistentSubtitle.EpgSnapshot.map(file);
+    }
+
+    // What MatchReleaseToGuide does per call: parse the name, then rank the upcoming programmes.
+    @Benchmark
+    public int[] match() {
+        return matcher.match(PersistentSubtitle.ReleaseName.parse(release), NOW, 10);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PersistentSubtitle.EpgTitleMatcher buildMatcher() throws IOException {
+        return PersistentSubtitle.EpgTitleMatcher.build(snapshot);
+    }
+}
@@ -0,0 +1,72 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// How well release names find their programmes in the merged guides. Each upcoming programme is written back as
+// a scene release name (title with dots, onscreen episode, year, quality tags) and counts as found when its own
+// airing is among the first ten matches; the repository's subtitle names are then parsed and matched as they are.
+// Exits non-zero when fewer than 95% are found.
+//   java -cp target/benchmarks.jar:$ANDROID_JAR:$APPINVENTOR_JAR com.waellotfy.PersistentSubtitle.ReleaseMatchReport
+public final class ReleaseMatchReport {
+    private ReleaseMatchReport() {}
+
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("guide-match", ".pepg");
+        try {
+            PersistentSubtitle.EpgSnapshot snapshot = ReleaseMatchBenchmark.mergedGuides(file);
+            long started = System.nanoTime();
+            PersistentSubtitle.EpgTitleMatcher matcher = PersistentSubtitle.EpgTitleMatcher.build(snapshot);
+            System.out.printf("%d programmes, %d distinct titles, matcher built in %d ms%n", snapshot.programmeCount(),
+                    matcher.titleCount(), (System.nanoTime() - started) / 1_000_000);
+
+            int tried = 0, found = 0;
+            long nanos = 0;
+            for (int index = 0; index < snapshot.programmeCount(); index++) {
+                String title = snapshot.title(index);
+                if (snapshot.start(index) < ReleaseMatchBenchmark.NOW || title == null || title.isEmpty()) continue;
+                String name = sceneName(title, snapshot.field(PersistentSubtitle.EpgSnapshot.EPISODE, index), snapshot.field(PersistentSubtitle.EpgSnapshot.DATE, index));
+                long before = System.nanoTime();
+                int[] hits = matcher.match(PersistentSubtitle.ReleaseName.parse(name), ReleaseMatchBenchmark.NOW, 10);
+                nanos += System.nanoTime() - before;
+                tried++;
+                for (int hit : hits) {
+                    if (snapshot.start(hit) == snapshot.start(index) && snapshot.channelOf(hit) == snapshot.channelOf(index)) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            System.out.printf("%d of %d upcoming programmes found from their release names (%.1f%%), %d us per match%n",
+                    found, tried, 100.0 * found / tried, nanos / tried / 1000);
+
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            for (String name : new String[] {Corpus.HOUSE_OF_THE_DRAGON, Corpus.BABY_JOHN, Corpus.BURNING_DAYS}) {
+                PersistentSubtitle.ReleaseName release = PersistentSubtitle.ReleaseName.parse(name);
+                int[] hits = matcher.match(release, ReleaseMatchBenchmark.NOW, 1);
+                System.out.printf("%s: \"%s\" year %d season %d episode %d -> %s%n", name, release.title, release.year, release.season, release.episode,
+                        hits.length == 0 ? "not in these guides" : snapshot.title(hits[0]) + " at " + format.format(new Date(snapshot.start(hits[0]))));
+            }
+            if (found < tried * 0.95) System.exit(1);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static String sceneName(String title, String episode, String date) {
+        StringBuilder name = new StringBuilder();
+        for (String word : title.split("[^\\p{L}\\p{N}']+")) {
+            if (word.isEmpty()) continue;
+            if (name.length() > 0) name.append('.');
+            name.append(word);
+        }
+        if (episode != null) name.append('.').append(episode.replace(" ", ""));
+        if (date != null && date.length() >= 4) name.append('.').append(date, 0, 4);
+        return name.append(".1080p.WEB-DL.x264.srt").toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Loads and merges every guide in satlist.xml from LocalGuideServer. The throttle stands in for a phone's link to
+// the guide host; parallelism 1 is the old one-after-another load. Each load starts from an empty feed cache. The
+// per-satellite times of the last load are printed at the end of each trial.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SatelliteGuideBenchmark {
+
+    @Param({"1", "5"})
+    public int parallelism;
+
+    @Param({"0", "2048"})
+    public int kilobytesPerSecond;
+
+    private LocalGuideServer server;
+    private List<PersistentSubtitle.SatelliteGuides.Satellite> satellites;
+    private PersistentSubtitle.SatelliteGuides.Result last;
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        server = new LocalGuideServer("127.0.0.1", 0);
+        server.kilobytesPerSecond = kilobytesPerSecond;
+        satellites = PersistentSubtitle.SatelliteGuides.parseSatList(new ByteArrayInputStream(server.satList()));
+    }
+
+    @Setup(Level.Invocation)
+    public void createCache() throws IOException {
+        dir = Files.createTempDirectory("guides").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeCache() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.close();
+        if (last == null) return;
+        System.out.println();
+        for (PersistentSubtitle.SatelliteGuides.Feed feed : last.feeds) {
+            System.out.printf("  %-14s %8d bytes  first byte %5d ms  total %5d ms%n", feed.satellite.name, feed.bytes, feed.connectMillis, feed.totalMillis);
+        }
+        System.out.printf("  merged %d channels (%d shared), %d programmes (%d duplicates dropped) in %d ms%n", last.guide.channelCount(),
+                last.sharedChannels, last.guide.programmeCount(), last.droppedProgrammes, last.elapsedMillis);
+    }
+
+    @Benchmark
+    public PersistentSubtitle.SatelliteGuides.Result loadAll() throws InterruptedException, IOException {
+        PersistentSubtitle.SatelliteGuides.Result result = new PersistentSubtitle.SatelliteGuides(parallelism, new PersistentSubtitle.GuideFeedCache(dir), Long.MIN_VALUE)
+                .loadAll(satellites, new File(dir, "guide.pepg"));
+        if (result.loaded != satellites.size()) throw new IllegalStateException((satellites.size() - result.loaded) + " guides failed");
+        return last = result;
+    }
+}
@@ -0,0 +1,76 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SrtParseBenchmark {
+
+    @Param({"baby-john", "house-of-the-dragon", "burning-days"})
+    public String file;
+
+    private byte[] bytes;
+    private PersistentSubtitle.CharsetDetector.Result detection;
+    private char[] timingLines;
+    private File cacheDir;
+    private PersistentSubtitle.TimelineCache cache;
+    private long cacheKey;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = Corpus.bytes(Corpus.subtitle(file));
+        detection = PersistentSubtitle.CharsetDetector.detect(bytes, Math.min(bytes.length, PersistentSubtitle.CharsetDetector.SAMPLE_SIZE));
+        timingLines = "00:02:41,600 --> 00:02:42,720\n1:02:03.5 --> 1:02:04 X1:100".toCharArray();
+        cacheDir = Files.createTempDirectory("timelines").toFile();
+        cache = new PersistentSubtitle.TimelineCache(cacheDir);
+        cacheKey = PersistentSubtitle.TimelineCache.contentKey(bytes, "auto");
+        cache.store(doParse(), cacheKey, bytes.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        cacheDir.delete();
+    }
+
+    @Benchmark
+    public List<PersistentSubtitle.SubtitleEntry> doParse() throws IOException {
+        return PersistentSubtitle.doParse(new ByteArrayInputStream(bytes, detection.bomLength, bytes.length - detection.bomLength), detection.charset);
+    }
+
+    // What a reopen costs once the content key is known: validate the cache entry, map it, build the index.
+    @Benchmark
+    public PersistentSubtitle.CueTimeline reopenCompiled() throws IOException {
+        return PersistentSubtitle.CompiledTimeline.map(cache.lookup(cacheKey, bytes.length)).newIndex();
+    }
+
+    @Benchmark
+    public long contentKey() {
+        return PersistentSubtitle.TimelineCache.contentKey(bytes, "auto");
+    }
+
+    @Benchmark
+    public PersistentSubtitle.CharsetDetector.Result detectCharset() {
+        return PersistentSubtitle.CharsetDetector.detect(bytes, Math.min(bytes.length, PersistentSubtitle.CharsetDetector.SAMPLE_SIZE));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long parseSrtTime() {
+        return PersistentSubtitle.SrtTokenizer.parseTimestamp(timingLines, 0, 12)
+                + PersistentSubtitle.SrtTokenizer.parseTimestamp(timingLines, 17, 29)
+                + PersistentSubtitle.SrtTokenizer.parseTimestamp(timingLines, 30, 39);
+    }
+}
@@ -0,0 +1,98 @@
+package com.waellotfy.PersistentSubtitle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickerBenchmark {
+
+    private static final String[] GUIDES = {"13E", "16E", "19E", "30W", "7W", "Sport"};
+    // 2022-05-29 12:00 UTC, inside every guide.
+    private static final long NOW = 1653825600000L;
+    private static final long DAY = 24 * 3600_000L, POLL_INTERVAL = 30_000L;
+
+    @Param({"1", "50"})
+    public int channels;
+
+    private File snapshotFile;
+    private PersistentSubtitle.EpgSnapshot snapshot;
+    private int[] watched, expired;
+    private PersistentSubtitle.TimerWheel wheel;
+
+    // All six guides merged; the watched channels are the first ones with something on air at NOW.
+    @Setup
+    public void setup() throws IOException {
+        List<PersistentSubtitle.EpgGuide> guides = new ArrayList<>();
+        for (String guide : GUIDES) guides.add(PersistentSubtitle.EpgGuide.read(new ByteArrayInputStream(Corpus.bytes(Corpus.guide(guide)))));
+        snapshotFile = File.createTempFile("guide-ticker", ".pepg");
+        PersistentSubtitle.EpgSnapshot.write(PersistentSubtitle.EpgGuide.merge(guides), snapshotFile);
+        snapshot = PersistentSubtitle.EpgSnapshot.map(snapshotFile);
+        watched = new int[channels];
+        for (int channel = 0, found = 0; found < channels; channel++) {
+            if (snapshot.at(channel, NOW) >= 0) watched[found++] = channel;
+        }
+        expired = new int[channels];
+        wheel = new PersistentSubtitle.TimerWheel(NOW);
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshotFile.delete();
+    }
+
+    // A day of the ticker as the service runs it: sleep until the wheel's next deadline, refresh only the
+    // channels that came due. Returns the number of wakes.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int wheelDay(Blackhole blackhole) {
+        wheel.clear(NOW);
+        for (int line = 0; line < watched.length; line++) refresh(line, NOW, blackhole);
+        int wakes = 0;
+        for (long wake = wheel.nextWake(); wake < NOW + DAY; wake = wheel.nextWake()) {
+            int count = wheel.advance(wake, expired);
+            for (int i = 0; i < count; i++) refresh(expired[i], wake, blackhole);
+            wakes++;
+        }
+        return wakes;
+    }
+
+    // The same day polled every 30 seconds, every channel looked up on each wake, for comparison.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void pollDay(Blackhole blackhole) {
+        for (long now = NOW; now < NOW + DAY; now += POLL_INTERVAL) {
+            for (int channel : watched) {
+                int on = snapshot.at(channel, now), next = snapshot.after(channel, now);
+                if (on >= 0) blackhole.consume(snapshot.title(on));
+                if (next >= 0) blackhole.consume(snapshot.title(next));
+            }
+        }
+    }
+
+    private void refresh(int line, long now, Blackhole blackhole) {
+        int channel = watched[line];
+        int on = snapshot.at(channel, now), next = snapshot.after(channel, now);
+        long boundary = Long.MAX_VALUE;
+        if (on >= 0) {
+            blackhole.consume(snapshot.title(on));
+            boundary = snapshot.stop(on);
+        }
+        if (next >= 0) {
+            blackhole.consume(snapshot.title(next));
+            boundary = Math.min(boundary, snapshot.start(next));
+        }
+        if (boundary != Long.MAX_VALUE) wheel.schedule(line, boundary);
+        else wheel.cancel(line);
+    }
+}